@@ -0,0 +1,60 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token acquisition under contention: 16 threads reading a cached token, and 16 threads
+ * forcing refreshes that are coalesced into single-flight requests to the mock API server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VippsAuthBenchmark {
+    private VippsMockApiServer server;
+    private VippsAuthService authService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new VippsMockApiServer(0);
+        server.start();
+        VippsHttpClient httpClient = new VippsHttpClient();
+        httpClient.setRateLimiter(VippsRateLimiter.unlimited());
+        VippsCredentialManager credentials = new VippsCredentialManager("client", "secret", "subscription");
+        authService = new VippsAuthService(credentials, httpClient, server.getBaseUrl());
+        authService.authenticate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String cachedToken() throws Exception {
+        return authService.getAccessToken();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Boolean coalescedRefresh() {
+        return authService.authenticateAsync().join();
+    }
+}
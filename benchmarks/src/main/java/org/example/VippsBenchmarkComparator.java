@@ -0,0 +1,88 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, e.g. {@code results/1.0.json} and
+ * {@code results/1.1-SNAPSHOT.json}, and reports every benchmark that got slower by more
+ * than the threshold. Exits with status 1 if there is a regression.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.example.VippsBenchmarkComparator baseline.json current.json [thresholdPercent]
+ * </pre>
+ */
+public final class VippsBenchmarkComparator {
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private VippsBenchmarkComparator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: VippsBenchmarkComparator <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+
+        Map<String, JSONObject> baseline = load(Path.of(args[0]));
+        Map<String, JSONObject> current = load(Path.of(args[1]));
+        int regressions = 0;
+
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s new%n", entry.getKey());
+                continue;
+            }
+
+            JSONObject after = entry.getValue();
+            double oldScore = before.getJSONObject("primaryMetric").getDouble("score");
+            double newScore = after.getJSONObject("primaryMetric").getDouble("score");
+            String unit = after.getJSONObject("primaryMetric").getString("scoreUnit");
+
+            // Throughput is better when higher, all time-based modes are better when lower
+            boolean higherIsBetter = after.getString("mode").equals("thrpt");
+            double change = (newScore - oldScore) / oldScore * 100;
+            double slowdown = higherIsBetter ? -change : change;
+            boolean regressed = slowdown > threshold;
+            if (regressed) {
+                regressions++;
+            }
+
+            System.out.printf("%-70s %12.3f -> %12.3f %-10s %+7.1f%%%s%n",
+                    entry.getKey(), oldScore, newScore, unit, change, regressed ? "  REGRESSION" : "");
+        }
+
+        System.out.println(regressions + " regression(s) above " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * Reads a JMH result file into a map keyed by benchmark name and parameters
+     */
+    private static Map<String, JSONObject> load(Path file) throws IOException {
+        JSONArray results = new JSONArray(Files.readString(file));
+        Map<String, JSONObject> byKey = new LinkedHashMap<>();
+
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark"));
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                for (Map.Entry<String, Object> param : new TreeMap<>(params.toMap()).entrySet()) {
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+            byKey.put(key.toString(), result);
+        }
+        return byKey;
+    }
+}
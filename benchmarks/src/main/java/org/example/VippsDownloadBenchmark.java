@@ -0,0 +1,86 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end download of a report from the mock API server to disk: the streaming path used
+ * by {@link VippsLedgerReportService#downloadReport(String, String)} against reading the
+ * whole body into a String first and writing it afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class VippsDownloadBenchmark {
+    private static final int BYTES_PER_ROW = 95;
+
+    @Param({"1", "100"})
+    public int sizeMb;
+
+    private VippsMockApiServer server;
+    private VippsHttpClient httpClient;
+    private VippsLedgerReportService reportService;
+    private Path outputDirectory;
+    private String reportUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new VippsMockApiServer(0);
+        server.setGenerationTime(Duration.ZERO);
+        server.setReportRows(sizeMb * 1024L * 1024L / BYTES_PER_ROW);
+        server.start();
+        httpClient = new VippsHttpClient();
+        httpClient.setRateLimiter(VippsRateLimiter.unlimited());
+        VippsCredentialManager credentials = new VippsCredentialManager("client", "secret", "subscription");
+        VippsAuthService authService = new VippsAuthService(credentials, httpClient, server.getBaseUrl());
+        reportService = new VippsLedgerReportService(authService, httpClient, credentials, server.getBaseUrl());
+
+        outputDirectory = Files.createTempDirectory("vipps-download-benchmark");
+        reportService.setOutputDirectory(outputDirectory);
+        String reportId = reportService.requestLedgerReport(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31));
+        reportUrl = reportService.pollReportStatus(reportId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        try (var files = Files.list(outputDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(outputDirectory);
+    }
+
+    @Benchmark
+    public String streaming() throws Exception {
+        return reportService.downloadReport(reportUrl, "streaming");
+    }
+
+    @Benchmark
+    public Path inMemory() throws Exception {
+        HttpResponse<String> response = httpClient.sendRequest(httpClient.createDownloadRequest(reportUrl));
+        return Files.writeString(outputDirectory.resolve("vipps_ledger_report_in_memory.csv"), response.body());
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV ingest rates for ledgers of 1 MB, 100 MB and 1 GB: sequential parsing, parallel
+ * aggregation and columnar conversion. Each ledger is generated once into the temporary
+ * directory and reused by later runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VippsIngestBenchmark {
+    @Param({"1", "100", "1024"})
+    public int sizeMb;
+
+    private Path ledgerFile;
+    private Path columnarFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ledgerFile = Path.of(System.getProperty("java.io.tmpdir"), "vipps-benchmark-ledger-" + sizeMb + "mb.csv");
+        if (!Files.exists(ledgerFile)) {
+            VippsSyntheticLedger.generate(ledgerFile, sizeMb * 1024L * 1024L);
+        }
+        columnarFile = Files.createTempFile("vipps-benchmark-ledger", ".vlc");
+    }
+
+    @Benchmark
+    public long parse() throws Exception {
+        try (VippsLedgerParser parser = VippsLedgerParser.open(ledgerFile)) {
+            return parser.forEach(record -> { });
+        }
+    }
+
+    @Benchmark
+    public VippsLedgerTotals aggregate() throws Exception {
+        return new VippsLedgerAggregator().aggregate(ledgerFile);
+    }
+
+    @Benchmark
+    public long convertToColumnar() throws Exception {
+        return VippsColumnarLedgerWriter.convert(ledgerFile, columnarFile);
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Totals the exported rows by entry type, day and payout, see {@link VippsLedgerTotals}.
+ * The totals are written to a JSON file, or a CSV file if its name ends in ".csv", on commit.
+ * A sink that appends adds the totals to those already in its JSON file, e.g. for the rows
+ * newly added to a synced ledger.
+ */
+public class VippsAggregateSink implements VippsLedgerSink {
+    private final Path totalsFile;
+    private final boolean append;
+    private final VippsLedgerTotals totals = new VippsLedgerTotals();
+
+    /**
+     * @param totalsFile the file to write the totals to, or null to only keep them in memory
+     */
+    public VippsAggregateSink(Path totalsFile) {
+        this(totalsFile, false);
+    }
+
+    /**
+     * @param totalsFile the file to write the totals to, or null to only keep them in memory
+     * @param append true to add the totals to those in an existing JSON file instead of replacing them
+     * @throws IllegalArgumentException if appending to a CSV file
+     */
+    public VippsAggregateSink(Path totalsFile, boolean append) {
+        if (append && totalsFile != null && totalsFile.getFileName().toString().endsWith(".csv")) {
+            throw new IllegalArgumentException("Totals can only be appended to a JSON file: " + totalsFile);
+        }
+        this.totalsFile = totalsFile;
+        this.append = append;
+    }
+
+    @Override
+    public void accept(List<VippsLedgerRecord> records) {
+        for (VippsLedgerRecord record : records) {
+            totals.add(record);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (totalsFile == null) {
+            return;
+        }
+        VippsLedgerTotals written = totals;
+        if (append && Files.exists(totalsFile)) {
+            written = VippsLedgerTotals.readJson(totalsFile).merge(totals);
+        }
+        if (totalsFile.getFileName().toString().endsWith(".csv")) {
+            written.writeCsv(totalsFile);
+        } else {
+            written.writeJson(totalsFile);
+        }
+        System.out.println("Exported totals of " + written.getTotalCount() + " rows to: " + totalsFile);
+    }
+
+    @Override
+    public void abort() {
+    }
+
+    /**
+     * @return the totals of the rows received so far, without those of an appended file;
+     *         complete once the pipeline has finished
+     */
+    public VippsLedgerTotals getTotals() {
+        return totals;
+    }
+}
@@ -1,72 +1,99 @@
 package org.example;
 
-import org.json.JSONObject;
-
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class VippsAuthService implements Closeable {
+    // Tokens are treated as expired this long before their actual expiration
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(5);
+    // Background refresh starts this long before the expiry margin is reached
+    private static final Duration REFRESH_LEAD = Duration.ofMinutes(1);
+    private static final Duration REFRESH_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final ScheduledExecutorService REFRESH_SCHEDULER = createScheduler();
 
-public class VippsAuthService {
-    private final HttpClient client;
+    private final VippsHttpClient httpClient;
     private final String baseUrl;
     private final VippsCredentialManager credentialManager;
-    private String accessToken;
-    private Instant tokenExpiration;
+    private final Object refreshLock = new Object();
+    private volatile Token token;
+    private CompletableFuture<Boolean> refreshInFlight;
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean closed;
 
     public VippsAuthService(VippsCredentialManager credentialManager, String baseUrl) {
+        this(credentialManager, new VippsHttpClient(), baseUrl);
+    }
+
+    public VippsAuthService(VippsCredentialManager credentialManager, VippsHttpClient httpClient, String baseUrl) {
         this.credentialManager = credentialManager;
+        this.httpClient = httpClient;
         this.baseUrl = baseUrl;
-        this.client = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_2)
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
     }
 
 
     /**
-     * Authenticates with the Vipps API to get an access token
+     * Authenticates with the Vipps API to get an access token. Concurrent callers share
+     * a single in-flight request.
      * @return true if authentication was successful
      * @throws IOException if an I/O error occurs
      * @throws InterruptedException if the operation is interrupted
      */
     public boolean authenticate() throws IOException, InterruptedException {
-        // Create Basic Auth header
-        String auth = credentialManager.getClientId() + ":" + credentialManager.getClientSecret();
-        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes());
-
-        // Build the request
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/accessToken/get"))
-                .header("client_id", credentialManager.getClientId())
-                .header("client_secret", credentialManager.getClientSecret())
-                .header("Ocp-Apim-Subscription-Key", credentialManager.getSubscriptionKey())
-                .header("Authorization", "Basic " + encodedAuth)
-                .POST(HttpRequest.BodyPublishers.noBody())
-                .build();
-
-        // Send the request
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if(response.statusCode() != 200) {
-            System.err.println("Authentication failed with status code " + response.statusCode() +
-                    ", Response: " + response.body());
-            return false;
+        try {
+            return authenticateAsync().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Authentication failed", e.getCause());
         }
+    }
 
-        // Parse the response to get the access token and expiration time
-        JSONObject jsonResponse = new JSONObject(response.body());
-        accessToken = jsonResponse.getString("access_token");
+    /**
+     * Authenticates with the Vipps API without blocking the calling thread. If a refresh
+     * is already in flight, the returned future completes with its result.
+     * @return a future completed with true if authentication was successful
+     */
+    public CompletableFuture<Boolean> authenticateAsync() {
+        synchronized (refreshLock) {
+            if (refreshInFlight != null) {
+                return refreshInFlight;
+            }
 
-        // Calculate token expiration time (typically 1 hour from now, but we can get from response)
-        int expiresIn = jsonResponse.getInt("expires_in");
-        tokenExpiration = Instant.now().plusSeconds(expiresIn);
+            HttpRequest request = httpClient.createAuthRequest(credentialManager, baseUrl);
+            CompletableFuture<Boolean> refresh = new CompletableFuture<>();
+            refreshInFlight = refresh;
+            long startTime = System.nanoTime();
 
-        return true;
+            httpClient.sendBinaryRequestAsync(request)
+                    .thenApply(this::handleAuthResponse)
+                    .whenComplete((authenticated, error) -> {
+                        synchronized (refreshLock) {
+                            refreshInFlight = null;
+                        }
+                        String result = error == null && authenticated ? "success" : "failure";
+                        VippsMetrics.increment("vipps_token_refreshes_total", "result", result);
+                        VippsMetrics.recordSince("vipps_token_refresh_duration_seconds", startTime, "result", result);
+                        if (error != null) {
+                            refresh.completeExceptionally(error);
+                        } else {
+                            refresh.complete(authenticated);
+                        }
+                    });
+
+            return refresh;
+        }
     }
 
     /**
@@ -76,10 +103,28 @@ public class VippsAuthService {
      * @throws InterruptedException if the operation is interrupted
      */
     public String getAccessToken() throws IOException, InterruptedException {
-        if(!isTokenValid()) {
-            authenticate();
+        Token current = token;
+        if(isValid(current)) {
+            return current.value;
         }
-        return accessToken;
+        authenticate();
+        current = token;
+        return current != null ? current.value : null;
+    }
+
+    /**
+     * Gets a valid access token without blocking, authenticating if necessary
+     * @return a future completed with the access token
+     */
+    public CompletableFuture<String> getAccessTokenAsync() {
+        Token current = token;
+        if(isValid(current)) {
+            return CompletableFuture.completedFuture(current.value);
+        }
+        return authenticateAsync().thenApply(authenticated -> {
+            Token refreshed = token;
+            return refreshed != null ? refreshed.value : null;
+        });
     }
 
     /**
@@ -87,9 +132,104 @@ public class VippsAuthService {
      * @return true if the token is valid and not expired
      */
     public boolean isTokenValid() {
+        return isValid(token);
+    }
+
+    private static boolean isValid(Token current) {
         // Token is valid if it exists and has at least 5 minutes before expiration
-        return accessToken != null &&
-                tokenExpiration != null &&
-                Instant.now().plusSeconds(300).isBefore(tokenExpiration);
+        return current != null &&
+                Instant.now().plus(EXPIRY_MARGIN).isBefore(current.expiration);
+    }
+
+    private boolean handleAuthResponse(HttpResponse<byte[]> response) {
+        if(response.statusCode() != 200) {
+            System.err.println("Authentication failed with status code " + response.statusCode() +
+                    ", Response: " + new String(response.body(), StandardCharsets.UTF_8));
+            return false;
+        }
+
+        // Read the access token and expiration time straight from the response bytes
+        String[] fields = VippsJson.readFields(response.body(), "access_token", "expires_in");
+        String accessToken = fields[0];
+        if (accessToken == null) {
+            throw new IllegalArgumentException("Authentication response has no access_token");
+        }
+
+        // Calculate token expiration time (typically 1 hour from now, but we can get from response)
+        long expiresIn = VippsJson.parseLong(fields[1], -1);
+        if (expiresIn < 0) {
+            throw new IllegalArgumentException("Authentication response has no valid expires_in");
+        }
+        Token refreshed = new Token(accessToken, Instant.now().plusSeconds(expiresIn));
+        token = refreshed;
+
+        scheduleRefresh(Duration.between(Instant.now(), refreshed.expiration).minus(EXPIRY_MARGIN).minus(REFRESH_LEAD));
+        return true;
+    }
+
+    /**
+     * Schedules a background refresh so the token is replaced before callers see it expire
+     */
+    private void scheduleRefresh(Duration delay) {
+        if (delay.isNegative() || delay.isZero()) {
+            return;
+        }
+
+        synchronized (refreshLock) {
+            if (closed) {
+                return;
+            }
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+            }
+            scheduledRefresh = REFRESH_SCHEDULER.schedule(this::refreshInBackground,
+                    delay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops refreshing the token in the background. The service can still be used, but
+     * tokens are then only refreshed when a caller finds them expired.
+     */
+    @Override
+    public void close() {
+        synchronized (refreshLock) {
+            closed = true;
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+    }
+
+    private void refreshInBackground() {
+        authenticateAsync().whenComplete((authenticated, error) -> {
+            if (error != null || !Boolean.TRUE.equals(authenticated)) {
+                // Keep trying while the current token is still usable
+                if (isTokenValid()) {
+                    scheduleRefresh(REFRESH_RETRY_DELAY);
+                }
+            }
+        });
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "vipps-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static final class Token {
+        private final String value;
+        private final Instant expiration;
+
+        private Token(String value, Instant expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
     }
 }
@@ -0,0 +1,377 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs ledger report jobs for many merchants in a single JVM without interactive prompts.
+ * Jobs run asynchronously, limited by a global concurrency limit and a per-merchant limit.
+ *
+ * <p>The job file is JSON:</p>
+ * <pre>
+ * {
+ *   "globalConcurrency": 16,
+ *   "perMerchantConcurrency": 2,
+ *   "outputDirectory": "reports",
+ *   "compressStorage": true,
+ *   "export": {"columnar": true, "totals": true, "index": "index",
+ *              "jdbcUrl": "jdbc:postgresql://localhost/ledger", "jdbcTable": "ledger_rows"},
+ *   "jobs": [
+ *     {"merchant": "shop-a", "credentials": "profiles/shop-a.properties",
+ *      "startDate": "2024-01-01", "endDate": "2024-01-31"}
+ *   ]
+ * }
+ * </pre>
+ * Reports are written to a sub-directory of the output directory per merchant, as
+ * ".csv.gz" files if {@code compressStorage} is set. The optional {@code export} section
+ * feeds every report to the sinks of {@link VippsExportSinks} while it is downloaded.
+ */
+public class VippsBatchRunner implements Closeable {
+    private static final int DEFAULT_GLOBAL_CONCURRENCY = 8;
+    private static final int DEFAULT_PER_MERCHANT_CONCURRENCY = 2;
+
+    private final VippsHttpClient httpClient;
+    private final String baseUrl;
+    private final int globalConcurrency;
+    private final int perMerchantConcurrency;
+    private final Path outputDirectory;
+    private final Map<String, VippsLedgerReportService> services = new HashMap<>();
+    private final List<VippsAuthService> authServices = new ArrayList<>();
+    private boolean compressedStorage;
+    private VippsLedgerPipeline.SinkFactory exportSinks;
+
+    public VippsBatchRunner(VippsHttpClient httpClient, String baseUrl, int globalConcurrency,
+                            int perMerchantConcurrency, Path outputDirectory) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.globalConcurrency = Math.max(1, globalConcurrency);
+        this.perMerchantConcurrency = Math.max(1, perMerchantConcurrency);
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Stores the reports of all jobs gzip-compressed, see
+     * {@link VippsLedgerReportService#setCompressedStorage(boolean)}
+     * @param compressedStorage true to store reports compressed
+     */
+    public void setCompressedStorage(boolean compressedStorage) {
+        this.compressedStorage = compressedStorage;
+    }
+
+    /**
+     * Exports the reports of all jobs while they are downloaded, see
+     * {@link VippsLedgerReportService#setExportSinks(VippsLedgerPipeline.SinkFactory)}
+     * @param exportSinks the factory creating the sinks for each report, or null
+     */
+    public void setExportSinks(VippsLedgerPipeline.SinkFactory exportSinks) {
+        this.exportSinks = exportSinks;
+    }
+
+    /**
+     * Runs all jobs in a job file and writes a JSON summary
+     * @param jobFile the job file to read
+     * @param summaryFile the file to write the summary to
+     * @param httpClient the HTTP client shared by all jobs
+     * @param baseUrl the base URL for the API
+     * @return true if every job succeeded
+     * @throws IOException if the job file cannot be read or the summary cannot be written
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public static boolean runJobFile(Path jobFile, Path summaryFile, VippsHttpClient httpClient, String baseUrl)
+            throws IOException, InterruptedException {
+        JSONObject config = new JSONObject(Files.readString(jobFile));
+        Path baseDirectory = jobFile.toAbsolutePath().getParent();
+
+        VippsBatchRunner runner = new VippsBatchRunner(
+                httpClient,
+                baseUrl,
+                config.optInt("globalConcurrency", DEFAULT_GLOBAL_CONCURRENCY),
+                config.optInt("perMerchantConcurrency", DEFAULT_PER_MERCHANT_CONCURRENCY),
+                baseDirectory.resolve(config.optString("outputDirectory", "."))
+        );
+        runner.setCompressedStorage(config.optBoolean("compressStorage", false));
+        JSONObject export = config.optJSONObject("export");
+        if (export != null) {
+            runner.setExportSinks(VippsExportSinks.fromConfig(export, baseDirectory));
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        JSONArray jobArray = config.getJSONArray("jobs");
+        for (int i = 0; i < jobArray.length(); i++) {
+            JSONObject job = jobArray.getJSONObject(i);
+            jobs.add(new Job(
+                    job.getString("merchant"),
+                    baseDirectory.resolve(job.getString("credentials")),
+                    new VippsDateRange(LocalDate.parse(job.getString("startDate")),
+                            LocalDate.parse(job.getString("endDate")))
+            ));
+        }
+
+        List<JobResult> results;
+        try (runner) {
+            results = runner.run(jobs);
+        }
+        writeSummary(results, summaryFile);
+        System.out.println("Batch summary written to: " + summaryFile.toAbsolutePath());
+
+        return results.stream().allMatch(JobResult::isSucceeded);
+    }
+
+    /**
+     * Runs the given jobs and waits for all of them to finish
+     * @param jobs the jobs to run
+     * @return one result per job, in the same order as the jobs
+     * @throws IOException if a credential profile cannot be loaded
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public List<JobResult> run(List<Job> jobs) throws IOException, InterruptedException {
+        // Create services up front so configuration errors fail the batch before any request is sent
+        for (Job job : jobs) {
+            serviceFor(job);
+        }
+
+        Deque<Job> pending = new ArrayDeque<>(jobs);
+        Map<Job, JobResult> results = new HashMap<>();
+        Map<String, Integer> runningPerMerchant = new HashMap<>();
+        BlockingQueue<JobResult> completed = new LinkedBlockingQueue<>();
+        int running = 0;
+
+        System.out.println("Running " + jobs.size() + " jobs, " + globalConcurrency + " at a time, " +
+                perMerchantConcurrency + " per merchant");
+
+        while (!pending.isEmpty() || running > 0) {
+            // Start every job that fits within both limits
+            Iterator<Job> iterator = pending.iterator();
+            while (running < globalConcurrency && iterator.hasNext()) {
+                Job job = iterator.next();
+                int merchantRunning = runningPerMerchant.getOrDefault(job.getMerchant(), 0);
+                if (merchantRunning >= perMerchantConcurrency) {
+                    continue;
+                }
+
+                iterator.remove();
+                running++;
+                runningPerMerchant.put(job.getMerchant(), merchantRunning + 1);
+                runJob(job).thenAccept(completed::add);
+            }
+
+            // Wait for a running job to finish before starting more
+            JobResult result = completed.take();
+            running--;
+            runningPerMerchant.merge(result.getJob().getMerchant(), -1, Integer::sum);
+            results.put(result.getJob(), result);
+
+            System.out.println((result.isSucceeded() ? "Completed " : "Failed ") + result.getJob() +
+                    " in " + result.getTotalMillis() + " ms" +
+                    (result.getError() != null ? ": " + result.getError() : ""));
+        }
+
+        List<JobResult> ordered = new ArrayList<>();
+        for (Job job : jobs) {
+            ordered.add(results.get(job));
+        }
+        return ordered;
+    }
+
+    private CompletableFuture<JobResult> runJob(Job job) {
+        VippsLedgerReportService service = services.get(job.getMerchant());
+        JobResult result = new JobResult(job);
+        long startTime = System.nanoTime();
+
+        return service.requestLedgerReportAsync(job.getRange().getStartDate(), job.getRange().getEndDate())
+                .thenCompose(reportId -> {
+                    result.requestMillis = elapsedMillis(startTime);
+                    result.reportId = requireValue(reportId, "Failed to request ledger report");
+                    return service.pollReportStatusAsync(reportId);
+                })
+                .thenCompose(reportUrl -> {
+                    result.pollMillis = elapsedMillis(startTime) - result.requestMillis;
+                    requireValue(reportUrl, "Report was not ready");
+                    return service.downloadReportAsync(reportUrl, result.reportId);
+                })
+                .handle((path, error) -> {
+                    result.totalMillis = elapsedMillis(startTime);
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        result.error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                    } else if (path == null) {
+                        result.error = "Failed to download report";
+                    } else {
+                        result.downloadMillis = result.totalMillis - result.requestMillis - result.pollMillis;
+                        result.path = path;
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Stops the background token refreshes of all merchants' auth services
+     */
+    @Override
+    public void close() {
+        for (VippsAuthService authService : authServices) {
+            authService.close();
+        }
+    }
+
+    private VippsLedgerReportService serviceFor(Job job) throws IOException {
+        VippsLedgerReportService service = services.get(job.getMerchant());
+        if (service == null) {
+            VippsCredentialManager credentials = VippsCredentialManager.fromFile(job.getCredentialsFile());
+            VippsAuthService authService = new VippsAuthService(credentials, httpClient, baseUrl);
+            authServices.add(authService);
+            service = new VippsLedgerReportService(authService, httpClient, credentials, baseUrl);
+
+            Path merchantDirectory = outputDirectory.resolve(job.getMerchant());
+            Files.createDirectories(merchantDirectory);
+            service.setOutputDirectory(merchantDirectory);
+            service.setCompressedStorage(compressedStorage);
+            service.setExportSinks(exportSinks);
+
+            services.put(job.getMerchant(), service);
+        }
+        return service;
+    }
+
+    private static <T> T requireValue(T value, String message) {
+        if (value == null) {
+            throw new CompletionException(new IOException(message));
+        }
+        return value;
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    private static void writeSummary(List<JobResult> results, Path summaryFile) throws IOException {
+        JSONArray jobs = new JSONArray();
+        int succeeded = 0;
+
+        for (JobResult result : results) {
+            JSONObject job = new JSONObject();
+            job.put("merchant", result.getJob().getMerchant());
+            job.put("startDate", result.getJob().getRange().getStartDate().toString());
+            job.put("endDate", result.getJob().getRange().getEndDate().toString());
+            job.put("status", result.isSucceeded() ? "SUCCEEDED" : "FAILED");
+            job.put("reportId", result.reportId != null ? result.reportId : JSONObject.NULL);
+            job.put("path", result.path != null ? result.path : JSONObject.NULL);
+            job.put("error", result.error != null ? result.error : JSONObject.NULL);
+            job.put("requestMillis", result.requestMillis);
+            job.put("pollMillis", result.pollMillis);
+            job.put("downloadMillis", result.downloadMillis);
+            job.put("totalMillis", result.totalMillis);
+            jobs.put(job);
+
+            if (result.isSucceeded()) {
+                succeeded++;
+            }
+        }
+
+        JSONObject summary = new JSONObject();
+        summary.put("finishedAt", Instant.now().toString());
+        summary.put("jobCount", results.size());
+        summary.put("succeeded", succeeded);
+        summary.put("failed", results.size() - succeeded);
+        summary.put("jobs", jobs);
+
+        Path directory = summaryFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Files.writeString(summaryFile, summary.toString(2));
+    }
+
+    /**
+     * A single report to retrieve for one merchant
+     */
+    public static final class Job {
+        private final String merchant;
+        private final Path credentialsFile;
+        private final VippsDateRange range;
+
+        public Job(String merchant, Path credentialsFile, VippsDateRange range) {
+            this.merchant = merchant;
+            this.credentialsFile = credentialsFile;
+            this.range = range;
+        }
+
+        public String getMerchant() {
+            return merchant;
+        }
+
+        public Path getCredentialsFile() {
+            return credentialsFile;
+        }
+
+        public VippsDateRange getRange() {
+            return range;
+        }
+
+        @Override
+        public String toString() {
+            return merchant + " (" + range + ")";
+        }
+    }
+
+    /**
+     * The outcome and timings of a single job
+     */
+    public static final class JobResult {
+        private final Job job;
+        private String reportId;
+        private String path;
+        private String error;
+        private long requestMillis;
+        private long pollMillis;
+        private long downloadMillis;
+        private long totalMillis;
+
+        private JobResult(Job job) {
+            this.job = job;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public boolean isSucceeded() {
+            return path != null;
+        }
+
+        public String getReportId() {
+            return reportId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+    }
+}
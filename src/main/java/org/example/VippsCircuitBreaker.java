@@ -0,0 +1,81 @@
+package org.example;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker for one endpoint class. After {@code failureThreshold} consecutive failures
+ * (server errors or I/O errors) the circuit opens and requests fail immediately with a
+ * {@link VippsCircuitOpenException}. Once {@code openDuration} has passed a single trial
+ * request is let through; its success closes the circuit and its failure opens it again.
+ */
+public class VippsCircuitBreaker {
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final VippsEndpoint endpoint;
+    private final int failureThreshold;
+    private final long openDurationMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public VippsCircuitBreaker(VippsEndpoint endpoint) {
+        this(endpoint, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    public VippsCircuitBreaker(VippsEndpoint endpoint, int failureThreshold, Duration openDuration) {
+        this.endpoint = endpoint;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMillis = openDuration.toMillis();
+    }
+
+    /**
+     * Checks that a request may be sent
+     * @throws VippsCircuitOpenException if the circuit is open or a trial request is already in flight
+     */
+    public synchronized void acquire() throws VippsCircuitOpenException {
+        if (state == State.CLOSED) {
+            return;
+        }
+
+        // Another trial is allowed if the previous one ended without a verdict, e.g. with a 429
+        long now = System.currentTimeMillis();
+        long remaining = openedAt + openDurationMillis - now;
+        if (remaining <= 0) {
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return;
+        }
+        throw new VippsCircuitOpenException(endpoint, Math.max(remaining, 0));
+    }
+
+    /**
+     * Records a request that reached a healthy server
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a request that failed with a server or I/O error
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                System.err.println("Circuit breaker for " + endpoint + " requests opened after " +
+                        consecutiveFailures + " consecutive failures");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
@@ -0,0 +1,21 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the circuit breaker of its endpoint is open
+ */
+public class VippsCircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final VippsEndpoint endpoint;
+
+    public VippsCircuitOpenException(VippsEndpoint endpoint, long retryInMillis) {
+        super("Circuit breaker for " + endpoint + " requests is open, retry in " + retryInMillis + " ms");
+        this.endpoint = endpoint;
+    }
+
+    public VippsEndpoint getEndpoint() {
+        return endpoint;
+    }
+}
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a columnar ledger file written by {@link VippsColumnarLedgerWriter}. Every column
+ * is memory-mapped, so values are read straight from the page cache without deserializing
+ * rows, and a full column scan touches only that column's bytes.
+ */
+public class VippsColumnarLedgerReader implements Closeable {
+    private static final VippsLedgerEntryType[] ENTRY_TYPES = VippsLedgerEntryType.values();
+
+    private final FileChannel channel;
+    private final int rowCount;
+    private final LongBuffer amounts;
+    private final LongBuffer timestamps;
+    private final IntBuffer days;
+    private final ByteBuffer types;
+    private final IntBuffer references;
+    private final IntBuffer dictionaryOffsets;
+    private final ByteBuffer dictionaryBytes;
+
+    public VippsColumnarLedgerReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(VippsColumnarLedgerWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < VippsColumnarLedgerWriter.HEADER_SIZE
+                    || header.getInt() != VippsColumnarLedgerWriter.MAGIC) {
+                throw new IOException(file + " is not a columnar ledger file");
+            }
+            int version = header.getInt();
+            if (version != VippsColumnarLedgerWriter.VERSION) {
+                throw new IOException("Unsupported columnar ledger version " + version + " in " + file);
+            }
+
+            long rows = header.getLong();
+            if (rows > Integer.MAX_VALUE / 8) {
+                throw new IOException("Columnar ledger " + file + " has too many rows: " + rows);
+            }
+            this.rowCount = (int) rows;
+
+            long amountOffset = header.getLong();
+            long timestampOffset = header.getLong();
+            long dayOffset = header.getLong();
+            long typeOffset = header.getLong();
+            long referenceOffset = header.getLong();
+            long dictionaryOffset = header.getLong();
+
+            this.amounts = map(amountOffset, 8L * rowCount).asLongBuffer();
+            this.timestamps = map(timestampOffset, 8L * rowCount).asLongBuffer();
+            this.days = map(dayOffset, 4L * rowCount).asIntBuffer();
+            this.types = map(typeOffset, rowCount);
+            this.references = map(referenceOffset, 4L * rowCount).asIntBuffer();
+
+            ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(count, dictionaryOffset);
+            int dictionarySize = (int) count.getLong(0);
+            long offsetsStart = dictionaryOffset + 8;
+            this.dictionaryOffsets = map(offsetsStart, 4L * dictionarySize).asIntBuffer();
+
+            long bytesStart = (offsetsStart + 4L * dictionarySize + 7) & ~7L;
+            this.dictionaryBytes = map(bytesStart, channel.size() - bytesStart);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getAmountMinor(int row) {
+        return amounts.get(row);
+    }
+
+    public long getTimestampMillis(int row) {
+        return timestamps.get(row);
+    }
+
+    /**
+     * @return the row's ledger date as epoch day, only meaningful if {@link #hasLedgerDate(int)}
+     */
+    public long getLedgerEpochDay(int row) {
+        return days.get(row);
+    }
+
+    /**
+     * @return false if the row had neither a ledger date nor a timestamp
+     */
+    public boolean hasLedgerDate(int row) {
+        return days.get(row) != VippsColumnarLedgerWriter.UNDATED;
+    }
+
+    public VippsLedgerEntryType getEntryType(int row) {
+        return ENTRY_TYPES[types.get(row)];
+    }
+
+    /**
+     * @return the dictionary index of the row's reference; equal references share an index
+     */
+    public int getReferenceId(int row) {
+        return references.get(row);
+    }
+
+    public String getReference(int row) {
+        int id = references.get(row);
+        int start = id == 0 ? 0 : dictionaryOffsets.get(id - 1);
+        int end = dictionaryOffsets.get(id);
+        byte[] bytes = new byte[end - start];
+        dictionaryBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a read-only view of the whole amount column
+     */
+    public LongBuffer getAmounts() {
+        return amounts.asReadOnlyBuffer();
+    }
+
+    /**
+     * Sums the amount column
+     * @return the total in minor units
+     */
+    public long sumAmounts() {
+        long total = 0;
+        for (int i = 0; i < rowCount; i++) {
+            total += amounts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Sums the amounts of all rows of one entry type, reading only the type and amount columns
+     * @param entryType the entry type to include
+     * @return the total in minor units
+     */
+    public long sumAmounts(VippsLedgerEntryType entryType) {
+        byte ordinal = (byte) entryType.ordinal();
+        long total = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (types.get(i) == ordinal) {
+                total += amounts.get(i);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer map(long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,353 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes ledger rows, converted from a CSV report or added one at a time, into a compact
+ * columnar binary file that {@link VippsColumnarLedgerReader} can scan through a memory map.
+ *
+ * <p>Layout, all values little-endian and every column aligned to 8 bytes:</p>
+ * <pre>
+ * header     magic "VLC1", version, row count, then offset of each section
+ * amount     long per row, minor units
+ * timestamp  long per row, epoch milliseconds
+ * day        int per row, ledger date as epoch day, or {@link #UNDATED} for rows without a date
+ * type       byte per row, {@link VippsLedgerEntryType} ordinal
+ * reference  int per row, index into the dictionary
+ * dictionary long entry count, int end offset per entry, then the UTF-8 bytes of all entries
+ * </pre>
+ */
+public final class VippsColumnarLedgerWriter implements Closeable {
+    static final int MAGIC = 0x31434C56; // "VLC1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final String FILE_EXTENSION = ".vlc";
+    /**
+     * Day column value of rows without a ledger date, which would otherwise read as 1970-01-01
+     */
+    static final int UNDATED = Integer.MIN_VALUE;
+
+    private static final int COLUMN_BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_EXTENSION = ".csv";
+    private static final String COMPRESSED_CSV_EXTENSION = CSV_EXTENSION + VippsCompression.GZIP_EXTENSION;
+
+    private final Path target;
+    private final Path directory;
+    private final String prefix;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<ColumnFile> columns = new ArrayList<>();
+    private final ColumnFile amounts;
+    private final ColumnFile timestamps;
+    private final ColumnFile days;
+    private final ColumnFile types;
+    private final ColumnFile references;
+    private final ColumnFile dictionaryOffsets;
+    private final ColumnFile dictionaryBytes;
+    private long rowCount;
+
+    private VippsColumnarLedgerWriter(Path target) throws IOException {
+        this.target = target;
+        this.directory = target.toAbsolutePath().getParent();
+        this.prefix = target.getFileName().toString();
+        try {
+            this.amounts = column();
+            this.timestamps = column();
+            this.days = column();
+            this.types = column();
+            this.references = column();
+            this.dictionaryOffsets = column();
+            this.dictionaryBytes = column();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a columnar file that rows are added to one at a time, e.g. while a report is
+     * parsed during download. The file appears only when {@link #finish()} is called;
+     * closing the writer before that discards it.
+     * @param target the columnar file to create or replace
+     * @return the writer
+     * @throws IOException if the temporary column files cannot be created
+     */
+    public static VippsColumnarLedgerWriter create(Path target) throws IOException {
+        return new VippsColumnarLedgerWriter(target);
+    }
+
+    /**
+     * Converts a CSV report to a columnar file next to it, replacing the extension with ".vlc"
+     * @param csvFile the report to convert, optionally gzip-compressed
+     * @return the path of the columnar file
+     * @throws IOException if an I/O error occurs or the report is malformed
+     */
+    public static Path convert(Path csvFile) throws IOException {
+        Path target = columnarFileFor(csvFile);
+        convert(csvFile, target);
+        return target;
+    }
+
+    /**
+     * @param csvFile a CSV report, optionally gzip-compressed
+     * @return the columnar file next to it, with a trailing ".csv" or ".csv.gz" replaced by ".vlc"
+     */
+    public static Path columnarFileFor(Path csvFile) {
+        return csvFile.resolveSibling(baseName(csvFile) + FILE_EXTENSION);
+    }
+
+    /**
+     * @param csvFile a CSV report, optionally gzip-compressed
+     * @return the file name without a trailing ".csv" or ".csv.gz", used to name the files derived from it
+     */
+    static String baseName(Path csvFile) {
+        String fileName = csvFile.getFileName().toString();
+        String lowerCase = fileName.toLowerCase(Locale.ROOT);
+        if (lowerCase.endsWith(COMPRESSED_CSV_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - COMPRESSED_CSV_EXTENSION.length());
+        }
+        if (lowerCase.endsWith(CSV_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - CSV_EXTENSION.length());
+        }
+        return fileName;
+    }
+
+    /**
+     * Converts a CSV report to a columnar file
+     * @param csvFile the report to convert
+     * @param target the columnar file to create or replace
+     * @return the number of rows written
+     * @throws IOException if an I/O error occurs or the report is malformed
+     */
+    public static long convert(Path csvFile, Path target) throws IOException {
+        try (VippsColumnarLedgerWriter writer = create(target);
+             VippsLedgerParser parser = VippsLedgerParser.open(csvFile)) {
+            parser.forEach(writer::add);
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Appends a row to the columns
+     * @param record the row to add
+     * @throws IOException if a column cannot be written
+     */
+    public void add(VippsLedgerRecord record) throws IOException {
+        amounts.putLong(record.getAmountMinor());
+        timestamps.putLong(record.getTimestampMillis());
+        days.putInt(record.hasLedgerDate() ? (int) record.getLedgerEpochDay() : UNDATED);
+        types.putByte((byte) record.getEntryType().ordinal());
+
+        references.putInt(referenceId(record.getReference().toString()));
+        rowCount++;
+    }
+
+    /**
+     * Looks up a reference in the dictionary, adding it if it is new
+     */
+    private int referenceId(String reference) throws IOException {
+        Integer id = dictionary.get(reference);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(reference, id);
+            byte[] bytes = reference.getBytes(StandardCharsets.UTF_8);
+            dictionaryBytes.putBytes(bytes);
+            dictionaryOffsets.putInt((int) dictionaryBytes.size());
+        }
+        return id;
+    }
+
+    /**
+     * Appends the rows of an existing columnar file, e.g. to extend that file with new rows
+     * @param columnarFile the file to copy the rows from
+     * @return the number of rows added
+     * @throws IOException if the file cannot be read or a column cannot be written
+     */
+    public long addAll(Path columnarFile) throws IOException {
+        try (VippsColumnarLedgerReader reader = new VippsColumnarLedgerReader(columnarFile)) {
+            int count = reader.getRowCount();
+            for (int row = 0; row < count; row++) {
+                amounts.putLong(reader.getAmountMinor(row));
+                timestamps.putLong(reader.getTimestampMillis(row));
+                days.putInt(reader.hasLedgerDate(row) ? (int) reader.getLedgerEpochDay(row) : UNDATED);
+                types.putByte((byte) reader.getEntryType(row).ordinal());
+                references.putInt(referenceId(reader.getReference(row)));
+                rowCount++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Assembles the columns into the final file behind the header and moves it into place
+     * @return the number of rows written
+     * @throws IOException if the file cannot be written
+     */
+    public long finish() throws IOException {
+        Path tempFile = Files.createTempFile(directory, prefix, ".part");
+        try {
+            try (FileChannel output = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                long[] offsets = new long[6];
+                output.position(HEADER_SIZE);
+                offsets[0] = amounts.copyTo(output);
+                offsets[1] = timestamps.copyTo(output);
+                offsets[2] = days.copyTo(output);
+                offsets[3] = types.copyTo(output);
+                offsets[4] = references.copyTo(output);
+
+                offsets[5] = align(output);
+                ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                count.putLong(0, dictionary.size());
+                output.write(count);
+                dictionaryOffsets.copyTo(output);
+                dictionaryBytes.copyTo(output);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(rowCount);
+                for (long offset : offsets) {
+                    header.putLong(offset);
+                }
+                header.flip();
+                output.write(header, 0);
+                output.force(false);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return rowCount;
+    }
+
+    /**
+     * Deletes the temporary column files
+     * @throws IOException if a column file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ColumnFile column : columns) {
+            try {
+                column.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        columns.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private ColumnFile column() throws IOException {
+        ColumnFile column = new ColumnFile(directory, prefix);
+        columns.add(column);
+        return column;
+    }
+
+    private static long align(FileChannel output) throws IOException {
+        long position = output.position();
+        long aligned = (position + 7) & ~7L;
+        if (aligned > position) {
+            output.write(ByteBuffer.allocate((int) (aligned - position)));
+        }
+        return aligned;
+    }
+
+    /**
+     * A single column buffered into a temporary file while the report is parsed
+     */
+    private static final class ColumnFile implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(COLUMN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long size;
+
+        ColumnFile(Path directory, String prefix) throws IOException {
+            this.file = Files.createTempFile(directory, prefix, ".col");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void putLong(long value) throws IOException {
+            ensureCapacity(8);
+            buffer.putLong(value);
+            size += 8;
+        }
+
+        void putInt(int value) throws IOException {
+            ensureCapacity(4);
+            buffer.putInt(value);
+            size += 4;
+        }
+
+        void putByte(byte value) throws IOException {
+            ensureCapacity(1);
+            buffer.put(value);
+            size++;
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensureCapacity(1);
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, count);
+                offset += count;
+            }
+            size += bytes.length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * Appends the column to the output at an 8-byte aligned position
+         * @return the offset the column starts at
+         */
+        long copyTo(FileChannel output) throws IOException {
+            flush();
+            long start = align(output);
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, length - position, output);
+            }
+            output.position(start + length);
+            return start;
+        }
+
+        private void ensureCapacity(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
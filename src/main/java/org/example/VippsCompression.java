@@ -0,0 +1,106 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Helpers for compressed report transfer and storage. Downloads negotiate gzip or deflate
+ * and are decoded as a stream; stored reports ending in ".gz" are gzip files, and readers
+ * detect gzip content by its magic bytes so callers never need to know how a file is stored.
+ */
+public final class VippsCompression {
+    /** Value sent in the Accept-Encoding header of download requests */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private VippsCompression() {
+    }
+
+    /**
+     * Wraps a response body so it is decoded according to its Content-Encoding
+     * @param body the raw response body
+     * @param contentEncoding the Content-Encoding header value, or null
+     * @return a stream of the decoded body
+     * @throws IOException if the encoding is not supported
+     */
+    public static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        String encoding = contentEncoding == null ? "identity" : contentEncoding.trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "":
+            case "identity":
+                return body;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body, BUFFER_SIZE);
+            case "deflate":
+                return new InflaterInputStream(body);
+            default:
+                throw new IOException("Unsupported content encoding: " + contentEncoding);
+        }
+    }
+
+    /**
+     * Opens a stored report for reading, decompressing it if it is a gzip file
+     * @param file the report file
+     * @return a stream of the uncompressed report
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openInput(Path file) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            input.mark(2);
+            int first = input.read();
+            int second = input.read();
+            input.reset();
+
+            if (first == 0x1f && second == 0x8b) {
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            }
+            return input;
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is gzip-compressed. Writing a
+     * compressed stream to the end of an existing gzip file adds a new gzip member,
+     * which gzip readers treat as a continuation of the same file.
+     * @param output the stream to write the compressed data to
+     * @return the compressing stream; call {@link GZIPOutputStream#finish()} or close it when done
+     * @throws IOException if an I/O error occurs
+     */
+    public static GZIPOutputStream encode(OutputStream output) throws IOException {
+        return new GZIPOutputStream(output, BUFFER_SIZE);
+    }
+
+    /**
+     * @param file a report file
+     * @return true if the file starts with the gzip magic bytes, whatever its name
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean hasCompressedContent(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return input.read() == 0x1f && input.read() == 0x8b;
+        }
+    }
+
+    /**
+     * @param file a report file
+     * @return true if the file is stored gzip-compressed, judged by its name
+     */
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION);
+    }
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Properties;
 import java.util.Scanner;
 
@@ -23,6 +24,33 @@ public class VippsCredentialManager {
         }
     }
 
+    /**
+     * Creates a credential manager from known values without prompting or touching the file system
+     * @param clientId the client ID
+     * @param clientSecret the client secret
+     * @param subscriptionKey the subscription key
+     */
+    public VippsCredentialManager(String clientId, String clientSecret, String subscriptionKey) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.subscriptionKey = subscriptionKey;
+    }
+
+    /**
+     * Loads a credential profile from a properties file without prompting for missing values.
+     * The file uses the same keys as the default credentials file.
+     * @param profileFile the properties file to load
+     * @return the credential manager for the profile
+     * @throws IOException if the file cannot be read or is missing credentials
+     */
+    public static VippsCredentialManager fromFile(Path profileFile) throws IOException {
+        VippsCredentialManager credentials = new VippsCredentialManager(null, null, null);
+        if (!credentials.loadFrom(profileFile.toFile())) {
+            throw new IOException("Missing or incomplete credentials in " + profileFile);
+        }
+        return credentials;
+    }
+
     /**
      * Collects Vipps MobilePay API credentials from user input
      */
@@ -44,7 +72,10 @@ public class VippsCredentialManager {
      * @return
      */
     public boolean loadFromFile() {
-        File configFile = new File(CONFIG_FILE);
+        return loadFrom(new File(CONFIG_FILE));
+    }
+
+    private boolean loadFrom(File configFile) {
         if(!configFile.exists()) {
             return false;
         }
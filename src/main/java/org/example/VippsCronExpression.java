@@ -0,0 +1,184 @@
+package org.example;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Standard five-field cron expression: minute, hour, day of month, month and day of week.
+ *
+ * <p>Each field accepts {@code *}, single values, ranges ({@code 1-5}), steps
+ * ({@code *&#47;15}, {@code 0-30/10}) and comma-separated lists of these. Months and days of
+ * week may be given by their three-letter English names, and both 0 and 7 mean Sunday.
+ * As in cron, when both the day of month and the day of week are restricted a day
+ * matches if either does. The shorthands {@code @hourly}, {@code @daily},
+ * {@code @weekly}, {@code @monthly} and {@code @yearly} are also accepted.</p>
+ */
+public final class VippsCronExpression {
+    private static final String[] MONTH_NAMES =
+            {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    private static final int SEARCH_YEARS = 5;
+
+    private final String expression;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean dayOfMonthRestricted;
+    private final boolean dayOfWeekRestricted;
+
+    private VippsCronExpression(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, null);
+        this.hours = parseField(fields[1], 0, 23, null);
+        this.daysOfMonth = parseField(fields[2], 1, 31, null);
+        this.months = parseField(fields[3], 1, 12, MONTH_NAMES);
+        long days = parseField(fields[4], 0, 7, DAY_NAMES);
+        // Sunday may be written as 7
+        this.daysOfWeek = (days & (1L << 7)) != 0 ? (days | 1L) & ~(1L << 7) : days;
+        this.dayOfMonthRestricted = !fields[2].equals("*");
+        this.dayOfWeekRestricted = !fields[4].equals("*");
+    }
+
+    /**
+     * Parses a cron expression
+     * @param expression the expression, e.g. {@code "15 2 * * *"} for 02:15 every day
+     * @return the parsed expression
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static VippsCronExpression parse(String expression) {
+        String trimmed = expression.trim();
+        switch (trimmed.toLowerCase(Locale.ROOT)) {
+            case "@hourly":
+                return new VippsCronExpression(trimmed, "0 * * * *".split(" "));
+            case "@daily":
+            case "@midnight":
+                return new VippsCronExpression(trimmed, "0 0 * * *".split(" "));
+            case "@weekly":
+                return new VippsCronExpression(trimmed, "0 0 * * 0".split(" "));
+            case "@monthly":
+                return new VippsCronExpression(trimmed, "0 0 1 * *".split(" "));
+            case "@yearly":
+            case "@annually":
+                return new VippsCronExpression(trimmed, "0 0 1 1 *".split(" "));
+            default:
+                String[] fields = trimmed.split("\\s+");
+                if (fields.length != 5) {
+                    throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+                }
+                return new VippsCronExpression(trimmed, fields);
+        }
+    }
+
+    /**
+     * Finds the next time the expression matches. The expression is matched against the
+     * wall-clock time of the given zone: a time skipped when the clocks go forward runs
+     * right after the gap, moved by its length, and a time repeated when the clocks go
+     * back runs once.
+     * @param after the time to search from, exclusive
+     * @return the first matching minute after the given time
+     * @throws IllegalArgumentException if the expression never matches, e.g. {@code 0 0 31 2 *}
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        LocalDateTime time = after.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = time.plusYears(SEARCH_YEARS);
+
+        while (time.isBefore(limit)) {
+            if (!matches(months, time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!matches(hours, time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!matches(minutes, time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                // Within a repeated hour keep the offset of the given time, so the result is after it
+                return ZonedDateTime.ofLocal(time, after.getZone(), after.getOffset());
+            }
+        }
+        throw new IllegalArgumentException("Cron expression never matches: " + expression);
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dayOfMonth = matches(daysOfMonth, time.getDayOfMonth());
+        boolean dayOfWeek = matches(daysOfWeek, time.getDayOfWeek().getValue() % 7);
+        if (dayOfMonthRestricted && dayOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    private static boolean matches(long field, int value) {
+        return (field & (1L << value)) != 0;
+    }
+
+    /**
+     * Parses one field into a bit set of the allowed values
+     */
+    private static long parseField(String field, int min, int max, String[] names) {
+        long bits = 0;
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max, null, 0);
+                part = part.substring(0, slash);
+            }
+
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    from = parseNumber(part.substring(0, dash), min, max, names, min);
+                    to = parseNumber(part.substring(dash + 1), min, max, names, min);
+                } else {
+                    from = parseNumber(part, min, max, names, min);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid cron range: " + field);
+            }
+
+            for (int value = from; value <= to; value += step) {
+                bits |= 1L << value;
+            }
+        }
+        return bits;
+    }
+
+    private static int parseNumber(String value, int min, int max, String[] names, int nameOffset) {
+        if (names != null) {
+            String upper = value.toUpperCase(Locale.ROOT);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(upper)) {
+                    return i + nameOffset;
+                }
+            }
+        }
+
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cron value: " + value);
+        }
+        if (number < min || number > max) {
+            throw new IllegalArgumentException("Cron value " + number + " is outside " + min + "-" + max);
+        }
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
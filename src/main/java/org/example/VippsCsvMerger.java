@@ -0,0 +1,220 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Concatenates CSV report files at the byte level, keeping a single header line.
+ * File contents are transferred channel to channel and never decoded into Strings.
+ * When a source or the target is gzip-compressed the rows are streamed through
+ * {@link VippsCompression} instead.
+ */
+public final class VippsCsvMerger {
+    private static final int HEADER_SCAN_SIZE = 64 * 1024;
+
+    private VippsCsvMerger() {
+    }
+
+    /**
+     * Merges CSV files into one file. The header of the first non-empty file is kept and
+     * the header line of every following file is skipped; empty files, e.g. reports for a
+     * range without transactions, contribute nothing.
+     * @param sources the files to merge, in output order
+     * @param target the file to create or replace
+     * @throws IOException if an I/O error occurs
+     */
+    public static void merge(List<Path> sources, Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, target.getFileName().toString(), ".part");
+
+        try {
+            try (FileChannel output = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                if (isCompressed(sources, target)) {
+                    OutputStream stream = openStream(output, target);
+                    boolean headerWritten = false;
+                    for (Path source : sources) {
+                        headerWritten |= copyRows(source, stream, headerWritten);
+                    }
+                    finish(stream);
+                } else {
+                    boolean headerWritten = false;
+                    for (Path source : sources) {
+                        headerWritten |= copyRows(source, output, headerWritten);
+                    }
+                }
+                output.force(false);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the data rows of a CSV file to another CSV file. If the target does not
+     * exist yet it is created with the header of the source.
+     * @param source the file whose rows are appended
+     * @param target the file to append to
+     * @throws IOException if an I/O error occurs
+     */
+    public static void append(Path source, Path target) throws IOException {
+        boolean targetHasHeader = Files.exists(target) && Files.size(target) > 0;
+
+        try (FileChannel output = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            output.position(output.size());
+            if (targetHasHeader && !VippsCompression.isCompressed(target) && !endsWithNewline(output)) {
+                output.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+            if (isCompressed(List.of(source), target)) {
+                OutputStream stream = openStream(output, target);
+                copyRows(source, stream, targetHasHeader);
+                finish(stream);
+            } else {
+                copyRows(source, output, targetHasHeader);
+            }
+            output.force(false);
+        }
+    }
+
+    /**
+     * Tells where {@link #append(Path, Path)} will write the first appended row
+     * @param target the file that rows will be appended to
+     * @return the byte offset of the first appended row, or -1 if the target is compressed
+     *         or has no header yet, in which case the source is copied with its header
+     * @throws IOException if an I/O error occurs
+     */
+    public static long appendOffset(Path target) throws IOException {
+        if (VippsCompression.isCompressed(target) || !Files.exists(target) || Files.size(target) == 0) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            // A line break is added first if the last row lacks one
+            return channel.size() + (endsWithNewline(channel) ? 0 : 1);
+        }
+    }
+
+    /**
+     * Copies the rows of a file to a channel, ending them with a line break
+     * @return true if the file was not empty
+     */
+    private static boolean copyRows(Path source, FileChannel output, boolean skipHeader) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = input.size();
+            // A header without a line break ends the file, so nothing is left to copy
+            long start = skipHeader ? findHeaderEnd(input) : 0;
+            long position = start;
+
+            while (position < size) {
+                position += input.transferTo(position, size - position, output);
+            }
+
+            if (start < size && !endsWithNewline(input)) {
+                output.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+            return size > 0;
+        }
+    }
+
+    /**
+     * Copies the rows of a possibly compressed file to a stream, ending them with a line break
+     * @return true if the file had any content
+     */
+    private static boolean copyRows(Path source, OutputStream output, boolean skipHeader) throws IOException {
+        try (InputStream input = VippsCompression.openInput(source)) {
+            boolean empty = true;
+            if (skipHeader) {
+                int b;
+                while ((b = input.read()) != -1) {
+                    // Skip the header line
+                    empty = false;
+                    if (b == '\n') {
+                        break;
+                    }
+                }
+            }
+
+            byte[] buffer = new byte[HEADER_SCAN_SIZE];
+            int last = '\n';
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (read > 0) {
+                    output.write(buffer, 0, read);
+                    last = buffer[read - 1];
+                    empty = false;
+                }
+            }
+            if (last != '\n') {
+                output.write('\n');
+            }
+            return !empty;
+        }
+    }
+
+    private static boolean isCompressed(List<Path> sources, Path target) {
+        if (VippsCompression.isCompressed(target)) {
+            return true;
+        }
+        for (Path source : sources) {
+            if (VippsCompression.isCompressed(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a stream that writes to the channel, compressing if the target is a gzip file
+     */
+    private static OutputStream openStream(FileChannel output, Path target) throws IOException {
+        OutputStream stream = Channels.newOutputStream(output);
+        return VippsCompression.isCompressed(target) ? VippsCompression.encode(stream) : stream;
+    }
+
+    private static void finish(OutputStream stream) throws IOException {
+        // Closing the stream would close the channel before it is forced
+        if (stream instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) stream).finish();
+        }
+        stream.flush();
+    }
+
+    private static long findHeaderEnd(FileChannel input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SCAN_SIZE);
+        long position = 0;
+
+        while (input.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position++;
+                if (buffer.get() == '\n') {
+                    return position;
+                }
+            }
+            buffer.clear();
+        }
+
+        return position;
+    }
+
+    private static boolean endsWithNewline(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return true;
+        }
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+}
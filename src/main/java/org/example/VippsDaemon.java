@@ -0,0 +1,476 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running process that keeps merchant ledgers in sync on cron schedules. Unlike one
+ * {@code sync} run per JVM, the daemon keeps its state warm between runs: one
+ * {@link VippsHttpClient} with its connection pool is shared by all merchants, every
+ * merchant keeps its {@link VippsAuthService} (whose token is refreshed in the background
+ * before it expires) and report service, and the watermark store stays loaded.
+ *
+ * <p>The daemon is configured with a JSON file:</p>
+ * <pre>
+ * {
+ *   "controlPort": 8484,
+ *   "concurrency": 4,
+ *   "timeZone": "Europe/Oslo",
+ *   "workDirectory": "work",
+ *   "watermarks": "vipps_watermarks.properties",
+ *   "export": {"columnar": true, "totals": true, "index": "vipps_ledger_index"},
+ *   "syncs": [
+ *     {"merchant": "shop-a", "credentials": "profiles/shop-a.properties",
+ *      "schedule": "15 2 * * *", "ledger": "ledgers/shop-a.csv.gz"}
+ *   ]
+ * }
+ * </pre>
+ * Reports are downloaded to a sub-directory of the work directory per merchant before
+ * they are appended to the ledger. The optional {@code export} section takes the same sinks
+ * as the batch runner's, see {@link VippsExportSinks#fromConfig(JSONObject, Path)}, and
+ * exports every ledger under the ID "ledger_" followed by the merchant name as it grows.
+ * A small HTTP control interface listens on the loopback interface only:
+ * <ul>
+ *   <li>{@code GET /jobs} lists every sync with its schedule, next run and last result</li>
+ *   <li>{@code GET /jobs/<merchant>} shows one sync</li>
+ *   <li>{@code POST /jobs/<merchant>/run} starts a sync now, unless it is already running</li>
+ *   <li>{@code POST /shutdown} stops the daemon after running syncs have finished</li>
+ * </ul>
+ * Binding to loopback does not keep out web pages opened in a local browser, which can send
+ * simple cross-site requests to localhost. Requests that carry an {@code Origin} header or
+ * a Content-Type other than {@code application/json} are therefore rejected; browsers
+ * cannot send anything else without a CORS preflight, which the interface never answers.
+ */
+public class VippsDaemon implements Closeable {
+    private static final int DEFAULT_CONTROL_PORT = 8484;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final long SHUTDOWN_TIMEOUT_MINUTES = 5;
+
+    private final VippsHttpClient httpClient;
+    private final String baseUrl;
+    private final VippsWatermarkStore watermarks;
+    private final ZoneId zone;
+    private final Map<String, Sync> syncs = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private HttpServer controlServer;
+    private VippsLedgerPipeline.SinkFactory exportSinks;
+
+    public VippsDaemon(VippsHttpClient httpClient, String baseUrl, VippsWatermarkStore watermarks,
+                       ZoneId zone, int concurrency) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.watermarks = watermarks;
+        this.zone = zone;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vipps-daemon-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable ->
+                new Thread(runnable, "vipps-daemon-sync-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Creates a daemon from a configuration file
+     * @param configFile the JSON configuration file, see the class documentation
+     * @param httpClient the HTTP client shared by all merchants
+     * @param baseUrl the base URL for the API
+     * @return the daemon with all syncs added, not yet started
+     * @throws IOException if the configuration or a credential profile cannot be read
+     */
+    public static VippsDaemon fromConfig(Path configFile, VippsHttpClient httpClient, String baseUrl) throws IOException {
+        JSONObject config = new JSONObject(Files.readString(configFile));
+        Path baseDirectory = configFile.toAbsolutePath().getParent();
+
+        VippsDaemon daemon = new VippsDaemon(
+                httpClient,
+                baseUrl,
+                new VippsWatermarkStore(baseDirectory.resolve(config.optString("watermarks", "vipps_watermarks.properties"))),
+                config.has("timeZone") ? ZoneId.of(config.getString("timeZone")) : ZoneId.systemDefault(),
+                config.optInt("concurrency", DEFAULT_CONCURRENCY)
+        );
+        Path workDirectory = baseDirectory.resolve(config.optString("workDirectory", "."));
+        JSONObject export = config.optJSONObject("export");
+        if (export != null) {
+            daemon.setExportSinks(VippsExportSinks.fromConfig(export, baseDirectory));
+        }
+
+        JSONArray syncArray = config.getJSONArray("syncs");
+        for (int i = 0; i < syncArray.length(); i++) {
+            JSONObject sync = syncArray.getJSONObject(i);
+            String merchant = sync.getString("merchant");
+            daemon.addSync(
+                    merchant,
+                    VippsCredentialManager.fromFile(baseDirectory.resolve(sync.getString("credentials"))),
+                    baseDirectory.resolve(sync.optString("ledger", "vipps_ledger_" + merchant + ".csv")),
+                    workDirectory.resolve(merchant),
+                    VippsCronExpression.parse(sync.getString("schedule"))
+            );
+        }
+        return daemon;
+    }
+
+    /**
+     * @param configFile the JSON configuration file
+     * @return the control port from the configuration
+     * @throws IOException if the configuration cannot be read
+     */
+    public static int controlPort(Path configFile) throws IOException {
+        return new JSONObject(Files.readString(configFile)).optInt("controlPort", DEFAULT_CONTROL_PORT);
+    }
+
+    /**
+     * Exports every ledger as it is synced, see
+     * {@link VippsLedgerReportService#setExportSinks(VippsLedgerPipeline.SinkFactory)}. Applies to syncs added afterwards.
+     * @param exportSinks the factory creating the sinks for each ledger, or null
+     */
+    public synchronized void setExportSinks(VippsLedgerPipeline.SinkFactory exportSinks) {
+        this.exportSinks = exportSinks;
+    }
+
+    /**
+     * Adds a recurring ledger sync for a merchant
+     * @param merchant the merchant name, unique within the daemon
+     * @param credentials the merchant's credentials
+     * @param ledgerFile the ledger to append to; a ".csv.gz" ledger is kept compressed
+     * @param workDirectory the directory reports are downloaded to before they are appended
+     * @param schedule when to sync
+     * @throws IOException if the work directory cannot be created
+     */
+    public synchronized void addSync(String merchant, VippsCredentialManager credentials, Path ledgerFile,
+                                     Path workDirectory, VippsCronExpression schedule) throws IOException {
+        if (syncs.containsKey(merchant)) {
+            throw new IllegalArgumentException("Duplicate sync for merchant " + merchant);
+        }
+
+        VippsAuthService authService = new VippsAuthService(credentials, httpClient, baseUrl);
+        VippsLedgerReportService service = new VippsLedgerReportService(authService, httpClient, credentials, baseUrl);
+        Files.createDirectories(workDirectory);
+        service.setOutputDirectory(workDirectory);
+        service.setExportSinks(exportSinks);
+
+        syncs.put(merchant, new Sync(merchant, ledgerFile, schedule, authService, service));
+    }
+
+    /**
+     * Authenticates every merchant, schedules all syncs and starts the control interface
+     * @param controlPort the loopback port of the control interface, or -1 to disable it
+     * @throws IOException if the control interface cannot be started
+     */
+    public synchronized void start(int controlPort) throws IOException {
+        if (controlPort >= 0) {
+            controlServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), controlPort), 0);
+            controlServer.createContext("/jobs", this::handleJobs);
+            controlServer.createContext("/shutdown", this::handleShutdown);
+            controlServer.start();
+            System.out.println("Control interface listening at http://localhost:" +
+                    controlServer.getAddress().getPort() + "/jobs");
+        }
+
+        for (Sync sync : syncs.values()) {
+            // Fetch tokens up front so the first scheduled run does not start cold
+            sync.authService.authenticateAsync().whenComplete((authenticated, error) -> {
+                if (error != null || !authenticated) {
+                    System.err.println("Initial authentication failed for " + sync.merchant +
+                            (error != null ? ": " + error.getMessage() : ""));
+                }
+            });
+            scheduleNext(sync);
+        }
+        System.out.println("Daemon started with " + syncs.size() + " ledger syncs");
+    }
+
+    /**
+     * @return the port of the control interface, or -1 if it is not running
+     */
+    public synchronized int getControlPort() {
+        return controlServer != null ? controlServer.getAddress().getPort() : -1;
+    }
+
+    /**
+     * Starts a sync now, outside its schedule
+     * @param merchant the merchant to sync
+     * @return true if the sync was started, false if it is already running
+     * @throws IllegalArgumentException if there is no sync for the merchant
+     */
+    public boolean trigger(String merchant) {
+        Sync sync = findSync(merchant);
+        if (sync == null) {
+            throw new IllegalArgumentException("No sync for merchant " + merchant);
+        }
+        return trigger(sync, "manual");
+    }
+
+    /**
+     * Blocks until the daemon has been closed
+     * @throws InterruptedException if the wait is interrupted
+     */
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops scheduling and token refreshes, closes the control interface and waits for running
+     * syncs to finish
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        System.out.println("Stopping daemon...");
+
+        synchronized (this) {
+            if (controlServer != null) {
+                controlServer.stop(0);
+            }
+        }
+        scheduler.shutdownNow();
+        synchronized (this) {
+            for (Sync sync : syncs.values()) {
+                sync.authService.close();
+            }
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                System.err.println("Syncs still running after " + SHUTDOWN_TIMEOUT_MINUTES + " minutes, stopping them");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private synchronized Sync findSync(String merchant) {
+        return syncs.get(merchant);
+    }
+
+    private void scheduleNext(Sync sync) {
+        ZonedDateTime now = ZonedDateTime.now(zone);
+        // Never schedule the same minute twice if the timer fires slightly early
+        ZonedDateTime from = sync.nextRun != null && sync.nextRun.isAfter(now) ? sync.nextRun : now;
+        ZonedDateTime next = sync.schedule.next(from);
+        sync.nextRun = next;
+
+        long delayMillis = Math.max(0, next.toInstant().toEpochMilli() - System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            if (!trigger(sync, "scheduled")) {
+                System.out.println("Skipping scheduled sync for " + sync.merchant + ", the previous run is still going");
+            }
+            scheduleNext(sync);
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean trigger(Sync sync, String reason) {
+        if (closed.get() || !sync.running.compareAndSet(false, true)) {
+            return false;
+        }
+        System.out.println("Starting " + reason + " sync for " + sync.merchant);
+        workers.execute(() -> runSync(sync));
+        return true;
+    }
+
+    private void runSync(Sync sync) {
+        long startTime = System.nanoTime();
+        synchronized (sync) {
+            sync.lastStarted = Instant.now();
+        }
+        String error = null;
+
+        try {
+            if (sync.service.syncLedger(sync.merchant, sync.ledgerFile, watermarks, zone) == null) {
+                error = "Failed to sync ledger";
+            }
+        } catch (IOException e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Interrupted";
+        } catch (RuntimeException e) {
+            error = e.toString();
+        } finally {
+            String result = error == null ? "success" : "failure";
+            synchronized (sync) {
+                sync.lastFinished = Instant.now();
+                sync.lastDurationMillis = (System.nanoTime() - startTime) / 1_000_000;
+                sync.lastError = error;
+                sync.lastResult = error == null ? "SUCCEEDED" : "FAILED";
+                sync.runCount++;
+            }
+            sync.running.set(false);
+
+            VippsMetrics.increment("vipps_daemon_syncs_total", "result", result);
+            VippsMetrics.recordSince("vipps_daemon_sync_duration_seconds", startTime, "result", result);
+            if (error != null) {
+                System.err.println("Sync for " + sync.merchant + " failed: " + error);
+            }
+        }
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            if (rejectBrowserRequest(exchange)) {
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String[] parts = path.substring("/jobs".length()).split("/");
+            String method = exchange.getRequestMethod();
+
+            // "/jobs" splits into [""], "/jobs/a" into ["", "a"] and "/jobs/a/run" into ["", "a", "run"]
+            if (parts.length <= 1) {
+                if (!method.equals("GET")) {
+                    respond(exchange, 405, error("Use GET"));
+                    return;
+                }
+                JSONArray jobs = new JSONArray();
+                for (Sync sync : snapshot()) {
+                    jobs.put(sync.toJson());
+                }
+                respond(exchange, 200, new JSONObject().put("jobs", jobs));
+                return;
+            }
+
+            Sync sync = findSync(parts[1]);
+            if (sync == null) {
+                respond(exchange, 404, error("No sync for merchant " + parts[1]));
+            } else if (parts.length == 2 && method.equals("GET")) {
+                respond(exchange, 200, sync.toJson());
+            } else if (parts.length == 3 && parts[2].equals("run") && method.equals("POST")) {
+                boolean started = trigger(sync, "manual");
+                respond(exchange, started ? 202 : 409, sync.toJson().put("triggered", started));
+            } else {
+                respond(exchange, 405, error("Use GET /jobs/<merchant> or POST /jobs/<merchant>/run"));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        try {
+            if (rejectBrowserRequest(exchange)) {
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, error("Use POST"));
+                return;
+            }
+            respond(exchange, 202, new JSONObject().put("stopping", true));
+        } finally {
+            exchange.close();
+        }
+        // Stop from another thread, as closing the server waits for this exchange's handler
+        new Thread(this::close, "vipps-daemon-shutdown").start();
+    }
+
+    /**
+     * Turns away requests that a web page could have sent, see the class documentation
+     * @return true if the request was rejected
+     */
+    private static boolean rejectBrowserRequest(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            respond(exchange, 403, error("Cross-origin requests are not allowed"));
+            return true;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && !contentType.trim().toLowerCase(Locale.ROOT).startsWith("application/json")) {
+            respond(exchange, 415, error("Send no body or a body of type application/json"));
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized Sync[] snapshot() {
+        return syncs.values().toArray(new Sync[0]);
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString(2).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * A scheduled ledger sync for one merchant and the outcome of its last run
+     */
+    private static final class Sync {
+        final String merchant;
+        final Path ledgerFile;
+        final VippsCronExpression schedule;
+        final VippsAuthService authService;
+        final VippsLedgerReportService service;
+        final AtomicBoolean running = new AtomicBoolean();
+        volatile ZonedDateTime nextRun;
+        Instant lastStarted;
+        Instant lastFinished;
+        long lastDurationMillis;
+        String lastResult;
+        String lastError;
+        int runCount;
+
+        Sync(String merchant, Path ledgerFile, VippsCronExpression schedule,
+             VippsAuthService authService, VippsLedgerReportService service) {
+            this.merchant = merchant;
+            this.ledgerFile = ledgerFile;
+            this.schedule = schedule;
+            this.authService = authService;
+            this.service = service;
+        }
+
+        synchronized JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("merchant", merchant);
+            json.put("ledger", ledgerFile.toAbsolutePath().toString());
+            json.put("schedule", schedule.toString());
+            json.put("nextRun", nextRun != null ? nextRun.toString() : JSONObject.NULL);
+            json.put("running", running.get());
+            json.put("runCount", runCount);
+            json.put("lastStarted", lastStarted != null ? lastStarted.toString() : JSONObject.NULL);
+            json.put("lastFinished", lastFinished != null ? lastFinished.toString() : JSONObject.NULL);
+            json.put("lastDurationMillis", lastDurationMillis);
+            json.put("lastResult", lastResult != null ? lastResult : JSONObject.NULL);
+            json.put("lastError", lastError != null ? lastError : JSONObject.NULL);
+            json.put("tokenValid", authService.isTokenValid());
+            return json;
+        }
+    }
+}
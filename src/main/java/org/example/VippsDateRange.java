@@ -0,0 +1,74 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An inclusive range of dates used for a single ledger report request.
+ */
+public final class VippsDateRange {
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public VippsDateRange(LocalDate startDate, LocalDate endDate) {
+        if (endDate.isBefore(startDate)) {
+            throw new IllegalArgumentException("End date " + endDate + " is before start date " + startDate);
+        }
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    /**
+     * Splits the range into consecutive chunks aligned to the given chunk size.
+     * The first and last chunk are clipped to the range.
+     * @param chunkSize the size of each chunk
+     * @return the chunks in chronological order
+     */
+    public List<VippsDateRange> split(VippsReportChunkSize chunkSize) {
+        List<VippsDateRange> chunks = new ArrayList<>();
+        LocalDate chunkStart = startDate;
+
+        while (!chunkStart.isAfter(endDate)) {
+            LocalDate chunkEnd = chunkSize.chunkEnd(chunkStart);
+            if (chunkEnd.isAfter(endDate)) {
+                chunkEnd = endDate;
+            }
+            chunks.add(new VippsDateRange(chunkStart, chunkEnd));
+            chunkStart = chunkEnd.plusDays(1);
+        }
+
+        return chunks;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VippsDateRange)) {
+            return false;
+        }
+        VippsDateRange other = (VippsDateRange) o;
+        return startDate.equals(other.startDate) && endDate.equals(other.endDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(startDate, endDate);
+    }
+
+    @Override
+    public String toString() {
+        return startDate + " to " + endDate;
+    }
+}
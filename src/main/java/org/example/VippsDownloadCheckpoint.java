@@ -0,0 +1,216 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Properties;
+
+/**
+ * Sidecar file that records the progress of a partial report download, so an interrupted
+ * download can be resumed with an HTTP range request instead of starting from byte zero.
+ *
+ * <p>The checkpoint of {@code vipps_ledger_report_<id>.csv.part} is stored next to it as
+ * {@code vipps_ledger_report_<id>.csv.part.checkpoint} and holds the report ID, the number
+ * of bytes safely written to the partial file, the validators (ETag and Last-Modified) and
+ * Content-Encoding of the response, and the merchant, format and date range the report
+ * was requested for.</p>
+ */
+public class VippsDownloadCheckpoint {
+    private static final String EXTENSION = ".checkpoint";
+
+    private final Path partFile;
+    private final Path checkpointFile;
+    private final Properties properties;
+
+    private VippsDownloadCheckpoint(Path partFile, Properties properties) {
+        this.partFile = partFile;
+        this.checkpointFile = partFile.resolveSibling(partFile.getFileName() + EXTENSION);
+        this.properties = properties;
+    }
+
+    /**
+     * Creates a new, unsaved checkpoint for a download that has not started yet
+     * @param partFile the partial file the download is written to
+     * @param reportId the ID of the report being downloaded
+     * @return the checkpoint
+     */
+    public static VippsDownloadCheckpoint create(Path partFile, String reportId) {
+        Properties properties = new Properties();
+        properties.setProperty("reportId", reportId);
+        properties.setProperty("offset", "0");
+        return new VippsDownloadCheckpoint(partFile, properties);
+    }
+
+    /**
+     * Loads the checkpoint of a partial file
+     * @param partFile the partial file
+     * @return the checkpoint, or null if there is none
+     * @throws IOException if the checkpoint cannot be read
+     */
+    public static VippsDownloadCheckpoint load(Path partFile) throws IOException {
+        VippsDownloadCheckpoint checkpoint = new VippsDownloadCheckpoint(partFile, new Properties());
+        if (!Files.exists(checkpoint.checkpointFile)) {
+            return null;
+        }
+        try (InputStream input = Files.newInputStream(checkpoint.checkpointFile)) {
+            checkpoint.properties.load(input);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Finds an unfinished download of a report that was requested for a merchant, format and
+     * date range. Services of different merchants may share a download directory, so all
+     * three have to match.
+     * @param directory the directory the report is downloaded to
+     * @param merchant the merchant key, see {@link VippsReportCache#merchantKey(VippsCredentialManager)}
+     * @param format the report format
+     * @param range the date range of the report
+     * @return the checkpoint, or null if there is none
+     * @throws IOException if the directory cannot be read
+     */
+    public static VippsDownloadCheckpoint find(Path directory, String merchant, String format, VippsDateRange range)
+            throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.part" + EXTENSION)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                Path partFile = file.resolveSibling(name.substring(0, name.length() - EXTENSION.length()));
+                VippsDownloadCheckpoint checkpoint = load(partFile);
+                if (checkpoint != null && merchant.equals(checkpoint.getMerchant())
+                        && format.equals(checkpoint.getFormat()) && range.equals(checkpoint.getRange())) {
+                    return checkpoint;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Path getPartFile() {
+        return partFile;
+    }
+
+    public String getReportId() {
+        return properties.getProperty("reportId");
+    }
+
+    /**
+     * @return the number of bytes of the response body that are safely stored in the partial file
+     */
+    public long getOffset() {
+        return Long.parseLong(properties.getProperty("offset", "0"));
+    }
+
+    public void setOffset(long offset) {
+        properties.setProperty("offset", Long.toString(offset));
+    }
+
+    /**
+     * @return the Content-Encoding of the stored bytes, or null if they are not encoded
+     */
+    public String getEncoding() {
+        return properties.getProperty("encoding");
+    }
+
+    /**
+     * Gets the validator to send in an If-Range header. Only a strong ETag or a
+     * Last-Modified date can be used, so a weak ETag alone does not allow resuming.
+     * @return the validator, or null if the download cannot be resumed safely
+     */
+    public String getValidator() {
+        String etag = properties.getProperty("etag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return properties.getProperty("lastModified");
+    }
+
+    /**
+     * @return the key of the merchant the report was requested for, or null if unknown
+     */
+    public String getMerchant() {
+        return properties.getProperty("merchant");
+    }
+
+    /**
+     * @return the format the report was requested in, or null if unknown
+     */
+    public String getFormat() {
+        return properties.getProperty("format");
+    }
+
+    public VippsDateRange getRange() {
+        String startDate = properties.getProperty("startDate");
+        String endDate = properties.getProperty("endDate");
+        if (startDate == null || endDate == null) {
+            return null;
+        }
+        return new VippsDateRange(LocalDate.parse(startDate), LocalDate.parse(endDate));
+    }
+
+    /**
+     * Records what the report was requested for, so {@link #find} can match it
+     * @param merchant the merchant key
+     * @param format the report format
+     * @param range the date range of the report
+     */
+    public void setRequest(String merchant, String format, VippsDateRange range) {
+        properties.setProperty("merchant", merchant);
+        properties.setProperty("format", format);
+        properties.setProperty("startDate", range.getStartDate().toString());
+        properties.setProperty("endDate", range.getEndDate().toString());
+    }
+
+    /**
+     * Restarts the download from byte zero with the validators of a new full response
+     * @param etag the ETag header, or null
+     * @param lastModified the Last-Modified header, or null
+     * @param encoding the Content-Encoding header, or null
+     */
+    public void restart(String etag, String lastModified, String encoding) {
+        setOffset(0);
+        setOrRemove("etag", etag);
+        setOrRemove("lastModified", lastModified);
+        setOrRemove("encoding", encoding);
+    }
+
+    /**
+     * Writes the checkpoint to disk atomically
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    public void save() throws IOException {
+        Path directory = checkpointFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, checkpointFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                properties.store(output, "Vipps report download checkpoint");
+            }
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the checkpoint and its partial file
+     * @throws IOException if the files cannot be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(checkpointFile);
+        Files.deleteIfExists(partFile);
+    }
+
+    private void setOrRemove(String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        } else {
+            properties.remove(key);
+        }
+    }
+}
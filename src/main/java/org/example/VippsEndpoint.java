@@ -0,0 +1,50 @@
+package org.example;
+
+import java.net.http.HttpRequest;
+import java.util.regex.Pattern;
+
+/**
+ * Classes of API endpoints. Retry policies and circuit breakers are kept per class, so a
+ * degraded report API does not stop token refreshes or downloads from storage.
+ */
+public enum VippsEndpoint {
+    AUTH,
+    REPORT,
+    STATUS,
+    DOWNLOAD;
+
+    private static final String REPORT_PATH = "/vipps-report/v1/report";
+    private static final Pattern STATUS_PATH = Pattern.compile(".*" + Pattern.quote(REPORT_PATH) + "/[^/]+");
+
+    /**
+     * @return false for report creation, which creates a new report on the server every
+     * time it is received, so it must not be sent again unless it provably was not processed
+     */
+    public boolean isIdempotent() {
+        return this != REPORT;
+    }
+
+    /**
+     * Classifies a request by its path and method. Only report creation and the status of
+     * a single report are report API calls; any other request, including other paths under
+     * the report API, is treated as a download.
+     * @param request the request
+     * @return the endpoint class of the request
+     */
+    public static VippsEndpoint of(HttpRequest request) {
+        String path = request.uri().getPath();
+        if (path == null) {
+            return DOWNLOAD;
+        }
+        if (path.endsWith("/accessToken/get")) {
+            return AUTH;
+        }
+        if (request.method().equals("POST") && path.endsWith(REPORT_PATH)) {
+            return REPORT;
+        }
+        if (request.method().equals("GET") && STATUS_PATH.matcher(path).matches()) {
+            return STATUS;
+        }
+        return DOWNLOAD;
+    }
+}
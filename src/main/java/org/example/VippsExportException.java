@@ -0,0 +1,20 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a {@link VippsLedgerPipeline} fails, either because the report could not be
+ * parsed or because a sink failed. Downloads are not retried for this exception, since
+ * receiving the report again would not help.
+ */
+public class VippsExportException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public VippsExportException(String message) {
+        super(message);
+    }
+
+    public VippsExportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
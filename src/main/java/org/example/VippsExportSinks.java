@@ -0,0 +1,148 @@
+package org.example;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the standard export sinks for a downloaded report: a columnar ".vlc" copy and a
+ * ".totals.json" file next to the report, index entries and rows in a database table.
+ * Rows synced onto the end of a ledger can be appended to the sinks of that ledger
+ * instead of exporting it again.
+ */
+public class VippsExportSinks implements VippsLedgerPipeline.SinkFactory {
+    private boolean columnar;
+    private boolean totals;
+    private VippsLedgerIndex ledgerIndex;
+    private String jdbcUrl;
+    private String jdbcTable;
+
+    /**
+     * Creates the sinks from the {@code export} section of a job or daemon configuration:
+     * {@code {"columnar": true, "totals": true, "index": "index", "jdbcUrl": "...", "jdbcTable": "..."}}
+     * @param export the export section
+     * @param baseDirectory the directory a relative index path is resolved against
+     * @return the configured sinks
+     * @throws IOException if the ledger index cannot be opened
+     */
+    public static VippsExportSinks fromConfig(JSONObject export, Path baseDirectory) throws IOException {
+        VippsExportSinks sinks = new VippsExportSinks();
+        sinks.setColumnar(export.optBoolean("columnar", false));
+        sinks.setTotals(export.optBoolean("totals", false));
+        if (export.has("index")) {
+            sinks.setLedgerIndex(new VippsLedgerIndex(baseDirectory.resolve(export.getString("index"))));
+        }
+        if (export.has("jdbcUrl")) {
+            sinks.setJdbc(export.getString("jdbcUrl"), export.getString("jdbcTable"));
+        }
+        return sinks;
+    }
+
+    /**
+     * @param columnar true to write a columnar ".vlc" copy next to each report
+     */
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
+    /**
+     * @param totals true to write the totals of each report to a ".totals.json" file next to it
+     */
+    public void setTotals(boolean totals) {
+        this.totals = totals;
+    }
+
+    /**
+     * @param ledgerIndex the index to add each report to, or null
+     */
+    public void setLedgerIndex(VippsLedgerIndex ledgerIndex) {
+        this.ledgerIndex = ledgerIndex;
+    }
+
+    /**
+     * Inserts the rows of each report into a database table, see {@link VippsJdbcSink}
+     * @param jdbcUrl the JDBC URL, including any credentials the driver needs
+     * @param jdbcTable the table to insert into
+     */
+    public void setJdbc(String jdbcUrl, String jdbcTable) {
+        this.jdbcUrl = jdbcUrl;
+        this.jdbcTable = jdbcTable;
+    }
+
+    /**
+     * @return true if no sink is enabled
+     */
+    public boolean isEmpty() {
+        return !columnar && !totals && ledgerIndex == null && jdbcUrl == null;
+    }
+
+    @Override
+    public List<VippsLedgerSink> createSinks(String reportId, Path reportFile) throws IOException {
+        List<VippsLedgerSink> sinks = new ArrayList<>();
+        if (columnar) {
+            sinks.add(new VippsFileSink(VippsColumnarLedgerWriter.columnarFileFor(reportFile)));
+        }
+        if (totals) {
+            sinks.add(new VippsAggregateSink(totalsFileFor(reportFile)));
+        }
+        if (ledgerIndex != null) {
+            sinks.add(new VippsIndexSink(ledgerIndex, reportFile));
+        }
+        if (jdbcUrl != null) {
+            sinks.add(jdbcSink(reportId, false));
+        }
+        return sinks;
+    }
+
+    /**
+     * Creates sinks that extend the columnar copy, the totals, the index entries and the
+     * table rows of a ledger with the appended rows. If the columnar copy or the totals file
+     * is missing, e.g. because it was enabled after the ledger was last exported, the whole
+     * ledger has to be exported instead.
+     */
+    @Override
+    public List<VippsLedgerSink> createAppendSinks(String reportId, Path ledgerFile) throws IOException {
+        Path columnarFile = VippsColumnarLedgerWriter.columnarFileFor(ledgerFile);
+        Path totalsFile = totalsFileFor(ledgerFile);
+        if ((columnar && !Files.exists(columnarFile)) || (totals && !Files.exists(totalsFile))) {
+            return null;
+        }
+
+        List<VippsLedgerSink> sinks = new ArrayList<>();
+        if (columnar) {
+            sinks.add(new VippsFileSink(columnarFile, true));
+        }
+        if (totals) {
+            sinks.add(new VippsAggregateSink(totalsFile, true));
+        }
+        if (ledgerIndex != null) {
+            sinks.add(new VippsIndexSink(ledgerIndex, ledgerFile, Files.size(ledgerFile)));
+        }
+        if (jdbcUrl != null) {
+            sinks.add(jdbcSink(reportId, true));
+        }
+        return sinks;
+    }
+
+    private VippsJdbcSink jdbcSink(String reportId, boolean append) throws IOException {
+        try {
+            return new VippsJdbcSink(DriverManager.getConnection(jdbcUrl), jdbcTable, reportId, append);
+        } catch (SQLException e) {
+            throw new IOException("Failed to connect to " + jdbcUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param reportFile a report file
+     * @return the totals file next to it, with a trailing ".csv" or ".csv.gz" replaced by ".totals.json"
+     */
+    public static Path totalsFileFor(Path reportFile) {
+        return reportFile.resolveSibling(VippsColumnarLedgerWriter.baseName(reportFile) + ".totals.json");
+    }
+}
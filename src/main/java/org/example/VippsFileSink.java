@@ -0,0 +1,143 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the exported rows to a file. A target ending in ".vlc" is written in the columnar
+ * format of {@link VippsColumnarLedgerWriter}, one ending in ".gz" as gzip-compressed CSV
+ * and anything else as plain CSV. The file is written under a temporary name and moved
+ * into place on commit. A columnar file can also be extended: the sink then starts with the
+ * rows already in the file, e.g. the copy of a synced ledger that new rows are appended to.
+ */
+public class VippsFileSink implements VippsLedgerSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final boolean append;
+    private Path tempFile;
+    private VippsColumnarLedgerWriter columnarWriter;
+    private Writer csvWriter;
+
+    /**
+     * @param target the file to create or replace
+     */
+    public VippsFileSink(Path target) {
+        this(target, false);
+    }
+
+    /**
+     * @param target the file to create, replace or extend
+     * @param append true to keep the rows of an existing columnar file and add the exported rows after them
+     * @throws IllegalArgumentException if appending to a file that is not a columnar file
+     */
+    public VippsFileSink(Path target, boolean append) {
+        if (append && !target.getFileName().toString().toLowerCase(Locale.ROOT)
+                .endsWith(VippsColumnarLedgerWriter.FILE_EXTENSION)) {
+            throw new IllegalArgumentException("Only columnar files can be appended to: " + target);
+        }
+        this.target = target;
+        this.append = append;
+    }
+
+    @Override
+    public void open(VippsLedgerColumns columns) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        tempFile = Files.createTempFile(directory, target.getFileName().toString(), ".part");
+        String name = target.getFileName().toString().toLowerCase(Locale.ROOT);
+
+        if (name.endsWith(VippsColumnarLedgerWriter.FILE_EXTENSION)) {
+            columnarWriter = VippsColumnarLedgerWriter.create(tempFile);
+            if (append && Files.exists(target)) {
+                columnarWriter.addAll(target);
+            }
+            return;
+        }
+        OutputStream output = Files.newOutputStream(tempFile);
+        if (VippsCompression.isCompressed(target)) {
+            output = VippsCompression.encode(output);
+        }
+        csvWriter = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writeHeader(columns);
+    }
+
+    @Override
+    public void accept(List<VippsLedgerRecord> records) throws IOException {
+        for (VippsLedgerRecord record : records) {
+            if (columnarWriter != null) {
+                columnarWriter.add(record);
+            } else {
+                csvWriter.append(record.getRow()).append('\n');
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (columnarWriter != null) {
+            columnarWriter.finish();
+            columnarWriter.close();
+            columnarWriter = null;
+        } else {
+            csvWriter.close();
+            csvWriter = null;
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        tempFile = null;
+        System.out.println("Exported report to: " + target);
+    }
+
+    @Override
+    public void abort() {
+        try {
+            if (columnarWriter != null) {
+                columnarWriter.close();
+            }
+            if (csvWriter != null) {
+                csvWriter.close();
+            }
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to remove partial export " + tempFile + ": " + e.getMessage());
+        }
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    /**
+     * Writes the header row with the report delimiter, quoting names where needed
+     */
+    private void writeHeader(VippsLedgerColumns columns) throws IOException {
+        char delimiter = (char) columns.getDelimiter();
+        String[] names = columns.getNames();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                csvWriter.write(delimiter);
+            }
+            String name = names[i];
+            if (name.indexOf(delimiter) >= 0 || name.indexOf('"') >= 0 || name.indexOf('\n') >= 0) {
+                csvWriter.write('"' + name.replace("\"", "\"\"") + '"');
+            } else {
+                csvWriter.write(name);
+            }
+        }
+        csvWriter.write('\n');
+    }
+}
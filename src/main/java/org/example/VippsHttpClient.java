@@ -3,21 +3,83 @@ package org.example;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends API requests through a {@link VippsResiliencePolicy}: responses with a retryable
+ * status (429 and most 5xx) and I/O errors are retried with backoff per endpoint class
+ * while the shared retry budget allows it, and requests to an endpoint class whose circuit
+ * breaker is open fail immediately with a {@link VippsCircuitOpenException}. When the
+ * retries are used up the last response is returned to the caller as before.
+ *
+ * <p>Report creation is not idempotent, so it is only retried when the server cannot have
+ * processed it: on connection failures, 429, and 503 with a Retry-After header. Other
+ * errors are returned or thrown at once to avoid creating the same report twice.</p>
+ *
+ * <p>Every attempt, including retries, first takes a permit from the client's
+ * {@link VippsRateLimiter}. Asynchronous requests wait for their permit on a timer.</p>
+ */
 public class VippsHttpClient {
     private final HttpClient client;
+    private final Executor executor;
+    private volatile VippsResiliencePolicy resiliencePolicy = new VippsResiliencePolicy();
+    private volatile VippsRateLimiter rateLimiter = new VippsRateLimiter();
 
     public VippsHttpClient() {
         this.client = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_2)
                 .connectTimeout(Duration.ofSeconds(30))
                 .build();
+        this.executor = null;
+    }
+
+    /**
+     * Creates a client that runs asynchronous response handling on the given executor
+     * @param executor the executor used for asynchronous work
+     */
+    public VippsHttpClient(Executor executor) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(executor)
+                .build();
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the retry, backoff and circuit breaker policy used for all requests
+     * @param resiliencePolicy the policy, see {@link VippsResiliencePolicy#disabled()} to turn it off
+     */
+    public void setResiliencePolicy(VippsResiliencePolicy resiliencePolicy) {
+        this.resiliencePolicy = resiliencePolicy;
+    }
+
+    public VippsResiliencePolicy getResiliencePolicy() {
+        return resiliencePolicy;
+    }
+
+    /**
+     * Sets the rate limiter that all requests take a permit from. Clients that share
+     * a subscription key should share a limiter.
+     * @param rateLimiter the rate limiter, see {@link VippsRateLimiter#unlimited()} to turn it off
+     */
+    public void setRateLimiter(VippsRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public VippsRateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
     /**
@@ -28,7 +90,239 @@ public class VippsHttpClient {
      * @throws InterruptedException if the operation is interrupted
      */
     public HttpResponse<String> sendRequest(HttpRequest request) throws IOException, InterruptedException {
-        return client.send(request, HttpResponse.BodyHandlers.ofString());
+        return send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sends an HTTP request and returns the raw response body, for responses that are
+     * parsed with {@link VippsJson} without decoding them to a String first
+     * @param request the HTTP request to send
+     * @return the HTTP response
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public HttpResponse<byte[]> sendBinaryRequest(HttpRequest request) throws IOException, InterruptedException {
+        return send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Sends an HTTP request and returns the response body as an unbuffered stream.
+     * The caller is responsible for closing the body stream.
+     * @param request the HTTP request to send
+     * @return the HTTP response with a streaming body
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public HttpResponse<InputStream> sendStreamingRequest(HttpRequest request) throws IOException, InterruptedException {
+        return send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * Sends an HTTP request without blocking the calling thread
+     * @param request the HTTP request to send
+     * @return a future completed with the HTTP response
+     */
+    public CompletableFuture<HttpResponse<String>> sendRequestAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofString(), 1);
+    }
+
+    /**
+     * Sends an HTTP request without blocking the calling thread and returns the raw response body
+     * @param request the HTTP request to send
+     * @return a future completed with the HTTP response
+     */
+    public CompletableFuture<HttpResponse<byte[]>> sendBinaryRequestAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofByteArray(), 1);
+    }
+
+    /**
+     * Sends an HTTP request without blocking the calling thread. The response body is
+     * an unbuffered stream which the caller is responsible for closing.
+     * @param request the HTTP request to send
+     * @return a future completed with the HTTP response once the headers are received
+     */
+    public CompletableFuture<HttpResponse<InputStream>> sendStreamingRequestAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofInputStream(), 1);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        VippsResiliencePolicy policy = resiliencePolicy;
+        VippsEndpoint endpoint = VippsEndpoint.of(request);
+        VippsRetryPolicy retryPolicy = policy.getRetryPolicy(endpoint);
+        VippsCircuitBreaker circuitBreaker = policy.getCircuitBreaker(endpoint);
+        boolean idempotent = endpoint.isIdempotent();
+        policy.getRetryBudget().recordRequest();
+
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire(request);
+            acquire(circuitBreaker, endpoint);
+
+            HttpResponse<T> response;
+            long startTime = System.nanoTime();
+            try {
+                response = client.send(request, bodyHandler);
+            } catch (IOException e) {
+                recordLatency(endpoint, "error", startTime);
+                circuitBreaker.recordFailure();
+                if (!VippsRetryPolicy.isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                long delay = retryDelay(policy, retryPolicy, attempt, null);
+                if (delay < 0) {
+                    throw e;
+                }
+                printRetry(endpoint, attempt, e.toString(), delay);
+                Thread.sleep(delay);
+                continue;
+            }
+
+            recordLatency(endpoint, Integer.toString(response.statusCode()), startTime);
+            recordOutcome(circuitBreaker, response.statusCode());
+            if (!retryPolicy.isRetryable(response, idempotent)) {
+                return response;
+            }
+            long delay = retryDelay(policy, retryPolicy, attempt, response);
+            recordThrottling(request, response, delay);
+            if (delay < 0) {
+                return response;
+            }
+            discard(response);
+            printRetry(endpoint, attempt, "status " + response.statusCode(), delay);
+            Thread.sleep(delay);
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                             HttpResponse.BodyHandler<T> bodyHandler, int attempt) {
+        VippsResiliencePolicy policy = resiliencePolicy;
+        VippsEndpoint endpoint = VippsEndpoint.of(request);
+        VippsRetryPolicy retryPolicy = policy.getRetryPolicy(endpoint);
+        VippsCircuitBreaker circuitBreaker = policy.getCircuitBreaker(endpoint);
+        boolean idempotent = endpoint.isIdempotent();
+        if (attempt == 1) {
+            policy.getRetryBudget().recordRequest();
+        }
+
+        long[] startTime = new long[1];
+        return rateLimiter.acquireAsync(request, executor)
+                .thenCompose(permit -> {
+                    try {
+                        acquire(circuitBreaker, endpoint);
+                    } catch (VippsCircuitOpenException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    startTime[0] = System.nanoTime();
+                    return client.sendAsync(request, bodyHandler);
+                })
+                .handle((response, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    long delay;
+                    String reason;
+                    if (cause != null) {
+                        if (!(cause instanceof IOException) || cause instanceof VippsCircuitOpenException) {
+                            return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                        }
+                        recordLatency(endpoint, "error", startTime[0]);
+                        circuitBreaker.recordFailure();
+                        if (!VippsRetryPolicy.isRetryable((IOException) cause, idempotent)) {
+                            return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                        }
+                        delay = retryDelay(policy, retryPolicy, attempt, null);
+                        if (delay < 0) {
+                            return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                        }
+                        reason = cause.toString();
+                    } else {
+                        recordLatency(endpoint, Integer.toString(response.statusCode()), startTime[0]);
+                        recordOutcome(circuitBreaker, response.statusCode());
+                        if (!retryPolicy.isRetryable(response, idempotent)) {
+                            return CompletableFuture.completedFuture(response);
+                        }
+                        delay = retryDelay(policy, retryPolicy, attempt, response);
+                        recordThrottling(request, response, delay);
+                        if (delay < 0) {
+                            return CompletableFuture.completedFuture(response);
+                        }
+                        discard(response);
+                        reason = "status " + response.statusCode();
+                    }
+
+                    printRetry(endpoint, attempt, reason, delay);
+                    Executor delayed = executor != null
+                            ? CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                            : CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+                    return CompletableFuture.runAsync(() -> { }, delayed)
+                            .thenCompose(ignored -> sendAsync(request, bodyHandler, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * @return the delay before the next attempt, or -1 if the request must not be retried
+     */
+    private static long retryDelay(VippsResiliencePolicy policy, VippsRetryPolicy retryPolicy, int attempt,
+                                   HttpResponse<?> response) {
+        if (attempt >= retryPolicy.getMaxAttempts()) {
+            return -1;
+        }
+        long delay = retryPolicy.delayMillis(attempt, response);
+        if (delay < 0 || !policy.getRetryBudget().tryRetry()) {
+            return -1;
+        }
+        return delay;
+    }
+
+    private static void recordOutcome(VippsCircuitBreaker circuitBreaker, int statusCode) {
+        // Throttling says nothing about the health of the API, so 429 is neither a success nor a failure
+        if (statusCode >= 500) {
+            circuitBreaker.recordFailure();
+        } else if (statusCode != 429) {
+            circuitBreaker.recordSuccess();
+        }
+    }
+
+    /**
+     * Pauses the rate limiter bucket of a request that was answered with 429
+     */
+    private void recordThrottling(HttpRequest request, HttpResponse<?> response, long delay) {
+        if (response.statusCode() == 429) {
+            long retryAfter = VippsRetryPolicy.retryAfterMillis(response);
+            rateLimiter.onThrottled(request, retryAfter >= 0 ? retryAfter : delay);
+        }
+    }
+
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            } catch (IOException ignored) {
+                // The connection is dropped either way
+            }
+        }
+    }
+
+    private static void acquire(VippsCircuitBreaker circuitBreaker, VippsEndpoint endpoint)
+            throws VippsCircuitOpenException {
+        try {
+            circuitBreaker.acquire();
+        } catch (VippsCircuitOpenException e) {
+            VippsMetrics.increment("vipps_http_circuit_open_total", "endpoint", endpoint.name());
+            throw e;
+        }
+    }
+
+    private static void recordLatency(VippsEndpoint endpoint, String status, long startTime) {
+        // For streaming requests this is the time until the response headers arrive
+        VippsMetrics.recordSince("vipps_http_request_duration_seconds", startTime,
+                "endpoint", endpoint.name(), "status", status);
+    }
+
+    private static void printRetry(VippsEndpoint endpoint, int attempt, String reason, long delay) {
+        VippsMetrics.increment("vipps_http_retries_total", "endpoint", endpoint.name());
+        System.err.println(endpoint + " request attempt " + attempt + " failed (" + reason +
+                "), retrying in " + delay + " ms");
     }
 
     /**
@@ -60,12 +354,25 @@ public class VippsHttpClient {
      * @return the HTTP request
      */
     public HttpRequest createReportRequest(String token, String subscriptionKey, String baseUrl, JSONObject body) {
+        return createReportRequest(token, subscriptionKey, baseUrl, body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a request to create a new ledger report from an encoded body, such as
+     * {@link VippsJson#reportRequestBody(java.time.LocalDate, java.time.LocalDate)}
+     * @param token the access token
+     * @param subscriptionKey the subscription key
+     * @param baseUrl the base URL for the API
+     * @param body the UTF-8 encoded JSON body for the request
+     * @return the HTTP request
+     */
+    public HttpRequest createReportRequest(String token, String subscriptionKey, String baseUrl, byte[] body) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/vipps-report/v1/report"))
                 .header("Authorization", "Bearer " + token)
                 .header("Ocp-Apim-Subscription-Key", subscriptionKey)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
                 .build();
     }
 
@@ -88,13 +395,34 @@ public class VippsHttpClient {
 
 
     /**
-     * Creates a request to download a report
+     * Creates a request to download a report. The request accepts gzip and deflate
+     * transfer encoding; see {@link VippsCompression#decode(java.io.InputStream, String)}.
      * @param reportUrl the URL of the report to download
      * @return the HTTP request
      */
     public HttpRequest createDownloadRequest(String reportUrl) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(reportUrl))
+                .header("Accept-Encoding", VippsCompression.ACCEPT_ENCODING)
+                .GET()
+                .build();
+    }
+
+    /**
+     * Creates a request that resumes a report download at a byte offset. The If-Range
+     * validator makes the server send the whole report with status 200 instead of the
+     * remaining bytes if the report has changed since the download started.
+     * @param reportUrl the URL of the report to download
+     * @param offset the number of bytes already received
+     * @param validator the ETag or Last-Modified value of the earlier response
+     * @return the HTTP request
+     */
+    public HttpRequest createDownloadRequest(String reportUrl, long offset, String validator) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(reportUrl))
+                .header("Accept-Encoding", VippsCompression.ACCEPT_ENCODING)
+                .header("Range", "bytes=" + offset + "-")
+                .header("If-Range", validator)
                 .GET()
                 .build();
     }
@@ -0,0 +1,69 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Adds the exported rows to a {@link VippsLedgerIndex} under the file the report is stored
+ * in, so the report does not have to be read again to index it. Compressed reports are
+ * skipped, as for {@link VippsLedgerIndex#update(List)}.
+ */
+public class VippsIndexSink implements VippsLedgerSink {
+    private final VippsLedgerIndex index;
+    private final Path reportFile;
+    private final long appendedAfter;
+    private VippsLedgerIndex.Writer writer;
+
+    /**
+     * @param index the index to add the rows to
+     * @param reportFile the plain CSV file the report is stored in; it must exist on commit
+     */
+    public VippsIndexSink(VippsLedgerIndex index, Path reportFile) {
+        this(index, reportFile, -1);
+    }
+
+    /**
+     * Creates a sink for rows appended to a ledger file, see {@link VippsLedgerIndex#appendWriter(Path, long)}
+     * @param index the index to add the rows to
+     * @param ledgerFile the plain CSV file the rows are appended to
+     * @param appendedAfter the size of the ledger file before the append, or -1 to replace its entries
+     */
+    public VippsIndexSink(VippsLedgerIndex index, Path ledgerFile, long appendedAfter) {
+        this.index = index;
+        this.reportFile = ledgerFile;
+        this.appendedAfter = appendedAfter;
+    }
+
+    @Override
+    public void open(VippsLedgerColumns columns) {
+        if (VippsCompression.isCompressed(reportFile)) {
+            System.err.println("Skipping compressed ledger file " + reportFile + ", only plain CSV files can be indexed");
+            return;
+        }
+        writer = appendedAfter >= 0 ? index.appendWriter(reportFile, appendedAfter) : index.writer(reportFile);
+    }
+
+    @Override
+    public void accept(List<VippsLedgerRecord> records) {
+        if (writer == null) {
+            return;
+        }
+        for (VippsLedgerRecord record : records) {
+            writer.add(record);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (writer != null) {
+            long rows = writer.commit();
+            System.out.println("Indexed " + rows + " rows from " + reportFile);
+        }
+    }
+
+    @Override
+    public void abort() {
+        writer = null;
+    }
+}
@@ -0,0 +1,196 @@
+package org.example;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Inserts the exported rows into a database table with batched prepared statements, in a
+ * single transaction that is committed with the pipeline. Rows exported earlier under the
+ * same report ID are deleted in that transaction, so exporting a report again replaces its
+ * rows, unless the sink appends, e.g. the rows newly added to a synced ledger. Rows without
+ * a ledger date or time get NULL in those columns. The table is expected to have the columns
+ * created by {@link #createTableSql(String)}.
+ *
+ * <p>Works with any JDBC connection; the driver only needs to be on the class path when
+ * the connection is opened, e.g. by {@link VippsExportSinks}.</p>
+ */
+public class VippsJdbcSink implements VippsLedgerSink {
+    private static final int BATCH_SIZE = 500;
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+    private static final String COLUMNS = "report_id, ledger_date, occurred_at_millis, entry_type, amount_minor, " +
+            "currency, reference, psp_reference, payout_id";
+
+    private final Connection connection;
+    private final String table;
+    private final String reportId;
+    private final boolean append;
+    private PreparedStatement statement;
+    private int pending;
+    private long inserted;
+    private boolean transactionStarted;
+    private boolean closed;
+
+    /**
+     * @param connection the connection to insert with; it is closed on commit or abort
+     * @param table the table name, optionally qualified by a schema
+     * @param reportId the report ID stored with every row
+     * @throws IllegalArgumentException if the table name is not a plain SQL identifier
+     */
+    public VippsJdbcSink(Connection connection, String table, String reportId) {
+        this(connection, table, reportId, false);
+    }
+
+    /**
+     * @param connection the connection to insert with; it is closed on commit or abort
+     * @param table the table name, optionally qualified by a schema
+     * @param reportId the report ID stored with every row
+     * @param append true to add the rows to those exported earlier under the report ID
+     *               instead of replacing them
+     * @throws IllegalArgumentException if the table name is not a plain SQL identifier
+     */
+    public VippsJdbcSink(Connection connection, String table, String reportId, boolean append) {
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + table);
+        }
+        this.connection = connection;
+        this.table = table;
+        this.reportId = reportId;
+        this.append = append;
+    }
+
+    /**
+     * @param table the table name, optionally qualified by a schema
+     * @return a portable CREATE TABLE statement for the export table
+     */
+    public static String createTableSql(String table) {
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + table);
+        }
+        return "CREATE TABLE " + table + " (" +
+                "report_id VARCHAR(64) NOT NULL, " +
+                "ledger_date DATE, " +
+                "occurred_at_millis BIGINT, " +
+                "entry_type VARCHAR(16) NOT NULL, " +
+                "amount_minor BIGINT NOT NULL, " +
+                "currency VARCHAR(8), " +
+                "reference VARCHAR(255), " +
+                "psp_reference VARCHAR(255), " +
+                "payout_id VARCHAR(255))";
+    }
+
+    @Override
+    public void open(VippsLedgerColumns columns) throws IOException {
+        try {
+            connection.setAutoCommit(false);
+            transactionStarted = true;
+            if (!append) {
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE report_id = ?")) {
+                    delete.setString(1, reportId);
+                    delete.executeUpdate();
+                }
+            }
+            statement = connection.prepareStatement("INSERT INTO " + table + " (" + COLUMNS + ") " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        } catch (SQLException e) {
+            throw new IOException("Failed to prepare insert into " + table + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void accept(List<VippsLedgerRecord> records) throws IOException {
+        try {
+            for (VippsLedgerRecord record : records) {
+                statement.setString(1, reportId);
+                if (record.hasLedgerDate()) {
+                    statement.setDate(2, Date.valueOf(LocalDate.ofEpochDay(record.getLedgerEpochDay())));
+                } else {
+                    statement.setNull(2, Types.DATE);
+                }
+                if (record.hasTimestamp()) {
+                    statement.setLong(3, record.getTimestampMillis());
+                } else {
+                    statement.setNull(3, Types.BIGINT);
+                }
+                statement.setString(4, record.getEntryType().name());
+                statement.setLong(5, record.getAmountMinor());
+                statement.setString(6, record.getCurrency().toString());
+                statement.setString(7, record.getReference().toString());
+                statement.setString(8, record.getPspReference().toString());
+                statement.setString(9, record.getPayoutId().toString());
+                statement.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    executeBatch();
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to insert into " + table + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (pending > 0) {
+                executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to insert into " + table + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        try {
+            connection.commit();
+            System.out.println("Inserted " + inserted + " rows into " + table);
+        } catch (SQLException e) {
+            throw new IOException("Failed to commit insert into " + table + ": " + e.getMessage(), e);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        if (!transactionStarted) {
+            // Opening failed or never happened, so there is nothing to roll back
+            close();
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.err.println("Failed to roll back insert into " + table + ": " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        statement.executeBatch();
+        inserted += pending;
+        pending = 0;
+    }
+
+    private void close() {
+        closed = true;
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close database connection: " + e.getMessage());
+        }
+    }
+}
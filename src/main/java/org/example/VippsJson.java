@@ -0,0 +1,311 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Lean JSON handling for the small API payloads on the hot path: auth, report creation
+ * and status polling. Fields are read straight from the UTF-8 response bytes in a single
+ * pass, without decoding the body to a String or building an object tree, and only the
+ * requested values are materialized. Request bodies are written from a pre-encoded template.
+ *
+ * <p>org.json is still used for configuration and summary files, where convenience matters
+ * more than allocation.</p>
+ */
+public final class VippsJson {
+    private static final byte[] REPORT_BODY_TEMPLATE =
+            "{\"format\":\"CSV\",\"startDate\":\"0000-00-00\",\"endDate\":\"0000-00-00\"}"
+                    .getBytes(StandardCharsets.US_ASCII);
+    private static final int START_DATE_OFFSET = indexOf(REPORT_BODY_TEMPLATE, "0000-00-00", 0);
+    private static final int END_DATE_OFFSET = indexOf(REPORT_BODY_TEMPLATE, "0000-00-00", START_DATE_OFFSET + 1);
+
+    private VippsJson() {
+    }
+
+    /**
+     * Reads top-level fields of a JSON object. String values are unescaped, numbers and
+     * booleans are returned as their literal text, and nested objects and arrays are
+     * skipped unless requested, in which case their raw JSON text is returned.
+     * @param json the UTF-8 encoded JSON object
+     * @param names the ASCII names of the fields to read
+     * @return the field values in the order of the names; an entry is null if the field
+     * is missing or JSON null
+     * @throws IllegalArgumentException if the JSON is malformed
+     */
+    public static String[] readFields(byte[] json, String... names) {
+        String[] values = new String[names.length];
+        int position = skipWhitespace(json, 0);
+        expect(json, position, '{');
+        position = skipWhitespace(json, position + 1);
+        if (byteAt(json, position) == '}') {
+            return values;
+        }
+
+        while (true) {
+            expect(json, position, '"');
+            int keyEnd = skipString(json, position);
+            int field = findName(json, position + 1, keyEnd - 1, names);
+
+            position = skipWhitespace(json, keyEnd);
+            expect(json, position, ':');
+            int valueStart = skipWhitespace(json, position + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if (field >= 0) {
+                values[field] = valueOf(json, valueStart, valueEnd);
+            }
+
+            position = skipWhitespace(json, valueEnd);
+            byte next = byteAt(json, position);
+            if (next == '}') {
+                return values;
+            }
+            expect(json, position, ',');
+            position = skipWhitespace(json, position + 1);
+        }
+    }
+
+    /**
+     * Reads a single top-level field of a JSON object
+     * @param json the UTF-8 encoded JSON object
+     * @param name the name of the field
+     * @return the value, or null if the field is missing or JSON null
+     * @throws IllegalArgumentException if the JSON is malformed
+     */
+    public static String readField(byte[] json, String name) {
+        return readFields(json, name)[0];
+    }
+
+    /**
+     * @param value a numeric field value, or null
+     * @param defaultValue the value to return if the field is missing or not an integer
+     * @return the parsed value
+     */
+    public static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Writes the body of a CSV ledger report request by filling the dates into a
+     * pre-encoded template
+     * @param startDate the start date of the report
+     * @param endDate the end date of the report
+     * @return the UTF-8 encoded request body
+     */
+    public static byte[] reportRequestBody(LocalDate startDate, LocalDate endDate) {
+        byte[] body = REPORT_BODY_TEMPLATE.clone();
+        writeDate(body, START_DATE_OFFSET, startDate);
+        writeDate(body, END_DATE_OFFSET, endDate);
+        return body;
+    }
+
+    /**
+     * Writes a date as yyyy-MM-dd over the placeholder at the given offset
+     */
+    private static void writeDate(byte[] body, int offset, LocalDate date) {
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Year out of range: " + date);
+        }
+        writeDigits(body, offset, year, 4);
+        writeDigits(body, offset + 5, date.getMonthValue(), 2);
+        writeDigits(body, offset + 8, date.getDayOfMonth(), 2);
+    }
+
+    private static void writeDigits(byte[] body, int offset, int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            body[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Finds the name matching a key, comparing the raw key bytes without decoding them
+     * @return the index of the name, or -1 if no name matches
+     */
+    private static int findName(byte[] json, int keyStart, int keyEnd, String[] names) {
+        for (int i = keyStart; i < keyEnd; i++) {
+            if (json[i] == '\\') {
+                // Escaped keys are rare; decode them and compare the result
+                String key = unescape(json, keyStart, keyEnd);
+                for (int n = 0; n < names.length; n++) {
+                    if (names[n].equals(key)) {
+                        return n;
+                    }
+                }
+                return -1;
+            }
+        }
+
+        for (int n = 0; n < names.length; n++) {
+            String name = names[n];
+            if (name.length() != keyEnd - keyStart) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length() && json[keyStart + i] == name.charAt(i)) {
+                i++;
+            }
+            if (i == name.length()) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private static String valueOf(byte[] json, int start, int end) {
+        if (json[start] == '"') {
+            for (int i = start + 1; i < end - 1; i++) {
+                if (json[i] == '\\') {
+                    return unescape(json, start + 1, end - 1);
+                }
+            }
+            return new String(json, start + 1, end - start - 2, StandardCharsets.UTF_8);
+        }
+        if (end - start == 4 && json[start] == 'n' && json[start + 1] == 'u' && json[start + 2] == 'l' && json[start + 3] == 'l') {
+            return null;
+        }
+        return new String(json, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(byte[] json, int start, int end) {
+        String raw = new String(json, start, end - start, StandardCharsets.UTF_8);
+        StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (++i >= raw.length()) {
+                throw malformed(end);
+            }
+            char escaped = raw.charAt(i);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= raw.length()) {
+                        throw malformed(end);
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed(end);
+                    }
+                    i += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the position after the closing quote of the string starting at the given position
+     */
+    private static int skipString(byte[] json, int position) {
+        for (int i = position + 1; i < json.length; i++) {
+            if (json[i] == '\\') {
+                i++;
+            } else if (json[i] == '"') {
+                return i + 1;
+            }
+        }
+        throw malformed(json.length);
+    }
+
+    /**
+     * @return the position after the value starting at the given position
+     */
+    private static int skipValue(byte[] json, int position) {
+        byte first = byteAt(json, position);
+        if (first == '"') {
+            return skipString(json, position);
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            for (int i = position; i < json.length; i++) {
+                byte b = json[i];
+                if (b == '"') {
+                    i = skipString(json, i) - 1;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            throw malformed(json.length);
+        }
+
+        int i = position;
+        while (i < json.length && json[i] != ',' && json[i] != '}' && json[i] != ']' && !isWhitespace(json[i])) {
+            i++;
+        }
+        if (i == position) {
+            throw malformed(position);
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(byte[] json, int position) {
+        while (position < json.length && isWhitespace(json[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static byte byteAt(byte[] json, int position) {
+        if (position >= json.length) {
+            throw malformed(position);
+        }
+        return json[position];
+    }
+
+    private static void expect(byte[] json, int position, char expected) {
+        if (byteAt(json, position) != expected) {
+            throw new IllegalArgumentException("Malformed JSON: expected '" + expected + "' at offset " + position);
+        }
+    }
+
+    private static IllegalArgumentException malformed(int position) {
+        return new IllegalArgumentException("Malformed JSON at offset " + position);
+    }
+
+    private static int indexOf(byte[] bytes, String text, int from) {
+        for (int i = from; i <= bytes.length - text.length(); i++) {
+            int j = 0;
+            while (j < text.length() && bytes[i + j] == text.charAt(j)) {
+                j++;
+            }
+            if (j == text.length()) {
+                return i;
+            }
+        }
+        throw new IllegalStateException(text + " not found in template");
+    }
+}
@@ -0,0 +1,197 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates ledger files in parallel. A file is cut into slices at row boundaries, each
+ * slice is parsed into its own {@link VippsLedgerTotals} on a fork/join pool and the
+ * partial totals are merged pairwise on the way back up.
+ *
+ * <p>Slices are cut at line breaks, so reports must not contain line breaks inside
+ * quoted values. Row numbers in parse errors are relative to the slice. Gzip-compressed
+ * files cannot be cut into slices and are aggregated sequentially while decompressing.</p>
+ */
+public class VippsLedgerAggregator {
+    private static final long DEFAULT_SLICE_SIZE = 32L * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    private final ForkJoinPool pool;
+    private final long sliceSize;
+
+    public VippsLedgerAggregator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SLICE_SIZE);
+    }
+
+    public VippsLedgerAggregator(ForkJoinPool pool, long sliceSize) {
+        this.pool = pool;
+        this.sliceSize = sliceSize;
+    }
+
+    /**
+     * Aggregates a single ledger file
+     * @param file the ledger CSV file, optionally gzip-compressed
+     * @return the totals for the file
+     * @throws IOException if an I/O error occurs or the file is malformed
+     */
+    public VippsLedgerTotals aggregate(Path file) throws IOException {
+        // Judged by content like the parser does, so a compressed file without a ".gz" name is not sliced
+        if (VippsCompression.hasCompressedContent(file)) {
+            VippsLedgerTotals totals = new VippsLedgerTotals();
+            try (VippsLedgerParser parser = VippsLedgerParser.open(file)) {
+                parser.forEach(totals::add);
+            }
+            return totals;
+        }
+
+        VippsLedgerColumns columns;
+        try (VippsLedgerParser parser = VippsLedgerParser.open(file)) {
+            columns = parser.getColumns();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = nextRowStart(channel, 0);
+
+            // Cut the data section into slices that each start at a row boundary
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(dataStart);
+            long position = dataStart + sliceSize;
+            while (position < size) {
+                long rowStart = nextRowStart(channel, position);
+                if (rowStart >= size) {
+                    break;
+                }
+                boundaries.add(rowStart);
+                position = rowStart + sliceSize;
+            }
+            boundaries.add(size);
+
+            try {
+                return pool.invoke(new SliceTask(channel, columns, boundaries, 0, boundaries.size() - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Aggregates several ledger files into one set of totals
+     * @param files the ledger CSV files
+     * @return the combined totals
+     * @throws IOException if an I/O error occurs or a file is malformed
+     */
+    public VippsLedgerTotals aggregate(List<Path> files) throws IOException {
+        VippsLedgerTotals totals = new VippsLedgerTotals();
+        for (Path file : files) {
+            totals.merge(aggregate(file));
+        }
+        return totals;
+    }
+
+    /**
+     * Finds the start of the first row that begins after the given position
+     */
+    private static long nextRowStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = position;
+
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    private static final class SliceTask extends RecursiveTask<VippsLedgerTotals> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final VippsLedgerColumns columns;
+        private final List<Long> boundaries;
+        private final int from;
+        private final int to;
+
+        SliceTask(FileChannel channel, VippsLedgerColumns columns, List<Long> boundaries, int from, int to) {
+            this.channel = channel;
+            this.columns = columns;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected VippsLedgerTotals compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                SliceTask left = new SliceTask(channel, columns, boundaries, from, middle);
+                SliceTask right = new SliceTask(channel, columns, boundaries, middle, to);
+                left.fork();
+                VippsLedgerTotals rightTotals = right.compute();
+                return left.join().merge(rightTotals);
+            }
+
+            VippsLedgerTotals totals = new VippsLedgerTotals();
+            long start = boundaries.get(from);
+            long end = boundaries.get(to);
+            try (VippsLedgerParser parser = new VippsLedgerParser(
+                    new SliceInputStream(channel, start, end), columns, start, 0)) {
+                parser.forEach(totals::add);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Reads a byte range of a shared file channel using positional reads
+     */
+    private static final class SliceInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        SliceInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int count = (int) Math.min(length, end - position);
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, count), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+}
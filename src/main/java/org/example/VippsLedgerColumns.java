@@ -0,0 +1,124 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Maps the columns of a ledger CSV header to the fields the parser understands.
+ * Column names are matched ignoring case and punctuation, so "entryType", "entry_type"
+ * and "Entry Type" are the same column. Unknown columns are kept in the raw row only.
+ */
+public final class VippsLedgerColumns {
+    private final String[] names;
+    private final byte delimiter;
+    private final int amount;
+    private final int time;
+    private final int ledgerDate;
+    private final int entryType;
+    private final int currency;
+    private final int reference;
+    private final int pspReference;
+    private final int payoutId;
+
+    private VippsLedgerColumns(String[] names, byte delimiter) {
+        this.names = names;
+        this.delimiter = delimiter;
+        this.amount = find("amount");
+        this.time = find("time", "timestamp", "createdat");
+        this.ledgerDate = find("ledgerdate", "date");
+        this.entryType = find("entrytype", "type");
+        this.currency = find("currency");
+        this.reference = find("reference", "orderid", "orderreference");
+        this.pspReference = find("pspreference");
+        this.payoutId = find("payoutid", "payoutreference", "settlementid");
+    }
+
+    /**
+     * Resolves the columns of a header row
+     * @param names the header values in column order
+     * @param delimiter the field delimiter used by the file
+     * @return the resolved columns
+     */
+    public static VippsLedgerColumns fromHeader(String[] names, byte delimiter) {
+        return new VippsLedgerColumns(names.clone(), delimiter);
+    }
+
+    private int find(String... aliases) {
+        for (String alias : aliases) {
+            for (int i = 0; i < names.length; i++) {
+                if (normalize(names[i]).equals(alias)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String normalize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public byte getDelimiter() {
+        return delimiter;
+    }
+
+    /** @return the index of the amount column, or -1 if the report has none */
+    public int getAmount() {
+        return amount;
+    }
+
+    /** @return the index of the timestamp column, or -1 if the report has none */
+    public int getTime() {
+        return time;
+    }
+
+    /** @return the index of the ledger date column, or -1 if the report has none */
+    public int getLedgerDate() {
+        return ledgerDate;
+    }
+
+    /** @return the index of the entry type column, or -1 if the report has none */
+    public int getEntryType() {
+        return entryType;
+    }
+
+    /** @return the index of the currency column, or -1 if the report has none */
+    public int getCurrency() {
+        return currency;
+    }
+
+    /** @return the index of the order reference column, or -1 if the report has none */
+    public int getReference() {
+        return reference;
+    }
+
+    /** @return the index of the PSP reference column, or -1 if the report has none */
+    public int getPspReference() {
+        return pspReference;
+    }
+
+    /** @return the index of the payout ID column, or -1 if the report has none */
+    public int getPayoutId() {
+        return payoutId;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+/**
+ * Type of a ledger entry. Values are matched against the entry type column by prefix,
+ * ignoring case, so variants such as "payout-scheduled" map to {@link #PAYOUT}.
+ */
+public enum VippsLedgerEntryType {
+    CAPTURE("capture"),
+    REFUND("refund"),
+    FEE("fee"),
+    PAYOUT("payout"),
+    ADJUSTMENT("adjust"),
+    OTHER("");
+
+    private static final VippsLedgerEntryType[] VALUES = values();
+
+    private final byte[] prefix;
+
+    VippsLedgerEntryType(String prefix) {
+        this.prefix = prefix.getBytes();
+    }
+
+    /**
+     * Looks up the entry type for a raw column value without allocating
+     * @param bytes the buffer holding the value
+     * @param offset the offset of the value in the buffer
+     * @param length the length of the value in bytes
+     * @return the matching entry type, or {@link #OTHER} if none matches
+     */
+    public static VippsLedgerEntryType of(byte[] bytes, int offset, int length) {
+        for (VippsLedgerEntryType type : VALUES) {
+            if (type != OTHER && type.matches(bytes, offset, length)) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Looks up the entry type for a value
+     * @param value the entry type as written in the report
+     * @return the matching entry type, or {@link #OTHER} if none matches
+     */
+    public static VippsLedgerEntryType of(CharSequence value) {
+        byte[] bytes = value.toString().getBytes();
+        return of(bytes, 0, bytes.length);
+    }
+
+    private boolean matches(byte[] bytes, int offset, int length) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            int b = bytes[offset + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a single CSV value inside the parser's byte buffer. The view is
+ * repointed for every row, so its contents are only valid until the parser advances.
+ * Values are UTF-8; non-ASCII values are decoded on demand when used as characters.
+ */
+public final class VippsLedgerField implements CharSequence {
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] bytes = EMPTY;
+    private int offset;
+    private int length;
+    private String decoded;
+    // 0 = not checked yet, 1 = ASCII only, 2 = contains multi-byte characters
+    private int ascii;
+
+    void set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.decoded = null;
+        this.ascii = 0;
+    }
+
+    void clear() {
+        set(EMPTY, 0, 0);
+    }
+
+    /**
+     * @return the buffer holding the value; only the range given by {@link #byteOffset()}
+     * and {@link #byteLength()} belongs to this value
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int byteOffset() {
+        return offset;
+    }
+
+    public int byteLength() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Writes the raw value bytes to a stream without decoding them
+     * @param output the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(bytes, offset, length);
+    }
+
+    /**
+     * Compares the value with another sequence without allocating when both are ASCII
+     * @param other the sequence to compare with
+     * @return true if the contents are equal
+     */
+    public boolean contentEquals(CharSequence other) {
+        if (!isAscii()) {
+            return toString().contentEquals(other);
+        }
+        if (other.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return isAscii() ? length : decoded().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (isAscii()) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (char) bytes[offset + index];
+        }
+        return decoded().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return decoded();
+    }
+
+    private boolean isAscii() {
+        if (ascii == 0) {
+            ascii = 1;
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] < 0) {
+                    ascii = 2;
+                    break;
+                }
+            }
+        }
+        return ascii == 1;
+    }
+
+    private String decoded() {
+        if (decoded == null) {
+            decoded = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        return decoded;
+    }
+}
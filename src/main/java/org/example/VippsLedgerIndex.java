@@ -0,0 +1,625 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * On-disk index from payout IDs and order references to the ledger rows that contain them.
+ *
+ * <p>Each update writes an immutable segment of fixed-width entries sorted by key hash:
+ * {@code long hash, int fileId, byte keyType, 3 bytes padding, long rowOffset}. Lookups
+ * binary-search every memory-mapped segment and confirm each candidate by reading the row
+ * at its offset, so hash collisions never produce wrong answers. Files that grow are
+ * indexed from where the previous update stopped; files that shrink are re-indexed.
+ * Segments are compacted once there are more than {@value #MAX_SEGMENTS}.</p>
+ *
+ * <p>Only uncompressed CSV files can be indexed, since offsets point into the file.</p>
+ */
+public class VippsLedgerIndex implements Closeable {
+    /**
+     * The kind of key an index entry was built from
+     */
+    public enum KeyType {
+        PAYOUT,
+        REFERENCE
+    }
+
+    private static final String DEFAULT_DIRECTORY = "vipps_ledger_index";
+    private static final String FILES_INDEX = "files.properties";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final int SEGMENT_MAGIC = 0x31494C56; // "VLI1"
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 24;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int ROW_READ_SIZE = 4 * 1024;
+
+    private final Path directory;
+    private final Properties files = new Properties();
+    private final Map<Integer, VippsLedgerColumns> columnsByFile = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSegmentNumber;
+
+    public VippsLedgerIndex() throws IOException {
+        this(Path.of(DEFAULT_DIRECTORY));
+    }
+
+    public VippsLedgerIndex(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        Path filesIndex = directory.resolve(FILES_INDEX);
+        if (Files.exists(filesIndex)) {
+            try (InputStream input = Files.newInputStream(filesIndex)) {
+                files.load(input);
+            }
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segmentFile : stream) {
+                segments.add(new Segment(segmentFile));
+            }
+        }
+        segments.sort(Comparator.comparingLong(segment -> segment.number));
+        for (Segment segment : segments) {
+            nextSegmentNumber = Math.max(nextSegmentNumber, segment.number + 1);
+        }
+    }
+
+    /**
+     * Indexes every CSV file in a directory that is new or has grown since the last update
+     * @param reportDirectory the directory holding the ledger files
+     * @return the number of rows added to the index
+     * @throws IOException if an I/O error occurs or a file is malformed
+     */
+    public long updateDirectory(Path reportDirectory) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(reportDirectory, "*.csv")) {
+            for (Path report : stream) {
+                reports.add(report);
+            }
+        }
+        reports.sort(Comparator.naturalOrder());
+        return update(reports);
+    }
+
+    /**
+     * Indexes the given files, skipping files that have not changed since the last update
+     * and gzip-compressed files
+     * @param reports the ledger files to index
+     * @return the number of rows added to the index
+     * @throws IOException if an I/O error occurs or a file is malformed
+     */
+    public synchronized long update(List<Path> reports) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long rows = 0;
+
+        for (Path report : reports) {
+            rows += indexFile(report.toAbsolutePath().normalize(), entries);
+        }
+
+        addSegment(entries);
+        return rows;
+    }
+
+    /**
+     * Starts indexing a report from rows supplied as they are parsed, for example by a
+     * {@link VippsIndexSink} while the report is downloaded, so the file is not read again.
+     * The row offsets must be positions in the file as stored, which holds for plain CSV files.
+     * @param report the ledger file the rows belong to
+     * @return the writer; nothing is visible in the index until it is committed
+     */
+    public Writer writer(Path report) {
+        return new Writer(report.toAbsolutePath().normalize(), -1);
+    }
+
+    /**
+     * Starts indexing rows that are appended to a ledger file, like {@link #writer(Path)}.
+     * The row offsets must be positions in the file after the append.
+     * @param report the ledger file the rows are appended to
+     * @param indexedSize the size of the file before the append
+     * @return the writer; on commit the rows are added to the entries of the file if the
+     *         index covers exactly the given size of it, and the whole file is indexed again otherwise
+     */
+    public Writer appendWriter(Path report, long indexedSize) {
+        return new Writer(report.toAbsolutePath().normalize(), indexedSize);
+    }
+
+    /**
+     * Finds all ledger rows containing a key
+     * @param keyType whether the key is a payout ID or an order reference
+     * @param key the payout ID or order reference
+     * @return the matching rows, in no particular order; indexed files that have been
+     * deleted are skipped and removed from the index
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized List<Match> lookup(KeyType keyType, String key) throws IOException {
+        long hash = hash(keyType, key);
+        List<Match> matches = new ArrayList<>();
+        boolean filesRemoved = false;
+
+        for (Segment segment : segments) {
+            for (int i = segment.lowerBound(hash); i < segment.count && segment.hash(i) == hash; i++) {
+                if (segment.keyType(i) != keyType.ordinal()) {
+                    continue;
+                }
+                int fileId = segment.fileId(i);
+                String path = files.getProperty("file." + fileId + ".path");
+                if (path == null) {
+                    // The file was re-indexed under a new ID, or has been deleted
+                    continue;
+                }
+                VippsLedgerRecord record;
+                try {
+                    record = readRow(fileId, Path.of(path), segment.rowOffset(i));
+                } catch (NoSuchFileException e) {
+                    // Forget the deleted file; its entries are dropped by the next compaction
+                    System.err.println("Ledger file " + path + " no longer exists, removing it from the index");
+                    removeFile(Integer.toString(fileId));
+                    filesRemoved = true;
+                    continue;
+                }
+                if (record != null && key.contentEquals(keyType == KeyType.PAYOUT ? record.getPayoutId() : record.getReference())) {
+                    matches.add(new Match(Path.of(path), record.getRowOffset(), record.getRow().toString()));
+                }
+            }
+        }
+
+        if (filesRemoved) {
+            saveFiles();
+        }
+        return matches;
+    }
+
+    @Override
+    public synchronized void close() {
+        segments.clear();
+        columnsByFile.clear();
+    }
+
+    private long indexFile(Path report, List<Entry> entries) throws IOException {
+        if (VippsCompression.isCompressed(report)) {
+            // Row offsets are file positions, which cannot be read directly in a gzip file
+            System.err.println("Skipping compressed ledger file " + report + ", only plain CSV files can be indexed");
+            return 0;
+        }
+        String fileId = fileIdFor(report);
+        long size = Files.size(report);
+        long indexedSize = fileId != null ? Long.parseLong(files.getProperty("file." + fileId + ".size")) : -1;
+
+        if (fileId != null && size == indexedSize) {
+            return 0;
+        }
+        if (fileId != null && size < indexedSize) {
+            // The file was replaced; forget its old entries by dropping its ID
+            removeFile(fileId);
+            fileId = null;
+        }
+        if (fileId == null) {
+            fileId = registerFile(report);
+            indexedSize = 0;
+        }
+
+        int id = Integer.parseInt(fileId);
+        long rows;
+        try (VippsLedgerParser headerParser = VippsLedgerParser.open(report)) {
+            VippsLedgerColumns columns = headerParser.getColumns();
+            columnsByFile.put(id, columns);
+
+            // Continue after the rows indexed by the previous update
+            VippsLedgerParser parser = indexedSize == 0 ? headerParser : openAt(report, columns, indexedSize);
+            rows = indexRows(parser, id, size, entries);
+        }
+
+        files.setProperty("file." + fileId + ".size", Long.toString(size));
+        return rows;
+    }
+
+    private VippsLedgerParser openAt(Path report, VippsLedgerColumns columns, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(report, StandardOpenOption.READ);
+        channel.position(offset);
+        return new VippsLedgerParser(Channels.newInputStream(channel), columns, offset, 0);
+    }
+
+    private long indexRows(VippsLedgerParser parser, int fileId, long size, List<Entry> entries) throws IOException {
+        long[] rows = new long[1];
+        try (parser) {
+            parser.forEach(record -> {
+                // Rows appended while indexing are picked up by the next update
+                if (record.getRowOffset() >= size) {
+                    return;
+                }
+                rows[0]++;
+                if (record.getPayoutId().length() > 0) {
+                    entries.add(new Entry(hash(KeyType.PAYOUT, record.getPayoutId()), fileId,
+                            KeyType.PAYOUT.ordinal(), record.getRowOffset()));
+                }
+                if (record.getReference().length() > 0) {
+                    entries.add(new Entry(hash(KeyType.REFERENCE, record.getReference()), fileId,
+                            KeyType.REFERENCE.ordinal(), record.getRowOffset()));
+                }
+            });
+        }
+        return rows[0];
+    }
+
+    private VippsLedgerRecord readRow(int fileId, Path report, long offset) throws IOException {
+        VippsLedgerColumns columns = columnsByFile.get(fileId);
+        if (columns == null) {
+            try (VippsLedgerParser parser = VippsLedgerParser.open(report)) {
+                columns = parser.getColumns();
+            }
+            columnsByFile.put(fileId, columns);
+        }
+
+        // Read forward from the offset until the end of the row
+        byte[] row = new byte[0];
+        try (FileChannel channel = FileChannel.open(report, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(ROW_READ_SIZE);
+            long position = offset;
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                int length = newline >= 0 ? newline + 1 : read;
+                row = Arrays.copyOf(row, row.length + length);
+                buffer.get(0, row, row.length - length, length);
+                if (newline >= 0) {
+                    break;
+                }
+                position += read;
+            }
+        }
+
+        VippsLedgerParser parser = new VippsLedgerParser(new ByteArrayInputStream(row), columns, offset, 0);
+        return parser.next() ? parser.getRecord() : null;
+    }
+
+    private String fileIdFor(Path report) {
+        for (String name : files.stringPropertyNames()) {
+            if (name.endsWith(".path") && files.getProperty(name).equals(report.toString())) {
+                return name.substring("file.".length(), name.length() - ".path".length());
+            }
+        }
+        return null;
+    }
+
+    private String registerFile(Path report) {
+        int nextId = Integer.parseInt(files.getProperty("nextFileId", "0"));
+        files.setProperty("nextFileId", Integer.toString(nextId + 1));
+        files.setProperty("file." + nextId + ".path", report.toString());
+        files.setProperty("file." + nextId + ".size", "0");
+        return Integer.toString(nextId);
+    }
+
+    private void removeFile(String fileId) {
+        files.remove("file." + fileId + ".path");
+        files.remove("file." + fileId + ".size");
+        columnsByFile.remove(Integer.parseInt(fileId));
+    }
+
+    /**
+     * Merges all segments into one, dropping entries of files that are no longer indexed
+     */
+    private void compact() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Segment segment : segments) {
+            for (int i = 0; i < segment.count; i++) {
+                if (files.getProperty("file." + segment.fileId(i) + ".path") != null) {
+                    entries.add(new Entry(segment.hash(i), segment.fileId(i), segment.keyType(i), segment.rowOffset(i)));
+                }
+            }
+        }
+        entries.sort(Entry.ORDER);
+
+        List<Segment> oldSegments = new ArrayList<>(segments);
+        Path segmentFile = nextSegmentFile();
+        writeSegment(segmentFile, entries);
+
+        segments.clear();
+        segments.add(new Segment(segmentFile));
+        for (Segment segment : oldSegments) {
+            Files.deleteIfExists(segment.file);
+        }
+    }
+
+    /**
+     * Writes entries as a new segment, saves the file list and compacts if needed
+     */
+    private void addSegment(List<Entry> entries) throws IOException {
+        if (!entries.isEmpty()) {
+            entries.sort(Entry.ORDER);
+            Path segmentFile = nextSegmentFile();
+            writeSegment(segmentFile, entries);
+            segments.add(new Segment(segmentFile));
+        }
+        saveFiles();
+
+        if (segments.size() > MAX_SEGMENTS) {
+            compact();
+        }
+    }
+
+    private Path nextSegmentFile() {
+        return directory.resolve(SEGMENT_PREFIX + nextSegmentNumber++ + SEGMENT_SUFFIX);
+    }
+
+    private void writeSegment(Path segmentFile, List<Entry> entries) throws IOException {
+        Path tempFile = Files.createTempFile(directory, SEGMENT_PREFIX, ".part");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(SEGMENT_MAGIC).putInt(0).putLong(entries.size());
+
+                for (Entry entry : entries) {
+                    if (buffer.remaining() < ENTRY_SIZE) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putLong(entry.hash).putInt(entry.fileId).put((byte) entry.keyType)
+                            .put((byte) 0).put((byte) 0).put((byte) 0).putLong(entry.rowOffset);
+                }
+                flush(channel, buffer);
+                channel.force(false);
+            }
+            Files.move(tempFile, segmentFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void saveFiles() throws IOException {
+        Path filesIndex = directory.resolve(FILES_INDEX);
+        Path tempFile = Files.createTempFile(directory, FILES_INDEX, ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                files.store(output, "Vipps ledger index files");
+            }
+            Files.move(tempFile, filesIndex, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash over the key type and the characters of the key
+     */
+    private static long hash(KeyType keyType, CharSequence key) {
+        long hash = 0xcbf29ce484222325L ^ keyType.ordinal();
+        hash *= 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Collects the index keys of one report as its rows are parsed. Keys are kept in
+     * primitive arrays until {@link #commit()} assigns the file ID and writes the segment.
+     */
+    public final class Writer {
+        private final Path report;
+        private final long appendedAfter;
+        private long[] hashes = new long[1024];
+        private byte[] keyTypes = new byte[1024];
+        private long[] rowOffsets = new long[1024];
+        private int size;
+        private long rows;
+
+        private Writer(Path report, long appendedAfter) {
+            this.report = report;
+            this.appendedAfter = appendedAfter;
+        }
+
+        /**
+         * Adds the payout ID and order reference of a row
+         * @param record the parsed row
+         */
+        public void add(VippsLedgerRecord record) {
+            rows++;
+            if (record.getPayoutId().length() > 0) {
+                addKey(hash(KeyType.PAYOUT, record.getPayoutId()), KeyType.PAYOUT, record.getRowOffset());
+            }
+            if (record.getReference().length() > 0) {
+                addKey(hash(KeyType.REFERENCE, record.getReference()), KeyType.REFERENCE, record.getRowOffset());
+            }
+        }
+
+        /**
+         * Adds the collected keys to the index, replacing any earlier entries of the report
+         * unless the rows were appended to it
+         * @return the number of rows added
+         * @throws IOException if the report does not exist or the index cannot be written
+         */
+        public long commit() throws IOException {
+            synchronized (VippsLedgerIndex.this) {
+                long fileSize = Files.size(report);
+                String fileId = fileIdFor(report);
+                if (appendedAfter >= 0) {
+                    long indexedSize = fileId != null ? Long.parseLong(files.getProperty("file." + fileId + ".size")) : -1;
+                    if (indexedSize != appendedAfter) {
+                        // The entries do not end where the appended rows start, so they cannot be extended
+                        if (fileId != null) {
+                            removeFile(fileId);
+                        }
+                        return update(List.of(report));
+                    }
+                } else if (fileId != null) {
+                    removeFile(fileId);
+                    fileId = null;
+                }
+                if (fileId == null) {
+                    fileId = registerFile(report);
+                }
+                int id = Integer.parseInt(fileId);
+
+                List<Entry> entries = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    entries.add(new Entry(hashes[i], id, keyTypes[i], rowOffsets[i]));
+                }
+                files.setProperty("file." + fileId + ".size", Long.toString(fileSize));
+                addSegment(entries);
+                return rows;
+            }
+        }
+
+        private void addKey(long hash, KeyType keyType, long rowOffset) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                keyTypes = Arrays.copyOf(keyTypes, size * 2);
+                rowOffsets = Arrays.copyOf(rowOffsets, size * 2);
+            }
+            hashes[size] = hash;
+            keyTypes[size] = (byte) keyType.ordinal();
+            rowOffsets[size] = rowOffset;
+            size++;
+        }
+    }
+
+    /**
+     * A ledger row found by a lookup
+     */
+    public static final class Match {
+        private final Path file;
+        private final long rowOffset;
+        private final String row;
+
+        Match(Path file, long rowOffset, String row) {
+            this.file = file;
+            this.rowOffset = rowOffset;
+            this.row = row;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getRowOffset() {
+            return rowOffset;
+        }
+
+        public String getRow() {
+            return row;
+        }
+
+        @Override
+        public String toString() {
+            return file + "@" + rowOffset + ": " + row;
+        }
+    }
+
+    private static final class Entry {
+        static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(entry -> entry.hash)
+                .thenComparingInt(entry -> entry.fileId)
+                .thenComparingLong(entry -> entry.rowOffset);
+
+        final long hash;
+        final int fileId;
+        final int keyType;
+        final long rowOffset;
+
+        Entry(long hash, int fileId, int keyType, long rowOffset) {
+            this.hash = hash;
+            this.fileId = fileId;
+            this.keyType = keyType;
+            this.rowOffset = rowOffset;
+        }
+    }
+
+    /**
+     * A memory-mapped, immutable index segment
+     */
+    private static final class Segment {
+        final Path file;
+        final long number;
+        final MappedByteBuffer buffer;
+        final int count;
+
+        Segment(Path file) throws IOException {
+            this.file = file;
+            String name = file.getFileName().toString();
+            this.number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException(file + " is not a ledger index segment");
+            }
+            this.count = (int) buffer.getLong(8);
+        }
+
+        long hash(int i) {
+            return buffer.getLong(SEGMENT_HEADER_SIZE + i * ENTRY_SIZE);
+        }
+
+        int fileId(int i) {
+            return buffer.getInt(SEGMENT_HEADER_SIZE + i * ENTRY_SIZE + 8);
+        }
+
+        int keyType(int i) {
+            return buffer.get(SEGMENT_HEADER_SIZE + i * ENTRY_SIZE + 12);
+        }
+
+        long rowOffset(int i) {
+            return buffer.getLong(SEGMENT_HEADER_SIZE + i * ENTRY_SIZE + 16);
+        }
+
+        /**
+         * @return the first entry whose hash is not less than the given hash
+         */
+        int lowerBound(long hash) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (hash(middle) < hash) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming parser for ledger report CSV files.
+ *
+ * <p>Rows are scanned directly in a byte buffer and exposed through a single reused
+ * {@link VippsLedgerRecord} whose text values are views into that buffer, so parsing
+ * allocates almost nothing per row. Amounts are converted to minor units, times to epoch
+ * milliseconds and entry types to {@link VippsLedgerEntryType}.</p>
+ *
+ * <p>Amounts are read as decimal values in major units ("123.45" or "123,45") and
+ * stored as minor units; currencies with more than two decimals are not supported.
+ * Quoted values (RFC 4180) and comma, semicolon or tab delimiters are supported.</p>
+ */
+public class VippsLedgerParser implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ROW_SIZE = 16 * 1024 * 1024;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final InputStream input;
+    private final VippsLedgerField currency = new VippsLedgerField();
+    private final VippsLedgerField reference = new VippsLedgerField();
+    private final VippsLedgerField pspReference = new VippsLedgerField();
+    private final VippsLedgerField payoutId = new VippsLedgerField();
+    private final VippsLedgerField row = new VippsLedgerField();
+    private final VippsLedgerRecord record = new VippsLedgerRecord(currency, reference, pspReference, payoutId, row);
+    private final VippsLedgerColumns columns;
+    private final byte delimiter;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private long bufferOffset;
+    private long lineNumber;
+
+    private int rowStart;
+    private int rowEnd;
+    private int fieldCount;
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldEscaped = new boolean[32];
+    private byte[] scratch = new byte[256];
+    private int scratchPosition;
+
+    /**
+     * Creates a parser that reads the header row from the stream
+     * @param input the stream to parse; closed when the parser is closed
+     * @throws IOException if the header cannot be read
+     */
+    public VippsLedgerParser(InputStream input) throws IOException {
+        this.input = input;
+        skipByteOrderMark();
+        this.delimiter = detectDelimiter();
+        if (!readRow()) {
+            throw new IOException("Ledger report is empty");
+        }
+
+        String[] names = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            names[i] = fieldToString(i);
+        }
+        this.columns = VippsLedgerColumns.fromHeader(names, delimiter);
+    }
+
+    /**
+     * Creates a parser for a stream that starts at a row boundary after the header,
+     * used to parse a slice of a larger file
+     * @param input the stream to parse; closed when the parser is closed
+     * @param columns the columns resolved from the file header
+     * @param startOffset the byte offset of the stream start within the file
+     * @param startLine the row number of the first row in the stream, minus one
+     */
+    public VippsLedgerParser(InputStream input, VippsLedgerColumns columns, long startOffset, long startLine) {
+        this.input = input;
+        this.columns = columns;
+        this.delimiter = columns.getDelimiter();
+        this.bufferOffset = startOffset;
+        this.lineNumber = startLine;
+    }
+
+    /**
+     * Opens a parser for a ledger file. Gzip-compressed files are decompressed while parsing.
+     * @param file the file to parse
+     * @return the parser
+     * @throws IOException if the file cannot be opened or has no header
+     */
+    public static VippsLedgerParser open(Path file) throws IOException {
+        InputStream input = VippsCompression.openInput(file);
+        try {
+            return new VippsLedgerParser(input);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public VippsLedgerColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * Advances to the next row
+     * @return true if a row was read, false at the end of the input
+     * @throws IOException if an I/O error occurs or the row is malformed
+     */
+    public boolean next() throws IOException {
+        if (!readRow()) {
+            return false;
+        }
+        populateRecord();
+        return true;
+    }
+
+    /**
+     * @return the current row; reused for every row
+     */
+    public VippsLedgerRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Passes every remaining row to a visitor. This is the fastest way to consume a report.
+     * @param visitor the visitor to call for each row
+     * @return the number of rows visited
+     * @throws IOException if an I/O error occurs or a row is malformed
+     */
+    public long forEach(VippsLedgerVisitor visitor) throws IOException {
+        long count = 0;
+        while (next()) {
+            visitor.visit(record);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the remaining rows. Every returned record is a detached copy.
+     * @return the iterator
+     */
+    public Iterator<VippsLedgerRecord> iterator() {
+        return new Iterator<>() {
+            private VippsLedgerRecord nextRecord;
+
+            @Override
+            public boolean hasNext() {
+                if (nextRecord == null) {
+                    try {
+                        if (VippsLedgerParser.this.next()) {
+                            nextRecord = record.copy();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return nextRecord != null;
+            }
+
+            @Override
+            public VippsLedgerRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                VippsLedgerRecord current = nextRecord;
+                nextRecord = null;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Returns a sequential stream over the remaining rows. Every element is a detached copy.
+     * Closing the stream closes the parser.
+     * @return the stream
+     */
+    public Stream<VippsLedgerRecord> stream() {
+        Spliterator<VippsLedgerRecord> spliterator = Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private void populateRecord() throws IOException {
+        prepareScratch();
+
+        setField(currency, columns.getCurrency());
+        setField(reference, columns.getReference());
+        setField(pspReference, columns.getPspReference());
+        setField(payoutId, columns.getPayoutId());
+        row.set(buffer, rowStart, rowEnd - rowStart);
+
+        long amountMinor = 0;
+        int amountColumn = columns.getAmount();
+        if (amountColumn >= 0 && amountColumn < fieldCount) {
+            amountMinor = parseMinorUnits(buffer, fieldStarts[amountColumn], fieldEnds[amountColumn]);
+        }
+
+        long timestampMillis = 0;
+        boolean timed = false;
+        int timeColumn = columns.getTime();
+        if (timeColumn >= 0 && timeColumn < fieldCount) {
+            timestampMillis = parseTimestamp(buffer, fieldStarts[timeColumn], fieldEnds[timeColumn]);
+            timed = fieldEnds[timeColumn] > fieldStarts[timeColumn];
+        }
+        boolean dated = timed;
+
+        long ledgerEpochDay = Math.floorDiv(timestampMillis, MILLIS_PER_DAY);
+        int dateColumn = columns.getLedgerDate();
+        if (dateColumn >= 0 && dateColumn < fieldCount && fieldEnds[dateColumn] - fieldStarts[dateColumn] >= 10) {
+            ledgerEpochDay = parseEpochDay(buffer, fieldStarts[dateColumn]);
+            dated = true;
+        }
+
+        VippsLedgerEntryType entryType = VippsLedgerEntryType.OTHER;
+        int typeColumn = columns.getEntryType();
+        if (typeColumn >= 0 && typeColumn < fieldCount) {
+            entryType = VippsLedgerEntryType.of(buffer, fieldStarts[typeColumn],
+                    fieldEnds[typeColumn] - fieldStarts[typeColumn]);
+        }
+
+        record.setValues(amountMinor, timestampMillis, timed, ledgerEpochDay, dated, entryType,
+                bufferOffset + rowStart, lineNumber);
+    }
+
+    private void setField(VippsLedgerField field, int column) {
+        if (column < 0 || column >= fieldCount) {
+            field.clear();
+            return;
+        }
+
+        int start = fieldStarts[column];
+        int end = fieldEnds[column];
+        if (!fieldEscaped[column]) {
+            field.set(buffer, start, end - start);
+            return;
+        }
+
+        // Collapse doubled quotes into the scratch buffer
+        int scratchStart = scratchPosition;
+        for (int i = start; i < end; i++) {
+            scratch[scratchPosition++] = buffer[i];
+            if (buffer[i] == '"') {
+                i++;
+            }
+        }
+        field.set(scratch, scratchStart, scratchPosition - scratchStart);
+    }
+
+    private void prepareScratch() {
+        int required = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            if (fieldEscaped[i]) {
+                required += fieldEnds[i] - fieldStarts[i];
+            }
+        }
+        if (required > scratch.length) {
+            scratch = new byte[Math.max(required, scratch.length * 2)];
+        }
+        scratchPosition = 0;
+    }
+
+    private String fieldToString(int index) {
+        String value = new String(buffer, fieldStarts[index], fieldEnds[index] - fieldStarts[index],
+                StandardCharsets.UTF_8);
+        return fieldEscaped[index] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Reads the next non-empty row into the field arrays
+     */
+    private boolean readRow() throws IOException {
+        while (true) {
+            if (position >= limit) {
+                if (!fill()) {
+                    return false;
+                }
+                continue;
+            }
+
+            int rowEndPosition = scanRow(position);
+            if (rowEndPosition < 0) {
+                // The row continues past the end of the buffer
+                if (!fill()) {
+                    rowEndPosition = scanRow(position);
+                    if (rowEndPosition < 0) {
+                        throw new IOException("Incomplete row at line " + (lineNumber + 1));
+                    }
+                } else {
+                    continue;
+                }
+            }
+
+            position = rowEndPosition;
+            lineNumber++;
+            if (rowEnd > rowStart) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Scans one row starting at the given buffer position
+     * @return the position after the row terminator, or -1 if more input is needed
+     */
+    private int scanRow(int start) throws IOException {
+        int p = start;
+        fieldCount = 0;
+
+        while (true) {
+            if (p >= limit) {
+                if (!endOfInput) {
+                    return -1;
+                }
+                addField(p, p, false);
+                return endRow(start, p, p);
+            }
+
+            if (buffer[p] == '"') {
+                int q = p + 1;
+                boolean escaped = false;
+                while (true) {
+                    if (q >= limit) {
+                        if (!endOfInput) {
+                            return -1;
+                        }
+                        throw new IOException("Unterminated quoted value at line " + (lineNumber + 1));
+                    }
+                    if (buffer[q] == '"') {
+                        if (q + 1 >= limit && !endOfInput) {
+                            return -1;
+                        }
+                        if (q + 1 < limit && buffer[q + 1] == '"') {
+                            escaped = true;
+                            q += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    q++;
+                }
+                addField(p + 1, q, escaped);
+                p = q + 1;
+            } else {
+                int q = p;
+                while (q < limit) {
+                    byte b = buffer[q];
+                    if (b == delimiter || b == '\n' || b == '\r') {
+                        break;
+                    }
+                    q++;
+                }
+                if (q >= limit && !endOfInput) {
+                    return -1;
+                }
+                addField(p, q, false);
+                p = q;
+            }
+
+            if (p >= limit) {
+                return endRow(start, p, p);
+            }
+
+            byte b = buffer[p];
+            if (b == delimiter) {
+                p++;
+            } else if (b == '\n') {
+                return endRow(start, p, p + 1);
+            } else if (b == '\r') {
+                if (p + 1 >= limit && !endOfInput) {
+                    return -1;
+                }
+                return endRow(start, p, p + 1 < limit && buffer[p + 1] == '\n' ? p + 2 : p + 1);
+            } else {
+                throw new IOException("Unexpected character after quoted value at line " + (lineNumber + 1));
+            }
+        }
+    }
+
+    private int endRow(int start, int end, int next) {
+        rowStart = start;
+        rowEnd = end;
+        // A blank line is a single empty value
+        if (fieldCount == 1 && fieldStarts[0] == fieldEnds[0] && start == end) {
+            fieldCount = 0;
+        }
+        return next;
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if (fieldCount == fieldStarts.length) {
+            int size = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, size);
+            fieldEnds = Arrays.copyOf(fieldEnds, size);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, size);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    /**
+     * Moves unread data to the start of the buffer and reads more input
+     * @return false if the end of the input was reached and nothing was read
+     */
+    private boolean fill() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+
+        if (limit == buffer.length) {
+            if (buffer.length >= MAX_ROW_SIZE) {
+                throw new IOException("Row at line " + (lineNumber + 1) + " exceeds " + MAX_ROW_SIZE + " bytes");
+            }
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        while (limit < 3 && fill()) {
+            // Read until the first three bytes are available
+        }
+        if (limit >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) {
+            position = 3;
+        }
+    }
+
+    /**
+     * Picks the most frequent of comma, semicolon and tab in the header line
+     */
+    private byte detectDelimiter() throws IOException {
+        int newline;
+        while ((newline = indexOf((byte) '\n', position)) < 0 && fill()) {
+            // Read until the whole header line is available
+        }
+        int end = newline >= 0 ? newline : limit;
+
+        int commas = 0;
+        int semicolons = 0;
+        int tabs = 0;
+        for (int i = position; i < end; i++) {
+            switch (buffer[i]) {
+                case ',':
+                    commas++;
+                    break;
+                case ';':
+                    semicolons++;
+                    break;
+                case '\t':
+                    tabs++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (semicolons > commas && semicolons >= tabs) {
+            return ';';
+        }
+        if (tabs > commas) {
+            return '\t';
+        }
+        return ',';
+    }
+
+    private int indexOf(byte value, int from) {
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long parseMinorUnits(byte[] bytes, int start, int end) throws IOException {
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return 0;
+        }
+
+        boolean negative = false;
+        if (bytes[start] == '-' || bytes[start] == '+') {
+            negative = bytes[start] == '-';
+            start++;
+        }
+
+        long whole = 0;
+        long fraction = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (fractionDigits < 0) {
+                    whole = whole * 10 + (b - '0');
+                } else if (fractionDigits < 2) {
+                    fraction = fraction * 10 + (b - '0');
+                    fractionDigits++;
+                } else if (b != '0') {
+                    throw invalidValue("amount", bytes, start, end);
+                }
+            } else if ((b == '.' || b == ',') && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                throw invalidValue("amount", bytes, start, end);
+            }
+        }
+
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long minorUnits = whole * 100 + fraction;
+        return negative ? -minorUnits : minorUnits;
+    }
+
+    /**
+     * Parses an ISO-8601 date or date-time such as "2024-01-31", "2024-01-31T10:15:30Z"
+     * or "2024-01-31 10:15:30.123+01:00". Times without an offset are taken as UTC.
+     */
+    private long parseTimestamp(byte[] bytes, int start, int end) throws IOException {
+        if (end - start == 0) {
+            return 0;
+        }
+        if (end - start < 10) {
+            throw invalidValue("time", bytes, start, end);
+        }
+
+        long millis = parseEpochDay(bytes, start) * MILLIS_PER_DAY;
+        int p = start + 10;
+        if (p >= end) {
+            return millis;
+        }
+        if ((bytes[p] != 'T' && bytes[p] != ' ') || end - p < 9) {
+            throw invalidValue("time", bytes, start, end);
+        }
+
+        millis += digits(bytes, p + 1, 2) * 3_600_000L
+                + digits(bytes, p + 4, 2) * 60_000L
+                + digits(bytes, p + 7, 2) * 1_000L;
+        p += 9;
+
+        if (p < end && bytes[p] == '.') {
+            p++;
+            int scale = 100;
+            while (p < end && bytes[p] >= '0' && bytes[p] <= '9') {
+                millis += (bytes[p] - '0') * scale;
+                scale /= 10;
+                p++;
+            }
+        }
+
+        if (p < end && (bytes[p] == '+' || bytes[p] == '-')) {
+            if (end - p < 6) {
+                throw invalidValue("time", bytes, start, end);
+            }
+            long offset = digits(bytes, p + 1, 2) * 3_600_000L + digits(bytes, p + 4, 2) * 60_000L;
+            millis += bytes[p] == '+' ? -offset : offset;
+        } else if (p < end && bytes[p] != 'Z') {
+            throw invalidValue("time", bytes, start, end);
+        }
+
+        return millis;
+    }
+
+    private long parseEpochDay(byte[] bytes, int start) throws IOException {
+        int year = digits(bytes, start, 4);
+        int month = digits(bytes, start + 5, 2);
+        int day = digits(bytes, start + 8, 2);
+        if (bytes[start + 4] != '-' || bytes[start + 7] != '-' || month < 1 || month > 12 || day < 1 || day > 31) {
+            throw invalidValue("date", bytes, start, start + 10);
+        }
+
+        // Days from civil date, valid for the proleptic Gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private int digits(byte[] bytes, int start, int count) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                throw invalidValue("number", bytes, start, start + count);
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private IOException invalidValue(String what, byte[] bytes, int start, int end) {
+        return new IOException("Invalid " + what + " '" + new String(bytes, start, end - start, StandardCharsets.UTF_8) +
+                "' at line " + lineNumber);
+    }
+}
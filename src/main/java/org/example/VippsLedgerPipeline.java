@@ -0,0 +1,437 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a ledger report once and feeds its rows to several {@link VippsLedgerSink}s.
+ *
+ * <p>The report bytes are written to the stream returned by {@link #start(String)}, for
+ * example while the report is downloaded, and handed to a parser thread through a bounded
+ * queue of chunks. The parser sends batches of detached records to one thread per sink,
+ * again through bounded queues, so a slow sink holds back the parser and the parser holds
+ * back the writer instead of buffering the report in memory. When the report ends,
+ * {@link #await()} commits all sinks, or aborts all of them if anything failed.</p>
+ *
+ * <p>A pipeline is used for a single report.</p>
+ */
+public class VippsLedgerPipeline {
+    /**
+     * Creates the sinks for a downloaded report
+     */
+    @FunctionalInterface
+    public interface SinkFactory {
+        /**
+         * @param reportId the ID of the report
+         * @param reportFile the file the report is stored in once the download completes
+         * @return the sinks to feed the report to; an empty list disables the pipeline
+         * @throws IOException if a sink cannot be created
+         */
+        List<VippsLedgerSink> createSinks(String reportId, Path reportFile) throws IOException;
+
+        /**
+         * Creates the sinks for rows that are about to be appended to a ledger file, which add
+         * the rows to what they exported from the file before instead of replacing it
+         * @param reportId the ID the ledger is exported under
+         * @param ledgerFile the ledger file, before the rows are appended to it
+         * @return the sinks to feed the appended rows to, or null if they cannot append,
+         *         in which case the whole file is exported with {@link #createSinks} afterwards
+         * @throws IOException if a sink cannot be created
+         */
+        default List<VippsLedgerSink> createAppendSinks(String reportId, Path ledgerFile) throws IOException {
+            return null;
+        }
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 100;
+    private static final byte[] END_OF_INPUT = new byte[0];
+
+    private final List<VippsLedgerSink> sinks;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final BlockingQueue<byte[]> chunks;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Throwable failure;
+    private volatile boolean parsed;
+    private long rows;
+    private long startTime;
+    private boolean started;
+    private boolean completed;
+
+    public VippsLedgerPipeline(List<VippsLedgerSink> sinks) {
+        this(sinks, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param sinks the sinks to feed the rows to
+     * @param batchSize the number of rows handed to a sink at a time
+     * @param queueCapacity the number of chunks or batches each stage may buffer
+     */
+    public VippsLedgerPipeline(List<VippsLedgerSink> sinks, int batchSize, int queueCapacity) {
+        this.sinks = List.copyOf(sinks);
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.chunks = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Starts the pipeline for a report that is written to the returned stream. Writes
+     * block while the pipeline is behind; close the stream when the report is complete.
+     * @param contentEncoding the encoding of the written bytes, e.g. "gzip", or null
+     * @return the stream to write the report to
+     * @throws VippsExportException if a write fails because the pipeline has failed
+     */
+    public synchronized OutputStream start(String contentEncoding) {
+        return start(contentEncoding, -1);
+    }
+
+    /**
+     * Starts the pipeline like {@link #start(String)} for a report whose rows are appended
+     * to another file without the report header, so the sinks see the row offsets in that file
+     * @param contentEncoding the encoding of the written bytes, e.g. "gzip", or null
+     * @param appendOffset the offset the first row is appended at, or -1 to keep the offsets in the report
+     * @return the stream to write the report to
+     */
+    public synchronized OutputStream start(String contentEncoding, long appendOffset) {
+        startThreads(() -> VippsCompression.decode(new ChunkInput(), contentEncoding), appendOffset);
+        return new ChunkOutput();
+    }
+
+    /**
+     * Feeds a stored report through the pipeline and waits for it to complete
+     * @param reportFile the report, optionally gzip-compressed
+     * @return the number of rows exported
+     * @throws IOException if the report cannot be read or a sink fails
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public long run(Path reportFile) throws IOException, InterruptedException {
+        synchronized (this) {
+            startThreads(() -> VippsCompression.openInput(reportFile), -1);
+        }
+        return await();
+    }
+
+    /**
+     * Waits until every sink has received the whole report, then commits all sinks.
+     * If the report or any sink failed, all sinks are aborted instead. Sinks are committed
+     * one after the other, so a failing commit leaves the sinks committed before it in place.
+     * @return the number of rows exported
+     * @throws VippsExportException if the report could not be parsed or a sink failed
+     * @throws InterruptedException if the operation is interrupted; the pipeline keeps running
+     */
+    public long await() throws IOException, InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        synchronized (this) {
+            if (completed) {
+                throw new IllegalStateException("Pipeline has already completed");
+            }
+            completed = true;
+            if (failure != null) {
+                abortSinks(sinks);
+                VippsMetrics.recordSince("vipps_export_duration_seconds", startTime, "result", "failed");
+                throw new VippsExportException("Ledger export failed: " + failure.getMessage(), failure);
+            }
+
+            for (int i = 0; i < sinks.size(); i++) {
+                try {
+                    sinks.get(i).commit();
+                } catch (IOException | RuntimeException e) {
+                    abortSinks(sinks.subList(i, sinks.size()));
+                    VippsMetrics.recordSince("vipps_export_duration_seconds", startTime, "result", "failed");
+                    throw new VippsExportException("Failed to commit " + sinks.get(i).getClass().getSimpleName(), e);
+                }
+            }
+            VippsMetrics.increment("vipps_export_rows_total", rows);
+            VippsMetrics.recordSince("vipps_export_duration_seconds", startTime, "result", "committed");
+            return rows;
+        }
+    }
+
+    /**
+     * Stops the pipeline and aborts all sinks, e.g. because the download failed for good.
+     * Has no effect once the pipeline has completed.
+     * @param cause the reason, reported by writes to the stream
+     */
+    public void abort(Throwable cause) {
+        fail(cause);
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (!completed) {
+                completed = true;
+                abortSinks(sinks);
+                VippsMetrics.recordSince("vipps_export_duration_seconds", startTime, "result", "aborted");
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startThreads(ReportSource source, long appendOffset) {
+        if (started) {
+            throw new IllegalStateException("Pipeline has already been started");
+        }
+        started = true;
+        startTime = System.nanoTime();
+
+        List<BlockingQueue<Batch>> queues = new ArrayList<>();
+        for (VippsLedgerSink sink : sinks) {
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            threads.add(thread(() -> runSink(sink, queue), "vipps-export-" + sink.getClass().getSimpleName()));
+        }
+        threads.add(thread(() -> parse(source, queues, appendOffset), "vipps-export-parser"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    private static Thread thread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Parser stage: reads the report and publishes batches of copied records to every sink
+     */
+    private void parse(ReportSource source, List<BlockingQueue<Batch>> queues, long appendOffset) {
+        try (VippsLedgerParser parser = new VippsLedgerParser(source.open())) {
+            VippsLedgerColumns columns = parser.getColumns();
+            List<VippsLedgerRecord> batch = new ArrayList<>(batchSize);
+            long count = 0;
+            long offsetShift = 0;
+
+            while (parser.next()) {
+                VippsLedgerRecord record = parser.getRecord();
+                if (count == 0 && appendOffset >= 0) {
+                    // The header is not appended, so the first row moves to the append offset
+                    offsetShift = appendOffset - record.getRowOffset();
+                }
+                batch.add(record.copy(record.getRowOffset() + offsetShift));
+                count++;
+                if (batch.size() == batchSize) {
+                    publish(queues, new Batch(columns, Collections.unmodifiableList(batch), false));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            publish(queues, new Batch(columns, Collections.unmodifiableList(batch), true));
+            synchronized (this) {
+                rows = count;
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            // The decoder may stop before the end of the input, e.g. at trailing bytes after gzip data
+            parsed = true;
+        }
+    }
+
+    private void publish(List<BlockingQueue<Batch>> queues, Batch batch) throws IOException, InterruptedException {
+        for (BlockingQueue<Batch> queue : queues) {
+            while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+    }
+
+    /**
+     * Sink stage: hands every batch to one sink until the last batch has been accepted
+     */
+    private void runSink(VippsLedgerSink sink, BlockingQueue<Batch> queue) {
+        try {
+            boolean opened = false;
+            while (failure == null) {
+                Batch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                if (!opened) {
+                    sink.open(batch.columns);
+                    opened = true;
+                }
+                if (!batch.records.isEmpty()) {
+                    sink.accept(batch.records);
+                }
+                if (batch.last) {
+                    sink.finish();
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = cause;
+            }
+        }
+    }
+
+    private void checkFailure() throws VippsExportException {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new VippsExportException("Ledger export failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static void abortSinks(List<VippsLedgerSink> sinks) {
+        for (VippsLedgerSink sink : sinks) {
+            try {
+                sink.abort();
+            } catch (RuntimeException e) {
+                System.err.println("Failed to abort " + sink.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReportSource {
+        InputStream open() throws IOException;
+    }
+
+    private static final class Batch {
+        final VippsLedgerColumns columns;
+        final List<VippsLedgerRecord> records;
+        final boolean last;
+
+        Batch(VippsLedgerColumns columns, List<VippsLedgerRecord> records, boolean last) {
+            this.columns = columns;
+            this.records = records;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Writing end of the chunk queue, which collects bytes into chunks of {@value #CHUNK_SIZE}
+     */
+    private final class ChunkOutput extends OutputStream {
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int size;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (length > 0) {
+                int count = Math.min(length, chunk.length - size);
+                System.arraycopy(bytes, offset, chunk, size, count);
+                size += count;
+                offset += count;
+                length -= count;
+                if (size == chunk.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                put(Arrays.copyOf(chunk, size));
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                flush();
+                closed = true;
+                put(END_OF_INPUT);
+            }
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            try {
+                while (!parsed && !chunks.offer(bytes, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new VippsExportException("Interrupted while writing to the ledger export", e);
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * Reading end of the chunk queue, used by the parser thread
+     */
+    private final class ChunkInput extends InputStream {
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == chunk.length) {
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    byte[] next = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        checkFailure();
+                    } else if (next == END_OF_INPUT) {
+                        ended = true;
+                    } else {
+                        chunk = next;
+                        position = 0;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new VippsExportException("Interrupted while reading the ledger export", e);
+                }
+            }
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
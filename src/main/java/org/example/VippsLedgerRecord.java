@@ -0,0 +1,129 @@
+package org.example;
+
+/**
+ * A single parsed ledger row. Records handed out by {@link VippsLedgerParser#next()} and
+ * {@link VippsLedgerParser#forEach(VippsLedgerVisitor)} are reused for every row and their
+ * text values are views into the parser's buffer; use {@link #copy()} to keep a row.
+ */
+public final class VippsLedgerRecord {
+    private long amountMinor;
+    private long timestampMillis;
+    private boolean timed;
+    private long ledgerEpochDay;
+    private boolean dated;
+    private VippsLedgerEntryType entryType = VippsLedgerEntryType.OTHER;
+    private CharSequence currency;
+    private CharSequence reference;
+    private CharSequence pspReference;
+    private CharSequence payoutId;
+    private CharSequence row;
+    private long rowOffset;
+    private long lineNumber;
+
+    VippsLedgerRecord(CharSequence currency, CharSequence reference, CharSequence pspReference,
+                      CharSequence payoutId, CharSequence row) {
+        this.currency = currency;
+        this.reference = reference;
+        this.pspReference = pspReference;
+        this.payoutId = payoutId;
+        this.row = row;
+    }
+
+    void setValues(long amountMinor, long timestampMillis, boolean timed, long ledgerEpochDay, boolean dated,
+                   VippsLedgerEntryType entryType, long rowOffset, long lineNumber) {
+        this.amountMinor = amountMinor;
+        this.timestampMillis = timestampMillis;
+        this.timed = timed;
+        this.ledgerEpochDay = ledgerEpochDay;
+        this.dated = dated;
+        this.entryType = entryType;
+        this.rowOffset = rowOffset;
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Creates a detached copy of this record that stays valid after the parser advances
+     * @return the copy
+     */
+    public VippsLedgerRecord copy() {
+        return copy(rowOffset);
+    }
+
+    /**
+     * Creates a detached copy of this record for the same row stored at another position,
+     * e.g. after the row has been appended to another file
+     * @param rowOffset the byte offset of the row in the file it is stored in
+     * @return the copy
+     */
+    public VippsLedgerRecord copy(long rowOffset) {
+        VippsLedgerRecord copy = new VippsLedgerRecord(currency.toString(), reference.toString(),
+                pspReference.toString(), payoutId.toString(), row.toString());
+        copy.setValues(amountMinor, timestampMillis, timed, ledgerEpochDay, dated, entryType, rowOffset, lineNumber);
+        return copy;
+    }
+
+    /** @return the amount in minor units (øre/cents), negative for debits */
+    public long getAmountMinor() {
+        return amountMinor;
+    }
+
+    /** @return the entry time in milliseconds since the epoch, or 0 if the report has no time column */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /** @return true if the row has a time; otherwise {@link #getTimestampMillis()} is 0 */
+    public boolean hasTimestamp() {
+        return timed;
+    }
+
+    /** @return the ledger date as days since the epoch, taken from the ledger date or the time column */
+    public long getLedgerEpochDay() {
+        return ledgerEpochDay;
+    }
+
+    /** @return true if the row has a ledger date or time; otherwise {@link #getLedgerEpochDay()} is 0 */
+    public boolean hasLedgerDate() {
+        return dated;
+    }
+
+    public VippsLedgerEntryType getEntryType() {
+        return entryType;
+    }
+
+    public CharSequence getCurrency() {
+        return currency;
+    }
+
+    public CharSequence getReference() {
+        return reference;
+    }
+
+    public CharSequence getPspReference() {
+        return pspReference;
+    }
+
+    public CharSequence getPayoutId() {
+        return payoutId;
+    }
+
+    /** @return the raw row as it appears in the file, without the line terminator */
+    public CharSequence getRow() {
+        return row;
+    }
+
+    /** @return the byte offset of the row from the start of the parsed stream */
+    public long getRowOffset() {
+        return rowOffset;
+    }
+
+    /** @return the 1-based row number in the file, counting the header as row 1 */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return row.toString();
+    }
+}
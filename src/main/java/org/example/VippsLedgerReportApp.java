@@ -1,11 +1,22 @@
 package org.example;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class VippsLedgerReportApp {
-    private static final String BASE_URL = "https://api.vipps.no";
+    private static final String BASE_URL = System.getProperty("vipps.baseUrl",
+            System.getenv().getOrDefault("VIPPS_BASE_URL", "https://api.vipps.no"));
+    private static final int CHUNK_PARALLELISM = 4;
 
     private final VippsCredentialManager credentialManager;
     private final VippsAuthService authService;
@@ -15,20 +26,349 @@ public class VippsLedgerReportApp {
     public VippsLedgerReportApp() {
         this.credentialManager = new VippsCredentialManager();
         this.httpClient = new VippsHttpClient();
-        this.authService = new VippsAuthService(credentialManager, BASE_URL);
+        this.authService = new VippsAuthService(credentialManager, httpClient, BASE_URL);
         this.reportService = new VippsLedgerReportService(authService, httpClient, credentialManager, BASE_URL);
     }
 
+    /**
+     * Enables the on-disk report cache for the interactive workflow
+     * @throws IOException if the cache directory cannot be opened
+     */
+    private void enableReportCache() throws IOException {
+        reportService.setReportCache(new VippsReportCache());
+    }
+
+    /**
+     * Installs a Prometheus metrics registry if requested with the system properties
+     * {@code vipps.metrics.port} (serve /metrics on that port) or {@code vipps.metrics.file}
+     * (write the metrics to that file when the application exits). The endpoint listens on
+     * the loopback interface unless {@code vipps.metrics.host} names another address to bind.
+     * @throws IOException if the metrics endpoint cannot be started
+     */
+    private static void enableMetrics() throws IOException {
+        String port = System.getProperty("vipps.metrics.port");
+        String file = System.getProperty("vipps.metrics.file");
+        if (port == null && file == null) {
+            return;
+        }
+
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        VippsMetrics.setRegistry(registry);
+
+        if (port != null) {
+            String host = System.getProperty("vipps.metrics.host");
+            InetAddress address = host != null ? InetAddress.getByName(host) : InetAddress.getLoopbackAddress();
+            registry.startServer(new InetSocketAddress(address, Integer.parseInt(port)));
+            System.out.println("Serving metrics at http://" + (host != null ? host : "localhost") + ":" + port + "/metrics");
+        }
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    registry.writeFile(Paths.get(file));
+                } catch (IOException e) {
+                    System.err.println("Failed to write metrics to " + file + ": " + e.getMessage());
+                }
+            }));
+        }
+    }
+
     public static void main(String[] args) {
-        VippsLedgerReportApp app = new VippsLedgerReportApp();
         try {
-            app.run();
+            enableMetrics();
+            if (args.length > 0) {
+                runCommand(args);
+                return;
+            }
+
+            VippsLedgerReportApp app = new VippsLedgerReportApp();
+            try (app.authService) {
+                app.enableReportCache();
+                app.run();
+            }
         } catch (Exception e) {
             System.err.println("Error occurred: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Runs a headless subcommand
+     * @param args the command line arguments, starting with the subcommand name
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    private static void runCommand(String[] args) throws IOException, InterruptedException {
+        switch (args[0]) {
+            case "batch":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                Path summaryFile = Paths.get(args.length > 2 ? args[2] : "vipps_batch_summary.json");
+                boolean succeeded = VippsBatchRunner.runJobFile(Paths.get(args[1]), summaryFile,
+                        new VippsHttpClient(), BASE_URL);
+                if (!succeeded) {
+                    System.exit(1);
+                }
+                break;
+            case "sync":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                syncLedger(args);
+                break;
+            case "convert":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                convertReport(Paths.get(args[1]));
+                break;
+            case "aggregate":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                aggregateReport(Paths.get(args[1]), Paths.get(args.length > 2 ? args[2] : "vipps_ledger_totals.json"));
+                break;
+            case "index":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                try (VippsLedgerIndex index = openIndex(args, 2)) {
+                    long rows = index.updateDirectory(Paths.get(args[1]));
+                    System.out.println("Indexed " + rows + " new rows from " + args[1]);
+                }
+                break;
+            case "export":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                exportReport(Paths.get(args[1]), options(Arrays.copyOfRange(args, 1, args.length)));
+                break;
+            case "lookup":
+                if (args.length < 3) {
+                    printUsage();
+                    return;
+                }
+                lookup(args);
+                break;
+            case "daemon":
+                if (args.length < 2) {
+                    printUsage();
+                    return;
+                }
+                runDaemon(Paths.get(args[1]));
+                break;
+            case "mock-server":
+                runMockServer(options(args));
+                break;
+            case "load-test":
+                runLoadTest(options(args));
+                break;
+            default:
+                printUsage();
+        }
+    }
+
+    private static void syncLedger(String[] args) throws IOException, InterruptedException {
+        String merchant = args[1];
+        VippsCredentialManager credentials = args.length > 2
+                ? VippsCredentialManager.fromFile(Paths.get(args[2]))
+                : new VippsCredentialManager();
+        Path ledgerFile = Paths.get(args.length > 3 ? args[3] : "vipps_ledger_" + merchant + ".csv");
+
+        VippsHttpClient httpClient = new VippsHttpClient();
+        VippsAuthService authService = new VippsAuthService(credentials, httpClient, BASE_URL);
+        VippsLedgerReportService reportService =
+                new VippsLedgerReportService(authService, httpClient, credentials, BASE_URL);
+
+        String synced;
+        try (authService) {
+            synced = reportService.syncLedger(merchant, ledgerFile, new VippsWatermarkStore());
+        }
+        if (synced == null) {
+            System.err.println("Failed to sync ledger for " + merchant);
+            System.exit(1);
+        }
+    }
+
+    private static void runDaemon(Path configFile) throws IOException, InterruptedException {
+        VippsDaemon daemon = VippsDaemon.fromConfig(configFile, new VippsHttpClient(), BASE_URL);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "vipps-daemon-stop"));
+        daemon.start(VippsDaemon.controlPort(configFile));
+        daemon.awaitShutdown();
+    }
+
+    private static void convertReport(Path csvFile) throws IOException {
+        Path columnarFile = VippsColumnarLedgerWriter.convert(csvFile);
+
+        try (VippsColumnarLedgerReader reader = new VippsColumnarLedgerReader(columnarFile)) {
+            System.out.println("Columnar copy written to: " + columnarFile);
+            System.out.println("Rows: " + reader.getRowCount() + ", total amount (minor units): " + reader.sumAmounts());
+        }
+    }
+
+    private static void aggregateReport(Path reportFile, Path totalsFile) throws IOException {
+        long startTime = System.nanoTime();
+        VippsLedgerTotals totals = new VippsLedgerAggregator().aggregate(reportFile);
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        if (totalsFile.getFileName().toString().endsWith(".csv")) {
+            totals.writeCsv(totalsFile);
+        } else {
+            totals.writeJson(totalsFile);
+        }
+        System.out.println("Aggregated " + totals.getTotalCount() + " rows in " + elapsedMillis + " ms, totals written to: " +
+                totalsFile.toAbsolutePath());
+    }
+
+    private static void exportReport(Path reportFile, Map<String, String> options)
+            throws IOException, InterruptedException {
+        VippsExportSinks exportSinks = new VippsExportSinks();
+        exportSinks.setColumnar(Boolean.parseBoolean(options.getOrDefault("columnar", "false")));
+        exportSinks.setTotals(Boolean.parseBoolean(options.getOrDefault("totals", "false")));
+        if (options.containsKey("jdbc-url")) {
+            exportSinks.setJdbc(options.get("jdbc-url"), options.get("jdbc-table"));
+        }
+        VippsLedgerIndex index = options.containsKey("index") ? new VippsLedgerIndex(Paths.get(options.get("index"))) : null;
+        exportSinks.setLedgerIndex(index);
+        if (exportSinks.isEmpty()) {
+            System.err.println("No export sinks selected");
+            printUsage();
+            return;
+        }
+
+        try {
+            long startTime = System.nanoTime();
+            String reportId = reportFile.getFileName().toString();
+            VippsLedgerPipeline pipeline = new VippsLedgerPipeline(exportSinks.createSinks(reportId, reportFile));
+            long rows = pipeline.run(reportFile);
+            System.out.println("Exported " + rows + " rows in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    private static VippsLedgerIndex openIndex(String[] args, int directoryArgument) throws IOException {
+        return args.length > directoryArgument
+                ? new VippsLedgerIndex(Paths.get(args[directoryArgument]))
+                : new VippsLedgerIndex();
+    }
+
+    private static void lookup(String[] args) throws IOException {
+        VippsLedgerIndex.KeyType keyType = "payout".equalsIgnoreCase(args[1])
+                ? VippsLedgerIndex.KeyType.PAYOUT
+                : VippsLedgerIndex.KeyType.REFERENCE;
+
+        try (VippsLedgerIndex index = openIndex(args, 3)) {
+            long startTime = System.nanoTime();
+            List<VippsLedgerIndex.Match> matches = index.lookup(keyType, args[2]);
+            long elapsedMicros = (System.nanoTime() - startTime) / 1_000;
+
+            for (VippsLedgerIndex.Match match : matches) {
+                System.out.println(match);
+            }
+            System.out.println(matches.size() + " rows found in " + elapsedMicros + " µs");
+        }
+    }
+
+    /**
+     * Parses {@code --name=value} options following the subcommand
+     */
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            } else {
+                System.err.println("Ignoring unknown argument: " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static VippsMockApiServer startMockServer(Map<String, String> options) throws IOException {
+        VippsMockApiServer server = new VippsMockApiServer(Integer.parseInt(options.getOrDefault("port", "0")));
+        server.setLatency(Duration.ofMillis(Long.parseLong(options.getOrDefault("latency-ms", "20"))),
+                Duration.ofMillis(Long.parseLong(options.getOrDefault("jitter-ms", "10"))));
+        server.setGenerationTime(Duration.ofMillis(Long.parseLong(options.getOrDefault("generation-ms", "1000"))));
+        server.setFailureRate(Double.parseDouble(options.getOrDefault("failure-rate", "0")));
+        server.setRateLimit(Integer.parseInt(options.getOrDefault("rate-limit", "0")), 1);
+        server.setReportRows(Long.parseLong(options.getOrDefault("rows", "1000")));
+        server.start();
+        return server;
+    }
+
+    private static void runMockServer(Map<String, String> options) throws IOException, InterruptedException {
+        VippsMockApiServer server = startMockServer(options);
+        System.out.println("Mock Vipps API listening at " + server.getBaseUrl());
+        System.out.println("Run the client against it with -Dvipps.baseUrl=" + server.getBaseUrl());
+        Thread.currentThread().join();
+    }
+
+    private static void runLoadTest(Map<String, String> options) throws IOException, InterruptedException {
+        String baseUrl = options.get("base-url");
+        VippsMockApiServer server = null;
+        if (baseUrl == null) {
+            server = startMockServer(options);
+            baseUrl = server.getBaseUrl();
+        }
+
+        try {
+            VippsLoadDriver driver = new VippsLoadDriver(new VippsHttpClient(), baseUrl);
+            driver.setPipelines(Integer.parseInt(options.getOrDefault("pipelines", "100")));
+            driver.setJobsPerPipeline(Integer.parseInt(options.getOrDefault("jobs", "5")));
+            System.out.println("Running load test against " + baseUrl);
+            VippsLoadDriver.Result result = driver.run();
+            result.print();
+            if (server != null) {
+                System.out.println("Mock server: " + server.getRequestCount() + " requests, " +
+                        server.getThrottledCount() + " throttled, " + server.getFailedCount() + " failed");
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage:");
+        System.out.println("  (no arguments)                   interactive report retrieval");
+        System.out.println("  batch <jobs.json> [summary.json] run all jobs in a job file");
+        System.out.println("  sync <merchant> [credentials.properties] [ledger.csv]");
+        System.out.println("                                   append days since the last sync to a ledger");
+        System.out.println("                                   (a ledger named *.csv.gz is kept gzip-compressed)");
+        System.out.println("  daemon <daemon.json>             keep ledgers in sync on cron schedules, with a");
+        System.out.println("                                   control interface on localhost (GET /jobs)");
+        System.out.println("  convert <report.csv>             write a columnar .vlc copy of a report");
+        System.out.println("  aggregate <report.csv> [totals.json|totals.csv]");
+        System.out.println("                                   total amounts by day, entry type and payout");
+        System.out.println("  export <report.csv> [--columnar=true] [--totals=true] [--index=<index-dir>]");
+        System.out.println("         [--jdbc-url=<url> --jdbc-table=<table>]");
+        System.out.println("                                   write a report to several sinks in a single pass");
+        System.out.println("  index <report-dir> [index-dir]   add new and grown ledger files to the index");
+        System.out.println("  lookup <payout|reference> <key> [index-dir]");
+        System.out.println("                                   find the ledger rows for a payout or order reference");
+        System.out.println("  mock-server [--port=] [--latency-ms=] [--jitter-ms=] [--generation-ms=]");
+        System.out.println("              [--failure-rate=] [--rate-limit=] [--rows=]");
+        System.out.println("                                   serve a local mock of the Vipps API");
+        System.out.println("  load-test [--pipelines=] [--jobs=] [--base-url=] [mock-server options]");
+        System.out.println("                                   run concurrent report pipelines and print p50/p99 latency");
+        System.out.println("                                   (without --base-url an embedded mock server is used)");
+        System.out.println("API: -Dvipps.baseUrl=<url> or VIPPS_BASE_URL overrides https://api.vipps.no");
+        System.out.println("Metrics: -Dvipps.metrics.port=<port> serves /metrics on localhost, -Dvipps.metrics.file=<file> writes them on exit");
+        System.out.println("         -Dvipps.metrics.host=<address> binds the metrics endpoint to another interface");
+    }
+
     /**
      * Runs the application workflow
      * @throws IOException if an I/O error occurs
@@ -69,20 +409,25 @@ public class VippsLedgerReportApp {
             }
         }
 
-        // Step 3: Request a ledger report
-        System.out.println("\nRequesting ledger report for period: " + startDate + " to " + endDate);
-        String reportId = reportService.requestLedgerReport(startDate, endDate);
+        System.out.print("Split the range into chunks? (none/day/week/month): ");
+        VippsReportChunkSize chunkSize = VippsReportChunkSize.fromString(scanner.nextLine());
+
+        if (chunkSize != null) {
+            // Step 3 and 4: Request and retrieve the report in chunks
+            System.out.println("\nRetrieving ledger report for period: " + startDate + " to " + endDate);
+            String mergedPath = reportService.retrieveLedgerReportSharded(startDate, endDate, chunkSize, CHUNK_PARALLELISM);
 
-        if (reportId == null) {
-            System.err.println("Failed to request ledger report.");
+            if (mergedPath != null) {
+                System.out.println("\nReport successfully retrieved and saved to: " + mergedPath);
+            } else {
+                System.err.println("Failed to retrieve ledger report.");
+            }
             return;
         }
 
-        System.out.println("Ledger report requested successfully, ID: " + reportId);
-
-        // Step 4: Retrieve the report
-        System.out.println("\nRetrieving ledger report...");
-        String reportPath = reportService.retrieveLedgerReport(reportId);
+        // Step 3 and 4: Request and retrieve the report, unless it is already cached
+        System.out.println("\nRetrieving ledger report for period: " + startDate + " to " + endDate);
+        String reportPath = reportService.retrieveLedgerReport(startDate, endDate);
 
         if (reportPath != null) {
             System.out.println("\nReport successfully retrieved and saved to: " + reportPath);
@@ -1,27 +1,155 @@
 package org.example;
 
-import org.json.JSONObject;
-
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 public class VippsLedgerReportService {
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final int DOWNLOAD_ATTEMPTS = 3;
+    private static final long RESUME_DELAY_MILLIS = 1000;
+    private static final long CHECKPOINT_INTERVAL = 8L * 1024 * 1024;
+    private static final int INITIAL_SYNC_DAYS = 30;
+    private static final String REPORT_FORMAT = "CSV";
+    private static final ExportSelector NOT_EXPORTED = reportId -> null;
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "vipps-report-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final String baseUrl;
     private final VippsAuthService authService;
     private final VippsHttpClient httpClient;
     private final VippsCredentialManager credentialManager;
+    private final VippsReportPoller reportPoller;
+    private final Executor executor;
+    private Path outputDirectory = Paths.get("");
+    private VippsReportCache reportCache;
+    private boolean columnarConversion;
+    private boolean compressedStorage;
+    private VippsLedgerIndex ledgerIndex;
+    private VippsLedgerPipeline.SinkFactory exportSinks;
 
     public VippsLedgerReportService(VippsAuthService authService, VippsHttpClient httpClient,
                                     VippsCredentialManager credentialManager, String baseUrl) {
+        this(authService, httpClient, credentialManager, baseUrl,
+                new VippsReportPoller(authService, httpClient, credentialManager, baseUrl));
+    }
+
+    public VippsLedgerReportService(VippsAuthService authService, VippsHttpClient httpClient,
+                                    VippsCredentialManager credentialManager, String baseUrl,
+                                    VippsReportPoller reportPoller) {
+        this(authService, httpClient, credentialManager, baseUrl, reportPoller, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Creates a service whose asynchronous methods run blocking work, such as writing
+     * downloaded reports to disk, on the given executor
+     */
+    public VippsLedgerReportService(VippsAuthService authService, VippsHttpClient httpClient,
+                                    VippsCredentialManager credentialManager, String baseUrl,
+                                    VippsReportPoller reportPoller, Executor executor) {
         this.authService = authService;
         this.httpClient = httpClient;
         this.credentialManager = credentialManager;
         this.baseUrl = baseUrl;
+        this.reportPoller = reportPoller;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the directory that downloaded reports are written to
+     * @param outputDirectory the output directory, which must exist
+     */
+    public void setOutputDirectory(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Sets the cache used by {@link #retrieveLedgerReport(LocalDate, LocalDate)}
+     * @param reportCache the report cache, or null to disable caching
+     */
+    public void setReportCache(VippsReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
+
+    /**
+     * Enables converting every downloaded report into a columnar ".vlc" file next to the CSV,
+     * see {@link VippsColumnarLedgerWriter}
+     * @param columnarConversion true to convert downloaded reports
+     */
+    public void setColumnarConversion(boolean columnarConversion) {
+        this.columnarConversion = columnarConversion;
+    }
+
+    /**
+     * Enables storing downloaded and merged reports gzip-compressed as ".csv.gz" files.
+     * Reports that arrive gzip-encoded are then written to disk without being recompressed.
+     * @param compressedStorage true to store reports compressed
+     */
+    public void setCompressedStorage(boolean compressedStorage) {
+        this.compressedStorage = compressedStorage;
+    }
+
+    /**
+     * Sets the index that downloaded reports and synced ledgers are added to
+     * @param ledgerIndex the ledger index, or null to disable indexing
+     */
+    public void setLedgerIndex(VippsLedgerIndex ledgerIndex) {
+        this.ledgerIndex = ledgerIndex;
+    }
+
+    /**
+     * Sets the sinks that downloaded reports are exported to, see {@link VippsLedgerPipeline}.
+     * Each report is parsed once while it is being received, and the sinks are committed
+     * when the download completes or aborted if it fails. If the export fails, the report
+     * file is deleted so it is neither returned nor cached, and retrieving the report again
+     * exports it again. Reports served from the report cache are not exported, since they
+     * were exported when they were downloaded.
+     *
+     * <p>Only files that are kept are exported: the chunks of a sharded report are not, and the
+     * merged report is exported from disk once it is complete instead. Chunks are not added to
+     * the report cache while exporting, since they were never exported. A synced ledger is
+     * exported under the ID "ledger_" followed by the merchant name: the rows fetched by
+     * {@link #syncLedger(String, Path, VippsWatermarkStore)} are exported while they are
+     * downloaded, at their offsets in the ledger, and added to what the sinks hold, see
+     * {@link VippsLedgerPipeline.SinkFactory#createAppendSinks(String, Path)}. The whole ledger
+     * is exported instead on its first sync, after a sync failed while committing its export,
+     * and when the sinks cannot append. Sinks enabled for a ledger that has been synced before
+     * therefore only receive its rows once the ledger is exported as a whole.</p>
+     * @param exportSinks the factory creating the sinks for each report, or null to disable exporting
+     */
+    public void setExportSinks(VippsLedgerPipeline.SinkFactory exportSinks) {
+        this.exportSinks = exportSinks;
     }
 
     /**
@@ -36,121 +164,631 @@ public class VippsLedgerReportService {
         // Get access token
         String accessToken = authService.getAccessToken();
 
-        // Format dates
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        // Create and send request
+        var request = createLedgerReportRequest(accessToken, startDate, endDate);
+        return parseReportId(httpClient.sendBinaryRequest(request));
+    }
 
-        // Create request body
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("format", "CSV");
-        requestBody.put("startDate", startDate.format(formatter));
-        requestBody.put("endDate", endDate.format(formatter));
+    /**
+     * Requests a new ledger report for the specified date range without blocking the calling thread
+     * @param startDate the start date for the report
+     * @param endDate the end date for the report
+     * @return a future completed with the report ID if successful, null otherwise
+     */
+    public CompletableFuture<String> requestLedgerReportAsync(LocalDate startDate, LocalDate endDate) {
+        return authService.getAccessTokenAsync()
+                .thenCompose(accessToken ->
+                        httpClient.sendBinaryRequestAsync(createLedgerReportRequest(accessToken, startDate, endDate)))
+                .thenApply(this::parseReportId);
+    }
 
-        // Create and send request
-        var request = httpClient.createReportRequest(
+    private HttpRequest createLedgerReportRequest(String accessToken, LocalDate startDate, LocalDate endDate) {
+        // Fill the dates into the pre-encoded CSV report request body
+        return httpClient.createReportRequest(
                 accessToken,
                 credentialManager.getSubscriptionKey(),
                 baseUrl,
-                requestBody
+                VippsJson.reportRequestBody(startDate, endDate)
         );
+    }
 
-        HttpResponse<String> response = httpClient.sendRequest(request);
-
+    private String parseReportId(HttpResponse<byte[]> response) {
         if(response.statusCode() != 200) {
             System.err.println("Request failed with status code " + response.statusCode() +
-                    ", Response: " + response.body());
+                    ", Response: " + new String(response.body(), StandardCharsets.UTF_8));
             return null;
         }
 
-        // Parse the response to get the report ID
-        JSONObject jsonResponse = new JSONObject(response.body());
-        return jsonResponse.getString("reportId");
+        // Read the report ID straight from the response bytes
+        String reportId = VippsJson.readField(response.body(), "reportId");
+        if (reportId == null) {
+            throw new IllegalArgumentException("Report response has no reportId");
+        }
+        return reportId;
     }
 
     /**
-     * Polls for the status of a report until it's ready or max attempts reached
+     * Polls for the status of a report until it's ready, has failed or the poll timeout is reached
      * @param reportId the ID of the report to check
      * @return the report URL if ready, null otherwise
      * @throws IOException if an I/O error occurs
      * @throws InterruptedException if the operation is interrupted
      */
     public String pollReportStatus(String reportId) throws IOException, InterruptedException {
-        boolean reportReady = false;
-        int maxAttempts = 10;
-        int attempt = 0;
-        String reportUrl = null;
-
         System.out.println("Waiting for report to be generated...");
 
-        // Poll until the report is ready or max attempts reached
-        while (!reportReady && attempt < maxAttempts) {
-            attempt++;
+        try {
+            return reportPoller.poll(reportId).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to poll report status", e.getCause());
+        }
+    }
+
+    /**
+     * Polls for the status of a report without blocking the calling thread
+     * @param reportId the ID of the report to check
+     * @return a future completed with the report URL if ready, null otherwise
+     */
+    public CompletableFuture<String> pollReportStatusAsync(String reportId) {
+        return reportPoller.poll(reportId);
+    }
+
+    /**
+     * Downloads a report from the given URL and saves it to the file system. The report is
+     * received into a partial file with a {@link VippsDownloadCheckpoint}; if the transfer
+     * breaks off it is resumed with a range request for the missing bytes, and a partial
+     * file left by an earlier run is continued as well.
+     * @param reportUrl the URL of the report to download
+     * @param reportId the ID of the report (used for filename)
+     * @return the path to the downloaded file
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public String downloadReport(String reportUrl, String reportId) throws IOException, InterruptedException {
+        return publish(download(reportUrl, reportId, this::exportTeeFor));
+    }
+
+    /**
+     * @param exports picks the export of the report; none for reports that are merged into
+     *                another file and deleted
+     */
+    private String download(String reportUrl, String reportId, ExportSelector exports)
+            throws IOException, InterruptedException {
+        VippsDownloadCheckpoint checkpoint = checkpointFor(reportId);
+        ExportTee export = exports.teeFor(reportId);
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    var downloadRequest = createDownloadRequest(reportUrl, checkpoint);
+                    return saveDownload(httpClient.sendStreamingRequest(downloadRequest), checkpoint, export);
+                } catch (IOException e) {
+                    // A failed export is not fixed by downloading the report again
+                    if (attempt >= DOWNLOAD_ATTEMPTS || e instanceof VippsExportException) {
+                        throw e;
+                    }
+                    printInterrupted(checkpoint, e);
+                    Thread.sleep(RESUME_DELAY_MILLIS * attempt);
+                }
+            }
+        } finally {
+            // The export of appended rows is finished by the sync once they are in the ledger
+            if (export != null && !export.isAppend()) {
+                export.abort();
+            }
+        }
+    }
+
+    /**
+     * Downloads a report without blocking the calling thread. Writing the report to disk
+     * runs on the service executor. Interrupted transfers are resumed as in
+     * {@link #downloadReport(String, String)}.
+     * @param reportUrl the URL of the report to download
+     * @param reportId the ID of the report (used for filename)
+     * @return a future completed with the path to the downloaded file, or null if the download failed
+     */
+    public CompletableFuture<String> downloadReportAsync(String reportUrl, String reportId) {
+        ExportTee export = exportTeeFor(reportId);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return checkpointFor(reportId);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).thenCompose(checkpoint -> downloadAttemptAsync(reportUrl, checkpoint, export, 1))
+                .thenApplyAsync(path -> {
+                    try {
+                        return publish(path);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)
+                .whenComplete((path, error) -> {
+                    if (export != null) {
+                        export.abort();
+                    }
+                });
+    }
+
+    private CompletableFuture<String> downloadAttemptAsync(String reportUrl, VippsDownloadCheckpoint checkpoint,
+                                                           ExportTee export, int attempt) {
+        return httpClient.sendStreamingRequestAsync(createDownloadRequest(reportUrl, checkpoint))
+                .thenApplyAsync(downloadResponse -> {
+                    try {
+                        return saveDownload(downloadResponse, checkpoint, export);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)
+                .handle((path, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(path);
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (!(cause instanceof IOException) || cause instanceof VippsExportException
+                            || attempt >= DOWNLOAD_ATTEMPTS) {
+                        return CompletableFuture.<String>failedFuture(cause);
+                    }
+                    printInterrupted(checkpoint, cause);
+                    Executor delayed = CompletableFuture.delayedExecutor(
+                            RESUME_DELAY_MILLIS * attempt, TimeUnit.MILLISECONDS, executor);
+                    return CompletableFuture.runAsync(() -> { }, delayed)
+                            .thenCompose(ignored -> downloadAttemptAsync(reportUrl, checkpoint, export, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    private VippsDownloadCheckpoint checkpointFor(String reportId) throws IOException {
+        Path partFile = outputDirectory.resolve(reportFileName(reportId) + ".part");
+        VippsDownloadCheckpoint checkpoint = VippsDownloadCheckpoint.load(partFile);
+        return checkpoint != null ? checkpoint : VippsDownloadCheckpoint.create(partFile, reportId);
+    }
+
+    private HttpRequest createDownloadRequest(String reportUrl, VippsDownloadCheckpoint checkpoint) {
+        long offset = checkpoint.getOffset();
+        String validator = checkpoint.getValidator();
+        if (offset > 0 && validator != null) {
+            return httpClient.createDownloadRequest(reportUrl, offset, validator);
+        }
+        return httpClient.createDownloadRequest(reportUrl);
+    }
+
+    private static void printInterrupted(VippsDownloadCheckpoint checkpoint, Throwable cause) {
+        System.err.println("Download of report " + checkpoint.getReportId() + " interrupted at " +
+                checkpoint.getOffset() + " bytes (" + cause.getMessage() + "), resuming");
+    }
+
+    /**
+     * Writes the columnar copy of a finished report and adds it to the index, if enabled.
+     * Only files that are kept are published: chunk and sync downloads are merged into
+     * another file and deleted, and that file is published instead. The same holds for
+     * exporting, see {@link #exportFile(String, Path)}.
+     * @param reportPath the report file, or null
+     * @return the report file
+     */
+    private String publish(String reportPath) throws IOException {
+        if (reportPath == null) {
+            return null;
+        }
+        Path reportFile = Paths.get(reportPath);
+        if (columnarConversion) {
+            Path columnarFile = VippsColumnarLedgerWriter.convert(reportFile);
+            System.out.println("Columnar copy written to: " + columnarFile);
+        }
+        if (ledgerIndex != null) {
+            ledgerIndex.update(List.of(reportFile));
+        }
+        return reportPath;
+    }
+
+    private ExportTee exportTeeFor(String reportId) {
+        if (exportSinks == null) {
+            return null;
+        }
+        return new ExportTee(exportSinks, reportId, outputDirectory.resolve(reportFileName(reportId)));
+    }
+
+    /**
+     * Exports a complete file that was not exported while it was downloaded, i.e. a merged
+     * report or a synced ledger
+     * @param reportId the ID the sinks store the rows under
+     * @param reportFile the file to export
+     * @throws VippsExportException if a sink fails
+     */
+    private void exportFile(String reportId, Path reportFile) throws IOException, InterruptedException {
+        if (exportSinks == null) {
+            return;
+        }
+        List<VippsLedgerSink> sinks = exportSinks.createSinks(reportId, reportFile);
+        if (sinks.isEmpty()) {
+            return;
+        }
+
+        VippsLedgerPipeline pipeline = new VippsLedgerPipeline(sinks);
+        try {
+            long rows = pipeline.run(reportFile);
+            System.out.println("Exported " + rows + " rows of report " + reportId);
+        } catch (InterruptedException e) {
+            pipeline.abort(e);
+            throw e;
+        }
+    }
+
+    private String saveDownload(HttpResponse<InputStream> downloadResponse, VippsDownloadCheckpoint checkpoint,
+                                ExportTee export) throws IOException {
+        try (InputStream body = downloadResponse.body()) {
+            int statusCode = downloadResponse.statusCode();
+            long offset = checkpoint.getOffset();
+            Path partFile = checkpoint.getPartFile();
+            if (offset > 0 && (!Files.exists(partFile) || Files.size(partFile) < offset)) {
+                // The partial file lost data since the checkpoint was written
+                offset = -1;
+            }
+
+            if (statusCode == 206 && offset > 0 && contentRangeStart(downloadResponse) == offset) {
+                System.out.println("Resuming download of report " + checkpoint.getReportId() + " at byte " + offset);
+            } else if (statusCode == 200) {
+                // Full response: the server ignored the range or the report has changed
+                offset = 0;
+                checkpoint.restart(
+                        downloadResponse.headers().firstValue("ETag").orElse(null),
+                        downloadResponse.headers().firstValue("Last-Modified").orElse(null),
+                        downloadResponse.headers().firstValue("Content-Encoding").orElse(null));
+            } else if (statusCode == 206 || statusCode == 416) {
+                // The partial file cannot be continued, so the next attempt downloads the whole report
+                long requestedOffset = checkpoint.getOffset();
+                checkpoint.restart(null, null, null);
+                checkpoint.save();
+                throw new IOException("Server did not resume at byte " + requestedOffset +
+                        " (status " + statusCode + "), restarting download");
+            } else {
+                System.err.println("Failed to download report: " + statusCode);
+                return null;
+            }
+            checkpoint.save();
+            if (export != null) {
+                export.prepare(checkpoint, offset);
+            }
+
+            long startTime = System.nanoTime();
+            long bytesReceived = receive(body, checkpoint, offset, export);
+            double seconds = Math.max((System.nanoTime() - startTime) / 1_000_000_000.0, 0.001);
+            VippsMetrics.increment("vipps_download_bytes_total", bytesReceived);
+            VippsMetrics.record("vipps_download_duration_seconds", seconds);
+
+            Path filePath = outputDirectory.resolve(reportFileName(checkpoint.getReportId()));
+            long finishTime = System.nanoTime();
+            finishDownload(checkpoint, filePath);
+            VippsMetrics.recordSince("vipps_report_write_seconds", finishTime);
+            String encoding = checkpoint.getEncoding();
+
+            System.out.printf("Report successfully downloaded and saved to: %s (%d bytes on disk, %.2f MB/s%s)%n",
+                    filePath, Files.size(filePath), bytesReceived / seconds / (1024 * 1024),
+                    encoding != null ? ", " + encoding + " encoded" : "");
+            if (export != null && !export.isAppend()) {
+                try {
+                    export.finish();
+                } catch (IOException | RuntimeException e) {
+                    // Without its export the report must not be reused, e.g. by the report cache
+                    Files.deleteIfExists(filePath);
+                    System.err.println("Deleted report " + checkpoint.getReportId() + " after its export failed");
+                    throw e;
+                }
+            }
+            return filePath.toAbsolutePath().toString();
+        }
+    }
+
+    /**
+     * Writes a response body to the partial file from the given offset, and to the export
+     * pipeline if there is one. The checkpoint is updated every few megabytes and when the
+     * transfer ends or fails, so that it never claims more bytes than have been written.
+     * @return the number of bytes received
+     */
+    private long receive(InputStream body, VippsDownloadCheckpoint checkpoint, long offset, ExportTee export)
+            throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(body);
+             FileChannel part = FileChannel.open(checkpoint.getPartFile(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            part.truncate(offset);
+            part.position(offset);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE);
+            long nextCheckpoint = offset + CHECKPOINT_INTERVAL;
+            try {
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    ByteBuffer received = buffer.duplicate();
+                    while (buffer.hasRemaining()) {
+                        part.write(buffer);
+                    }
+                    if (export != null) {
+                        export.write(received);
+                    }
+                    buffer.clear();
+
+                    if (part.position() >= nextCheckpoint) {
+                        part.force(false);
+                        checkpoint.setOffset(part.position());
+                        checkpoint.save();
+                        nextCheckpoint = part.position() + CHECKPOINT_INTERVAL;
+                    }
+                }
+            } finally {
+                part.force(false);
+                checkpoint.setOffset(part.position());
+                checkpoint.save();
+            }
+            return part.position() - offset;
+        }
+    }
+
+    /**
+     * Moves a completed partial file into place, decoding or compressing it first if the
+     * received encoding differs from the storage format, and removes the checkpoint
+     */
+    private void finishDownload(VippsDownloadCheckpoint checkpoint, Path target) throws IOException {
+        String encoding = checkpoint.getEncoding();
+        String normalized = encoding == null ? "identity" : encoding.trim().toLowerCase(Locale.ROOT);
+        boolean storedAsReceived = compressedStorage
+                ? normalized.equals("gzip") || normalized.equals("x-gzip")
+                : normalized.isEmpty() || normalized.equals("identity");
 
-            // Get access token (will refresh if needed)
-            String accessToken = authService.getAccessToken();
+        if (storedAsReceived) {
+            Files.move(checkpoint.getPartFile(), target,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            try (InputStream input = VippsCompression.decode(Files.newInputStream(checkpoint.getPartFile()), encoding)) {
+                streamToFile(input, target, compressedStorage);
+            }
+        }
+        checkpoint.delete();
+    }
 
-            // Build and send request
-            var statusRequest = httpClient.createStatusRequest(
-                    accessToken,
-                    credentialManager.getSubscriptionKey(),
-                    baseUrl,
-                    reportId
-            );
+    private static long contentRangeStart(HttpResponse<?> response) {
+        // Content-Range: bytes <start>-<end>/<length>
+        String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        int start = contentRange.indexOf(' ');
+        int end = contentRange.indexOf('-');
+        if (!contentRange.startsWith("bytes ") || end < start) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(start + 1, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            HttpResponse<String> statusResponse = httpClient.sendRequest(statusRequest);
+    private String reportFileName(String name) {
+        return "vipps_ledger_report_" + name + (compressedStorage ? ".csv" + VippsCompression.GZIP_EXTENSION : ".csv");
+    }
 
-            if (statusResponse.statusCode() == 200) {
-                JSONObject jsonResponse = new JSONObject(statusResponse.body());
-                String status = jsonResponse.getString("status");
+    /**
+     * Copies a stream to a file in bounded chunks. The data is written to a temporary file
+     * in the target directory first and then moved into place, so readers never see a partial report.
+     * @param input the stream to copy
+     * @param target the file to create or replace
+     * @param compress true to gzip-compress the data while writing it
+     * @return the number of bytes read from the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private long streamToFile(InputStream input, Path target, boolean compress) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, target.getFileName().toString(), ".part");
+        long bytesRead = 0;
 
-                if ("COMPLETED".equals(status)) {
-                    reportReady = true;
-                    reportUrl = jsonResponse.getString("reportUrl");
-                    System.out.println("Report is ready!");
+        try {
+            try (FileChannel destination = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                if (compress) {
+                    GZIPOutputStream output = VippsCompression.encode(Channels.newOutputStream(destination));
+                    bytesRead = input.transferTo(output);
+                    output.finish();
+                    output.flush();
                 } else {
-                    System.out.println("Report status: " + status + ", waiting 5 seconds before checking again...");
-                    Thread.sleep(5000); // Wait 5 seconds before checking again
+                    ReadableByteChannel source = Channels.newChannel(input);
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE);
+                    while (source.read(buffer) != -1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            bytesRead += destination.write(buffer);
+                        }
+                        buffer.clear();
+                    }
                 }
-            } else {
-                System.out.println("Failed to check report status, attempt " + attempt + " of " + maxAttempts +
-                        ". Status code: " + statusResponse.statusCode());
-                Thread.sleep(5000);
+                destination.force(false);
             }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
         }
 
-        if (!reportReady) {
-            System.err.println("Report not ready after " + maxAttempts + " attempts");
-            return null;
+        return bytesRead;
+    }
+
+    /**
+     * Retrieves a ledger report for a large date range by splitting it into chunks.
+     * The chunks are requested, polled and downloaded concurrently, and the results are
+     * merged into a single CSV file in chronological order with one header line.
+     * With compressed storage the merged file is a ".csv.gz" file.
+     * @param startDate the start date for the report
+     * @param endDate the end date for the report
+     * @param chunkSize the size of each chunk
+     * @param parallelism the maximum number of chunks processed at the same time
+     * @return the path to the merged file, or null if any chunk failed
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public String retrieveLedgerReportSharded(LocalDate startDate, LocalDate endDate,
+                                              VippsReportChunkSize chunkSize, int parallelism)
+            throws IOException, InterruptedException {
+        List<VippsDateRange> chunks = new VippsDateRange(startDate, endDate).split(chunkSize);
+        System.out.println("Splitting report into " + chunks.size() + " chunks (" +
+                chunkSize.name().toLowerCase() + "), " + parallelism + " at a time");
+
+        ExecutorService chunkExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, chunks.size())));
+        List<Future<String>> futures = new ArrayList<>();
+        List<Path> chunkFiles = new ArrayList<>();
+        boolean retrieved = false;
+
+        try {
+            for (VippsDateRange chunk : chunks) {
+                futures.add(chunkExecutor.submit(() -> retrieveRange(chunk, false)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                String chunkPath = futures.get(i).get();
+                if (chunkPath == null) {
+                    System.err.println("Failed to retrieve chunk " + chunks.get(i));
+                    return null;
+                }
+                chunkFiles.add(Paths.get(chunkPath));
+            }
+            retrieved = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Failed to retrieve report chunk", cause);
+        } finally {
+            chunkExecutor.shutdownNow();
+            if (!retrieved) {
+                discardChunks(futures);
+            }
+        }
+
+        // Merge the chunks into a single file and remove the chunk files
+        String mergedId = startDate + "_" + endDate;
+        Path mergedFile = outputDirectory.resolve(reportFileName(mergedId));
+        VippsCsvMerger.merge(chunkFiles, mergedFile);
+        for (Path chunkFile : chunkFiles) {
+            Files.deleteIfExists(chunkFile);
         }
 
-        return reportUrl;
+        System.out.println("Merged " + chunkFiles.size() + " chunks into: " + mergedFile);
+        try {
+            exportFile(mergedId, mergedFile);
+        } catch (IOException e) {
+            // As for a single report, a report without its export must not be used
+            Files.deleteIfExists(mergedFile);
+            System.err.println("Deleted report " + mergedId + " after its export failed");
+            throw e;
+        }
+        return publish(mergedFile.toAbsolutePath().toString());
     }
 
     /**
-     * Downloads a report from the given URL and saves it to the file system
-     * @param reportUrl the URL of the report to download
-     * @param reportId the ID of the report (used for filename)
-     * @return the path to the downloaded file
+     * Waits for the chunks still being retrieved after a chunk failed, and deletes the
+     * files of every chunk that was retrieved
+     */
+    private static void discardChunks(List<Future<String>> futures) {
+        for (Future<String> future : futures) {
+            try {
+                String chunkPath = future.get();
+                if (chunkPath != null) {
+                    Files.deleteIfExists(Paths.get(chunkPath));
+                }
+            } catch (ExecutionException | CancellationException e) {
+                // The chunk failed or never started, so it left no file
+            } catch (IOException e) {
+                System.err.println("Failed to delete report chunk: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Brings a merchant's local ledger up to date by retrieving only the days after the
+     * stored watermark and appending them to the ledger file. Only closed days (up to
+     * yesterday in the default time zone) are retrieved so that a day is never fetched twice.
+     * @param merchant the merchant name used as watermark key
+     * @param ledgerFile the ledger file to append to
+     * @param watermarks the watermark store
+     * @return the path to the ledger file, or null if retrieval failed
      * @throws IOException if an I/O error occurs
      * @throws InterruptedException if the operation is interrupted
      */
-    public String downloadReport(String reportUrl, String reportId) throws IOException, InterruptedException {
-        // Create and send the download request
-        var downloadRequest = httpClient.createDownloadRequest(reportUrl);
-        HttpResponse<String> downloadResponse = httpClient.sendRequest(downloadRequest);
-
-        if (downloadResponse.statusCode() == 200) {
-            // Save the report to a file
-            String reportContent = downloadResponse.body();
-            String fileName = "vipps_ledger_report_" + reportId + ".csv";
-            Path filePath = Paths.get(fileName);
-
-            Files.writeString(filePath, reportContent);
-            System.out.println("Report successfully downloaded and saved to: " + fileName);
-            return filePath.toAbsolutePath().toString();
-        } else {
-            System.err.println("Failed to download report: " + downloadResponse.statusCode());
-            return null;
+    public String syncLedger(String merchant, Path ledgerFile, VippsWatermarkStore watermarks)
+            throws IOException, InterruptedException {
+        return syncLedger(merchant, ledgerFile, watermarks, ZoneId.systemDefault());
+    }
+
+    /**
+     * Brings a merchant's local ledger up to date like
+     * {@link #syncLedger(String, Path, VippsWatermarkStore)}, taking yesterday in the given
+     * time zone as the last closed day
+     * @param merchant the merchant name used as watermark key
+     * @param ledgerFile the ledger file to append to
+     * @param watermarks the watermark store
+     * @param zone the time zone that decides when a day is closed
+     * @return the path to the ledger file, or null if retrieval failed
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public String syncLedger(String merchant, Path ledgerFile, VippsWatermarkStore watermarks, ZoneId zone)
+            throws IOException, InterruptedException {
+        LocalDate lastClosedDay = LocalDate.now(zone).minusDays(1);
+        LocalDate watermark = watermarks.getWatermark(merchant);
+        LocalDate startDate = watermark != null
+                ? watermark.plusDays(1)
+                : lastClosedDay.minusDays(INITIAL_SYNC_DAYS - 1);
+
+        if (startDate.isAfter(lastClosedDay)) {
+            System.out.println("Ledger for " + merchant + " is already up to date (" + watermark + ")");
+            return ledgerFile.toAbsolutePath().toString();
+        }
+
+        // Undo rows appended by a previous run that failed before its watermark was stored
+        long ledgerSize = watermarks.getLedgerSize(merchant);
+        if (ledgerSize >= 0 && Files.exists(ledgerFile) && Files.size(ledgerFile) > ledgerSize) {
+            try (FileChannel channel = FileChannel.open(ledgerFile, StandardOpenOption.WRITE)) {
+                channel.truncate(ledgerSize);
+            }
+        }
+
+        System.out.println("Syncing ledger for " + merchant + ": " + startDate + " to " + lastClosedDay);
+        String ledgerId = "ledger_" + merchant;
+        // Export only the new rows while they are downloaded, unless the sinks may hold rows
+        // of a failed run or do not hold the ledger yet
+        long appendOffset = VippsCsvMerger.appendOffset(ledgerFile);
+        ExportTee export = exportSinks != null && watermark != null && appendOffset >= 0
+                && !watermarks.isExportPending(merchant)
+                ? new ExportTee(exportSinks, ledgerId, ledgerFile, appendOffset) : null;
+        try {
+            String reportPath = requestAndRetrieve(new VippsDateRange(startDate, lastClosedDay), reportId -> export);
+            if (reportPath == null) {
+                return null;
+            }
+
+            Path reportFile = Paths.get(reportPath);
+            VippsCsvMerger.append(reportFile, ledgerFile);
+            Files.deleteIfExists(reportFile);
+            // Commit the export once the rows are in the ledger and before storing the watermark,
+            // so that after a failed export the next run undoes the append and exports the whole ledger
+            if (exportSinks != null) {
+                watermarks.setExportPending(merchant);
+                if (export == null || !export.finish()) {
+                    exportFile(ledgerId, ledgerFile);
+                }
+            }
+        } finally {
+            if (export != null) {
+                export.abort();
+            }
         }
+        watermarks.setWatermark(merchant, lastClosedDay, Files.size(ledgerFile));
+        publish(ledgerFile.toString());
+
+        System.out.println("Ledger for " + merchant + " is up to date to " + lastClosedDay + ": " + ledgerFile);
+        return ledgerFile.toAbsolutePath().toString();
     }
 
     /**
@@ -161,12 +799,237 @@ public class VippsLedgerReportService {
      * @throws InterruptedException if the operation is interrupted
      */
     public String retrieveLedgerReport(String reportId) throws IOException, InterruptedException {
+        return publish(retrieve(reportId, this::exportTeeFor));
+    }
+
+    private String retrieve(String reportId, ExportSelector exports) throws IOException, InterruptedException {
         String reportUrl = pollReportStatus(reportId);
 
         if (reportUrl != null) {
-            return downloadReport(reportUrl, reportId);
+            return download(reportUrl, reportId, exports);
         }
 
         return null;
     }
+
+    /**
+     * Retrieves a ledger report for a date range. If a report cache is configured and holds
+     * the range, the report is served from the cache without contacting the API; otherwise
+     * a new report is requested and the result is added to the cache. Reports served from
+     * the cache get a columnar copy and are indexed like downloaded ones, but are not
+     * exported again, see {@link #setExportSinks(VippsLedgerPipeline.SinkFactory)}.
+     * @param startDate the start date for the report
+     * @param endDate the end date for the report
+     * @return the path to the report file, or null if retrieval failed
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the operation is interrupted
+     */
+    public String retrieveLedgerReport(LocalDate startDate, LocalDate endDate) throws IOException, InterruptedException {
+        return publish(retrieveRange(new VippsDateRange(startDate, endDate), true));
+    }
+
+    private String retrieveRange(VippsDateRange range, boolean exported) throws IOException, InterruptedException {
+        String merchantKey = VippsReportCache.merchantKey(credentialManager);
+        long startTime = System.nanoTime();
+
+        if (reportCache != null) {
+            Path cachedReport = reportCache.get(merchantKey, REPORT_FORMAT, range, compressedStorage, outputDirectory);
+            VippsMetrics.increment("vipps_report_cache_requests_total", "result", cachedReport != null ? "hit" : "miss");
+            if (cachedReport != null) {
+                System.out.println("Report for " + range + " served from cache: " + cachedReport);
+                VippsMetrics.recordSince("vipps_report_retrieval_seconds", startTime, "source", "cache");
+                return cachedReport.toAbsolutePath().toString();
+            }
+        }
+
+        String reportPath = requestAndRetrieve(range, exported ? this::exportTeeFor : NOT_EXPORTED);
+        // Cache hits are not exported, so a report that was not exported must not be cached
+        if (reportPath != null && reportCache != null && (exported || exportSinks == null)) {
+            reportCache.put(merchantKey, REPORT_FORMAT, range, compressedStorage,
+                    reportIdOf(Paths.get(reportPath)), Paths.get(reportPath));
+        }
+        VippsMetrics.recordSince("vipps_report_retrieval_seconds", startTime,
+                "source", reportPath != null ? "api" : "failed");
+        return reportPath;
+    }
+
+    /**
+     * Requests and retrieves a report for a date range. If an earlier run was interrupted
+     * while downloading a report of the same merchant and format for the same range, that
+     * report is polled and its partial download continued instead of requesting a new report.
+     */
+    private String requestAndRetrieve(VippsDateRange range, ExportSelector exports)
+            throws IOException, InterruptedException {
+        String merchantKey = VippsReportCache.merchantKey(credentialManager);
+        VippsDownloadCheckpoint checkpoint =
+                VippsDownloadCheckpoint.find(outputDirectory, merchantKey, REPORT_FORMAT, range);
+        if (checkpoint != null) {
+            System.out.println("Continuing interrupted retrieval of report " + checkpoint.getReportId() +
+                    " for " + range);
+            String reportPath = retrieve(checkpoint.getReportId(), exports);
+            if (reportPath != null) {
+                return reportPath;
+            }
+            // The earlier report is no longer available
+            checkpoint.delete();
+        }
+
+        String reportId = requestLedgerReport(range.getStartDate(), range.getEndDate());
+        if (reportId == null) {
+            return null;
+        }
+
+        checkpoint = checkpointFor(reportId);
+        checkpoint.setRequest(merchantKey, REPORT_FORMAT, range);
+        checkpoint.save();
+        return retrieve(reportId, exports);
+    }
+
+    private static String reportIdOf(Path reportFile) {
+        String fileName = reportFile.getFileName().toString();
+        String prefix = "vipps_ledger_report_";
+        int extension = fileName.indexOf('.', prefix.length());
+        return fileName.substring(prefix.length(), extension > 0 ? extension : fileName.length());
+    }
+
+    /**
+     * Retrieves a ledger report without blocking the calling thread
+     * @param reportId the ID of the report to retrieve
+     * @return a future completed with the path to the downloaded file, or null if retrieval failed
+     */
+    public CompletableFuture<String> retrieveLedgerReportAsync(String reportId) {
+        return pollReportStatusAsync(reportId).thenCompose(reportUrl -> reportUrl == null
+                ? CompletableFuture.completedFuture(null)
+                : downloadReportAsync(reportUrl, reportId));
+    }
+
+    /**
+     * Picks the export tee a report is fed to while it is downloaded
+     */
+    @FunctionalInterface
+    private interface ExportSelector {
+        /**
+         * @return the tee, or null if the report is not exported while it is downloaded
+         */
+        ExportTee teeFor(String reportId);
+    }
+
+    /**
+     * Feeds the bytes of a download to an export pipeline as they are written to the partial
+     * file. A download that starts over replaces the pipeline, and one that continues a
+     * partial file feeds the bytes already on disk first, so the sinks always see the whole
+     * report exactly once.
+     *
+     * <p>A tee for rows that are appended to a ledger is not finished when the download
+     * completes; its owner finishes it once the rows have been appended.</p>
+     */
+    private static final class ExportTee {
+        private final VippsLedgerPipeline.SinkFactory sinkFactory;
+        private final String reportId;
+        private final Path reportFile;
+        private final long appendOffset;
+        private final byte[] scratch = new byte[DOWNLOAD_BUFFER_SIZE];
+        private VippsLedgerPipeline pipeline;
+        private OutputStream input;
+        private long fed;
+        private boolean appendUnsupported;
+
+        ExportTee(VippsLedgerPipeline.SinkFactory sinkFactory, String reportId, Path reportFile) {
+            this(sinkFactory, reportId, reportFile, -1);
+        }
+
+        /**
+         * @param reportFile the file the report is stored in, or the ledger its rows are appended to
+         * @param appendOffset the offset in the ledger the first row is appended at, or -1 for a report
+         */
+        ExportTee(VippsLedgerPipeline.SinkFactory sinkFactory, String reportId, Path reportFile, long appendOffset) {
+            this.sinkFactory = sinkFactory;
+            this.reportId = reportId;
+            this.reportFile = reportFile;
+            this.appendOffset = appendOffset;
+        }
+
+        boolean isAppend() {
+            return appendOffset >= 0;
+        }
+
+        /**
+         * Gets the pipeline ready for a response body that continues the partial file at the given offset
+         */
+        void prepare(VippsDownloadCheckpoint checkpoint, long offset) throws IOException {
+            if (pipeline != null && offset == fed) {
+                return;
+            }
+            if (pipeline != null) {
+                pipeline.abort(new IOException("Download of report " + reportId + " restarted"));
+                pipeline = null;
+            }
+
+            List<VippsLedgerSink> sinks = isAppend()
+                    ? sinkFactory.createAppendSinks(reportId, reportFile)
+                    : sinkFactory.createSinks(reportId, reportFile);
+            appendUnsupported = sinks == null;
+            if (sinks == null || sinks.isEmpty()) {
+                return;
+            }
+            pipeline = new VippsLedgerPipeline(sinks);
+            input = pipeline.start(checkpoint.getEncoding(), appendOffset);
+            fed = 0;
+            if (offset > 0) {
+                try (InputStream part = Files.newInputStream(checkpoint.getPartFile())) {
+                    while (fed < offset) {
+                        int read = part.read(scratch, 0, (int) Math.min(scratch.length, offset - fed));
+                        if (read < 0) {
+                            throw new IOException("Partial file of report " + reportId + " ends at byte " + fed);
+                        }
+                        input.write(scratch, 0, read);
+                        fed += read;
+                    }
+                }
+            }
+        }
+
+        void write(ByteBuffer bytes) throws IOException {
+            if (pipeline == null) {
+                return;
+            }
+            while (bytes.hasRemaining()) {
+                int count = Math.min(bytes.remaining(), scratch.length);
+                bytes.get(scratch, 0, count);
+                input.write(scratch, 0, count);
+                fed += count;
+            }
+        }
+
+        /**
+         * Ends the report and commits the sinks once they have processed it
+         * @return false if the sinks cannot append, so the whole ledger still has to be exported
+         */
+        boolean finish() throws IOException {
+            if (pipeline == null) {
+                return !appendUnsupported;
+            }
+            input.close();
+            try {
+                long rows = pipeline.await();
+                System.out.println("Exported " + rows + " rows of report " + reportId);
+                pipeline = null;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while exporting report " + reportId);
+            }
+        }
+
+        /**
+         * Aborts the sinks unless the export has completed
+         */
+        void abort() {
+            if (pipeline != null) {
+                pipeline.abort(new IOException("Download of report " + reportId + " failed"));
+                pipeline = null;
+                System.err.println("Export of report " + reportId + " aborted");
+            }
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for the rows of a ledger report in a {@link VippsLedgerPipeline}.
+ *
+ * <p>Each sink runs on its own thread: {@link #open}, {@link #accept} and {@link #finish}
+ * are called in that order from that thread. Once every sink has finished, the pipeline
+ * calls {@link #commit()} on all of them; if the report or any sink fails, it calls
+ * {@link #abort()} instead, so a sink should not make its output visible before commit.</p>
+ */
+public interface VippsLedgerSink {
+    /**
+     * Called before the first batch with the columns of the report header
+     * @param columns the report columns
+     * @throws IOException if the sink cannot be opened
+     */
+    default void open(VippsLedgerColumns columns) throws IOException {
+    }
+
+    /**
+     * Receives the next batch of rows. The records are detached copies shared with the
+     * other sinks and must not be modified.
+     * @param records the rows, in report order
+     * @throws IOException if the rows cannot be written
+     */
+    void accept(List<VippsLedgerRecord> records) throws IOException;
+
+    /**
+     * Called after the last batch, on the sink thread, to complete any buffered work
+     * @throws IOException if the remaining rows cannot be written
+     */
+    default void finish() throws IOException {
+    }
+
+    /**
+     * Makes the output of a finished sink visible
+     * @throws IOException if the output cannot be published
+     */
+    void commit() throws IOException;
+
+    /**
+     * Discards any output and releases resources. Called at most once, possibly without
+     * {@link #open} having been called, and must not throw.
+     */
+    void abort();
+}
@@ -0,0 +1,424 @@
+package org.example;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Totals of ledger amounts by entry type, by ledger day and by payout, kept in primitive
+ * {@code long} accumulators. Rows without a ledger date or time are totalled as undated
+ * instead of being counted on a day. Adding a row does not allocate unless it introduces a payout
+ * ID that has not been seen before. Partial totals from separate slices are combined with
+ * {@link #merge(VippsLedgerTotals)}.
+ */
+public final class VippsLedgerTotals {
+    private static final int ENTRY_TYPE_COUNT = VippsLedgerEntryType.values().length;
+
+    private long totalAmount;
+    private long totalCount;
+    private final long[] typeAmounts = new long[ENTRY_TYPE_COUNT];
+    private final long[] typeCounts = new long[ENTRY_TYPE_COUNT];
+    private long undatedAmount;
+    private long undatedCount;
+
+    // Open-addressing table of ledger epoch days; a slot is in use when its count is non-zero,
+    // so dates far apart, e.g. a bad date in one row, do not allocate the days between them
+    private long[] dayKeys = new long[64];
+    private long[] dayAmounts = new long[64];
+    private long[] dayCounts = new long[64];
+    private int daySize;
+
+    // Open-addressing table of payout IDs
+    private String[] payoutKeys = new String[64];
+    private long[] payoutAmounts = new long[64];
+    private long[] payoutCounts = new long[64];
+    private int payoutSize;
+
+    /**
+     * Adds a row to the totals
+     * @param record the row to add
+     */
+    public void add(VippsLedgerRecord record) {
+        long amount = record.getAmountMinor();
+        totalAmount += amount;
+        totalCount++;
+
+        int type = record.getEntryType().ordinal();
+        typeAmounts[type] += amount;
+        typeCounts[type]++;
+
+        if (record.hasLedgerDate()) {
+            int day = daySlot(record.getLedgerEpochDay());
+            dayAmounts[day] += amount;
+            dayCounts[day]++;
+        } else {
+            undatedAmount += amount;
+            undatedCount++;
+        }
+
+        CharSequence payoutId = record.getPayoutId();
+        if (payoutId.length() > 0) {
+            int slot = payoutSlot(payoutId);
+            payoutAmounts[slot] += amount;
+            payoutCounts[slot]++;
+        }
+    }
+
+    /**
+     * Adds another set of totals to this one
+     * @param other the totals to add
+     * @return this instance
+     */
+    public VippsLedgerTotals merge(VippsLedgerTotals other) {
+        totalAmount += other.totalAmount;
+        totalCount += other.totalCount;
+
+        for (int i = 0; i < ENTRY_TYPE_COUNT; i++) {
+            typeAmounts[i] += other.typeAmounts[i];
+            typeCounts[i] += other.typeCounts[i];
+        }
+        undatedAmount += other.undatedAmount;
+        undatedCount += other.undatedCount;
+
+        for (int i = 0; i < other.dayKeys.length; i++) {
+            if (other.dayCounts[i] > 0) {
+                int day = daySlot(other.dayKeys[i]);
+                dayAmounts[day] += other.dayAmounts[i];
+                dayCounts[day] += other.dayCounts[i];
+            }
+        }
+
+        for (int i = 0; i < other.payoutKeys.length; i++) {
+            if (other.payoutKeys[i] != null) {
+                int slot = payoutSlot(other.payoutKeys[i]);
+                payoutAmounts[slot] += other.payoutAmounts[i];
+                payoutCounts[slot] += other.payoutCounts[i];
+            }
+        }
+
+        return this;
+    }
+
+    public long getTotalAmount() {
+        return totalAmount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getAmount(VippsLedgerEntryType entryType) {
+        return typeAmounts[entryType.ordinal()];
+    }
+
+    public long getCount(VippsLedgerEntryType entryType) {
+        return typeCounts[entryType.ordinal()];
+    }
+
+    /**
+     * @return the amount of the rows without a ledger date or time
+     */
+    public long getUndatedAmount() {
+        return undatedAmount;
+    }
+
+    /**
+     * @return the number of rows without a ledger date or time
+     */
+    public long getUndatedCount() {
+        return undatedCount;
+    }
+
+    /**
+     * @return amount per ledger day, in date order, for days that have entries
+     */
+    public Map<LocalDate, Long> getDayAmounts() {
+        Map<LocalDate, Long> days = new TreeMap<>();
+        for (int slot : sortedDaySlots()) {
+            days.put(LocalDate.ofEpochDay(dayKeys[slot]), dayAmounts[slot]);
+        }
+        return days;
+    }
+
+    /**
+     * @return amount per payout ID, sorted by ID
+     */
+    public Map<String, Long> getPayoutAmounts() {
+        Map<String, Long> payouts = new TreeMap<>();
+        for (int i = 0; i < payoutKeys.length; i++) {
+            if (payoutKeys[i] != null) {
+                payouts.put(payoutKeys[i], payoutAmounts[i]);
+            }
+        }
+        return payouts;
+    }
+
+    /**
+     * Writes the totals as CSV with the columns dimension, key, count and amountMinor.
+     * Undated rows are written with the dimension "undated" and an empty key.
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("dimension,key,count,amountMinor\n");
+            writeCsvRow(writer, "total", "", totalCount, totalAmount);
+
+            for (VippsLedgerEntryType type : VippsLedgerEntryType.values()) {
+                if (typeCounts[type.ordinal()] > 0) {
+                    writeCsvRow(writer, "entryType", type.name(), typeCounts[type.ordinal()], typeAmounts[type.ordinal()]);
+                }
+            }
+            for (int slot : sortedDaySlots()) {
+                writeCsvRow(writer, "day", LocalDate.ofEpochDay(dayKeys[slot]).toString(),
+                        dayCounts[slot], dayAmounts[slot]);
+            }
+            if (undatedCount > 0) {
+                writeCsvRow(writer, "undated", "", undatedCount, undatedAmount);
+            }
+            for (String payoutId : getPayoutAmounts().keySet()) {
+                int slot = payoutSlot(payoutId);
+                writeCsvRow(writer, "payout", payoutId, payoutCounts[slot], payoutAmounts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Writes the totals as a JSON document
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeJson(Path file) throws IOException {
+        JSONObject byType = new JSONObject();
+        for (VippsLedgerEntryType type : VippsLedgerEntryType.values()) {
+            if (typeCounts[type.ordinal()] > 0) {
+                byType.put(type.name(), entry(typeCounts[type.ordinal()], typeAmounts[type.ordinal()]));
+            }
+        }
+
+        JSONObject byDay = new JSONObject();
+        for (int slot : sortedDaySlots()) {
+            byDay.put(LocalDate.ofEpochDay(dayKeys[slot]).toString(), entry(dayCounts[slot], dayAmounts[slot]));
+        }
+
+        JSONObject byPayout = new JSONObject();
+        for (int i = 0; i < payoutKeys.length; i++) {
+            if (payoutKeys[i] != null) {
+                byPayout.put(payoutKeys[i], entry(payoutCounts[i], payoutAmounts[i]));
+            }
+        }
+
+        JSONObject summary = new JSONObject();
+        summary.put("total", entry(totalCount, totalAmount));
+        summary.put("byEntryType", byType);
+        summary.put("byDay", byDay);
+        if (undatedCount > 0) {
+            summary.put("undated", entry(undatedCount, undatedAmount));
+        }
+        summary.put("byPayout", byPayout);
+        Files.writeString(file, summary.toString(2));
+    }
+
+    /**
+     * Reads totals written by {@link #writeJson(Path)}, e.g. to add the totals of new rows to them
+     * @param file the file to read
+     * @return the totals
+     * @throws IOException if an I/O error occurs
+     */
+    public static VippsLedgerTotals readJson(Path file) throws IOException {
+        JSONObject summary = new JSONObject(Files.readString(file));
+        VippsLedgerTotals totals = new VippsLedgerTotals();
+
+        JSONObject total = summary.getJSONObject("total");
+        totals.totalCount = total.getLong("count");
+        totals.totalAmount = total.getLong("amountMinor");
+
+        JSONObject byType = summary.getJSONObject("byEntryType");
+        for (String name : byType.keySet()) {
+            int type = VippsLedgerEntryType.valueOf(name).ordinal();
+            totals.typeCounts[type] = byType.getJSONObject(name).getLong("count");
+            totals.typeAmounts[type] = byType.getJSONObject(name).getLong("amountMinor");
+        }
+
+        JSONObject byDay = summary.getJSONObject("byDay");
+        for (String day : byDay.keySet()) {
+            int slot = totals.daySlot(LocalDate.parse(day).toEpochDay());
+            totals.dayCounts[slot] = byDay.getJSONObject(day).getLong("count");
+            totals.dayAmounts[slot] = byDay.getJSONObject(day).getLong("amountMinor");
+        }
+
+        JSONObject undated = summary.optJSONObject("undated");
+        if (undated != null) {
+            totals.undatedCount = undated.getLong("count");
+            totals.undatedAmount = undated.getLong("amountMinor");
+        }
+
+        JSONObject byPayout = summary.getJSONObject("byPayout");
+        for (String payoutId : byPayout.keySet()) {
+            int slot = totals.payoutSlot(payoutId);
+            totals.payoutCounts[slot] = byPayout.getJSONObject(payoutId).getLong("count");
+            totals.payoutAmounts[slot] = byPayout.getJSONObject(payoutId).getLong("amountMinor");
+        }
+        return totals;
+    }
+
+    private static JSONObject entry(long count, long amount) {
+        JSONObject entry = new JSONObject();
+        entry.put("count", count);
+        entry.put("amountMinor", amount);
+        return entry;
+    }
+
+    private static void writeCsvRow(Writer writer, String dimension, String key, long count, long amount)
+            throws IOException {
+        writer.write(dimension);
+        writer.write(',');
+        writer.write(key.indexOf(',') >= 0 || key.indexOf('"') >= 0 ? '"' + key.replace("\"", "\"\"") + '"' : key);
+        writer.write(',');
+        writer.write(Long.toString(count));
+        writer.write(',');
+        writer.write(Long.toString(amount));
+        writer.write('\n');
+    }
+
+    /**
+     * Finds or creates the table slot for a ledger day. A new slot is only marked as in use
+     * once the caller adds to its count.
+     */
+    private int daySlot(long epochDay) {
+        int mask = dayKeys.length - 1;
+        int slot = hash(epochDay) & mask;
+
+        while (dayCounts[slot] > 0) {
+            if (dayKeys[slot] == epochDay) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if ((daySize + 1) * 2 > dayKeys.length) {
+            resizeDays();
+            return daySlot(epochDay);
+        }
+        dayKeys[slot] = epochDay;
+        daySize++;
+        return slot;
+    }
+
+    private void resizeDays() {
+        long[] keys = dayKeys;
+        long[] amounts = dayAmounts;
+        long[] counts = dayCounts;
+
+        dayKeys = new long[keys.length * 2];
+        dayAmounts = new long[keys.length * 2];
+        dayCounts = new long[keys.length * 2];
+        int mask = dayKeys.length - 1;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] > 0) {
+                int slot = hash(keys[i]) & mask;
+                while (dayCounts[slot] > 0) {
+                    slot = (slot + 1) & mask;
+                }
+                dayKeys[slot] = keys[i];
+                dayAmounts[slot] = amounts[i];
+                dayCounts[slot] = counts[i];
+            }
+        }
+    }
+
+    /**
+     * @return the slots of the days in use, in date order
+     */
+    private int[] sortedDaySlots() {
+        long[] days = new long[daySize];
+        int count = 0;
+        for (int i = 0; i < dayKeys.length; i++) {
+            if (dayCounts[i] > 0) {
+                days[count++] = dayKeys[i];
+            }
+        }
+        Arrays.sort(days, 0, count);
+
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = daySlot(days[i]);
+        }
+        return slots;
+    }
+
+    /**
+     * Finds or creates the table slot for a payout ID without allocating for existing IDs
+     */
+    private int payoutSlot(CharSequence key) {
+        int mask = payoutKeys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (payoutKeys[slot] != null) {
+            if (contentEquals(payoutKeys[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        payoutKeys[slot] = key.toString();
+        payoutSize++;
+        if (payoutSize * 2 > payoutKeys.length) {
+            resizePayouts();
+            return payoutSlot(key);
+        }
+        return slot;
+    }
+
+    private void resizePayouts() {
+        String[] keys = payoutKeys;
+        long[] amounts = payoutAmounts;
+        long[] counts = payoutCounts;
+
+        payoutKeys = new String[keys.length * 2];
+        payoutAmounts = new long[keys.length * 2];
+        payoutCounts = new long[keys.length * 2];
+        int mask = payoutKeys.length - 1;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                int slot = hash(keys[i]) & mask;
+                while (payoutKeys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                payoutKeys[slot] = keys[i];
+                payoutAmounts[slot] = amounts[i];
+                payoutCounts[slot] = counts[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        int hash = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(CharSequence key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(String stored, CharSequence key) {
+        if (key instanceof VippsLedgerField) {
+            return ((VippsLedgerField) key).contentEquals(stored);
+        }
+        return stored.contentEquals(key);
+    }
+}
@@ -0,0 +1,12 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * Callback for the hot parsing path. The record passed to {@link #visit} is reused for
+ * every row and must not be retained; call {@link VippsLedgerRecord#copy()} to keep it.
+ */
+@FunctionalInterface
+public interface VippsLedgerVisitor {
+    void visit(VippsLedgerRecord record) throws IOException;
+}
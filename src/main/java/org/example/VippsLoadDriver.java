@@ -0,0 +1,256 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Drives many concurrent report pipelines (authenticate, request, poll, download) against a
+ * Vipps API, normally a {@link VippsMockApiServer}, and reports throughput and latency.
+ *
+ * <p>Every pipeline has its own credentials and subscription key, like separate merchants,
+ * and runs its jobs one after another. All pipelines share one {@link VippsHttpClient}, so
+ * the result reflects the client's connection handling, rate limiter and retry layer under
+ * load. Per-request latencies are taken from the {@code vipps_http_request_duration_seconds}
+ * metric, which is captured while the run is in progress.</p>
+ */
+public class VippsLoadDriver {
+    private static final String REQUEST_LATENCY = "vipps_http_request_duration_seconds";
+
+    private final VippsHttpClient httpClient;
+    private final String baseUrl;
+    private int pipelines = 100;
+    private int jobsPerPipeline = 5;
+    private VippsDateRange range = new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+
+    public VippsLoadDriver(VippsHttpClient httpClient, String baseUrl) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+    }
+
+    public void setPipelines(int pipelines) {
+        this.pipelines = pipelines;
+    }
+
+    public void setJobsPerPipeline(int jobsPerPipeline) {
+        this.jobsPerPipeline = jobsPerPipeline;
+    }
+
+    /**
+     * @param range the date range requested by every job
+     */
+    public void setRange(VippsDateRange range) {
+        this.range = range;
+    }
+
+    /**
+     * Runs all pipelines to completion. Downloaded reports are written to a temporary
+     * directory and deleted as soon as each job has finished.
+     * @return the measured throughput and latencies
+     * @throws IOException if the download directory cannot be created
+     * @throws InterruptedException if the run is interrupted
+     */
+    public Result run() throws IOException, InterruptedException {
+        Path outputDirectory = Files.createTempDirectory("vipps-load");
+        VippsMetricsRegistry previousRegistry = VippsMetrics.getRegistry();
+        RecordingRegistry registry = new RecordingRegistry(previousRegistry);
+        Samples jobLatencies = new Samples();
+        AtomicLong failures = new AtomicLong();
+        List<VippsAuthService> authServices = new ArrayList<>();
+
+        VippsMetrics.setRegistry(registry);
+        long startTime = System.nanoTime();
+        try {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[pipelines];
+            for (int i = 0; i < pipelines; i++) {
+                VippsCredentialManager credentials = new VippsCredentialManager(
+                        "load-client-" + i, "load-secret-" + i, "load-key-" + i);
+                VippsAuthService authService = new VippsAuthService(credentials, httpClient, baseUrl);
+                authServices.add(authService);
+                VippsLedgerReportService reportService =
+                        new VippsLedgerReportService(authService, httpClient, credentials, baseUrl);
+                reportService.setOutputDirectory(outputDirectory);
+                futures[i] = runJobs(reportService, jobsPerPipeline, jobLatencies, failures);
+            }
+            CompletableFuture.allOf(futures).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Load pipeline failed", e.getCause());
+        } finally {
+            for (VippsAuthService authService : authServices) {
+                authService.close();
+            }
+            VippsMetrics.setRegistry(previousRegistry);
+            deleteDirectory(outputDirectory);
+        }
+
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return new Result(pipelines, jobLatencies.size(), failures.get(), elapsedSeconds,
+                jobLatencies, registry.requestLatencies);
+    }
+
+    /**
+     * Runs the remaining jobs of one pipeline sequentially
+     */
+    private CompletableFuture<Void> runJobs(VippsLedgerReportService reportService, int remaining,
+                                            Samples jobLatencies, AtomicLong failures) {
+        if (remaining == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long jobStart = System.nanoTime();
+        return reportService.requestLedgerReportAsync(range.getStartDate(), range.getEndDate())
+                .thenCompose(reportId -> reportId == null
+                        ? CompletableFuture.<String>completedFuture(null)
+                        : reportService.retrieveLedgerReportAsync(reportId))
+                .handle((reportPath, error) -> {
+                    if (reportPath == null || error != null) {
+                        failures.incrementAndGet();
+                        return null;
+                    }
+                    jobLatencies.add((System.nanoTime() - jobStart) / 1_000_000_000.0);
+                    try {
+                        Files.deleteIfExists(Paths.get(reportPath));
+                    } catch (IOException e) {
+                        System.err.println("Failed to delete " + reportPath + ": " + e.getMessage());
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> runJobs(reportService, remaining - 1, jobLatencies, failures));
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Captures request latencies by endpoint and passes every metric on to the installed registry
+     */
+    private static final class RecordingRegistry implements VippsMetricsRegistry {
+        private final VippsMetricsRegistry delegate;
+        private final Map<String, Samples> requestLatencies = new ConcurrentHashMap<>();
+
+        RecordingRegistry(VippsMetricsRegistry delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void increment(String name, long amount, String... tags) {
+            delegate.increment(name, amount, tags);
+        }
+
+        @Override
+        public void record(String name, double value, String... tags) {
+            if (name.equals(REQUEST_LATENCY) && tags.length >= 2 && tags[0].equals("endpoint")) {
+                requestLatencies.computeIfAbsent(tags[1], key -> new Samples()).add(value);
+            }
+            delegate.record(name, value, tags);
+        }
+    }
+
+    /**
+     * Growable list of latency samples in seconds
+     */
+    static final class Samples {
+        private double[] values = new double[1024];
+        private int size;
+
+        synchronized void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * @param quantile the quantile, between 0 and 1
+         * @return the sample at the quantile using the nearest-rank method, or 0 if there are no samples
+         */
+        synchronized double quantile(double quantile) {
+            if (size == 0) {
+                return 0;
+            }
+            double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(quantile * size);
+            return sorted[Math.max(0, Math.min(size - 1, rank - 1))];
+        }
+    }
+
+    /**
+     * Outcome of a load run
+     */
+    public static final class Result {
+        private final int pipelines;
+        private final long jobs;
+        private final long failures;
+        private final double elapsedSeconds;
+        private final Samples jobLatencies;
+        private final Map<String, Samples> requestLatencies;
+
+        Result(int pipelines, long jobs, long failures, double elapsedSeconds,
+               Samples jobLatencies, Map<String, Samples> requestLatencies) {
+            this.pipelines = pipelines;
+            this.jobs = jobs;
+            this.failures = failures;
+            this.elapsedSeconds = elapsedSeconds;
+            this.jobLatencies = jobLatencies;
+            this.requestLatencies = requestLatencies;
+        }
+
+        public long getJobs() {
+            return jobs;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getJobsPerSecond() {
+            return elapsedSeconds > 0 ? jobs / elapsedSeconds : 0;
+        }
+
+        /**
+         * @param quantile the quantile, between 0 and 1
+         * @return the end-to-end job latency at the quantile in seconds
+         */
+        public double getJobLatency(double quantile) {
+            return jobLatencies.quantile(quantile);
+        }
+
+        /**
+         * Prints a summary of the run
+         */
+        public void print() {
+            System.out.printf("%d pipelines, %d jobs completed, %d failed in %.1f s (%.2f jobs/s)%n",
+                    pipelines, jobs, failures, elapsedSeconds, getJobsPerSecond());
+            System.out.printf("  %-10s p50 %8.1f ms   p99 %8.1f ms%n", "job",
+                    jobLatencies.quantile(0.5) * 1000, jobLatencies.quantile(0.99) * 1000);
+            for (Map.Entry<String, Samples> endpoint : new TreeMap<>(requestLatencies).entrySet()) {
+                Samples samples = endpoint.getValue();
+                System.out.printf("  %-10s p50 %8.1f ms   p99 %8.1f ms   (%d requests)%n", endpoint.getKey(),
+                        samples.quantile(0.5) * 1000, samples.quantile(0.99) * 1000, samples.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+/**
+ * Global holder of the {@link VippsMetricsRegistry} that the client, auth and report
+ * services record to. Metrics are discarded until a registry is installed.
+ */
+public final class VippsMetrics {
+    private static final VippsMetricsRegistry NOOP = new VippsMetricsRegistry() {
+        @Override
+        public void increment(String name, long amount, String... tags) {
+        }
+
+        @Override
+        public void record(String name, double value, String... tags) {
+        }
+    };
+
+    private static volatile VippsMetricsRegistry registry = NOOP;
+
+    private VippsMetrics() {
+    }
+
+    public static VippsMetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Installs the registry that all metrics are recorded to
+     * @param metricsRegistry the registry, or null to discard metrics
+     */
+    public static void setRegistry(VippsMetricsRegistry metricsRegistry) {
+        registry = metricsRegistry != null ? metricsRegistry : NOOP;
+    }
+
+    public static void increment(String name, String... tags) {
+        registry.increment(name, 1, tags);
+    }
+
+    public static void increment(String name, long amount, String... tags) {
+        registry.increment(name, amount, tags);
+    }
+
+    public static void record(String name, double value, String... tags) {
+        registry.record(name, value, tags);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} reading, in seconds
+     * @param name the metric name
+     * @param startNanos the start time
+     * @param tags alternating tag names and values
+     */
+    public static void recordSince(String name, long startNanos, String... tags) {
+        registry.record(name, (System.nanoTime() - startNanos) / 1_000_000_000.0, tags);
+    }
+}
@@ -0,0 +1,27 @@
+package org.example;
+
+/**
+ * Destination for pipeline metrics. Metric names follow Prometheus conventions: counters
+ * end in {@code _total} and durations are recorded in seconds with a {@code _seconds}
+ * suffix. Tags are passed as alternating names and values.
+ *
+ * @see VippsMetrics
+ * @see VippsPrometheusRegistry
+ */
+public interface VippsMetricsRegistry {
+    /**
+     * Adds to a counter
+     * @param name the metric name
+     * @param amount the amount to add
+     * @param tags alternating tag names and values
+     */
+    void increment(String name, long amount, String... tags);
+
+    /**
+     * Records an observation in a histogram, such as a duration in seconds
+     * @param name the metric name
+     * @param value the observed value
+     * @param tags alternating tag names and values
+     */
+    void record(String name, double value, String... tags);
+}
@@ -0,0 +1,377 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Embeddable local stand-in for the Vipps Report API, for load and latency testing. It
+ * implements {@code /accessToken/get}, report creation and status under
+ * {@code /vipps-report/v1/report}, and serves the finished reports as synthetic ledgers.
+ *
+ * <p>Response latency, report generation time, the rate of injected 500 responses, a
+ * per-subscription-key request quota answered with 429 and the number of ledger rows per
+ * report are configurable. Simulated latency is applied on a scheduler, so slow responses
+ * do not hold server threads. Downloads support gzip and byte ranges like the real storage.</p>
+ */
+public class VippsMockApiServer implements Closeable {
+    private static final String REPORT_PATH = "/vipps-report/v1/report";
+    private static final String FILES_PATH = "/files/";
+
+    private final HttpServer server;
+    private final ExecutorService handlerExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Report> reports = new ConcurrentHashMap<>();
+    private final Map<String, long[]> quotaWindows = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile long generationMillis = 2000;
+    private volatile double failureRate;
+    private volatile int requestsPerSecond;
+    private volatile int retryAfterSeconds = 1;
+    private volatile long reportRows = 1000;
+    private volatile CachedReport cachedReport;
+
+    /**
+     * Creates a server on the loopback interface
+     * @param port the port to listen on, or 0 for a free port
+     * @throws IOException if the port cannot be bound
+     */
+    public VippsMockApiServer(int port) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.handlerExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "vipps-mock-api-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vipps-mock-api-latency");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(handlerExecutor);
+        server.createContext("/accessToken/get", exchange -> handle(exchange, this::handleToken));
+        server.createContext(REPORT_PATH, exchange -> handle(exchange, this::handleReport));
+        server.createContext(FILES_PATH, exchange -> handle(exchange, this::handleDownload));
+    }
+
+    /**
+     * Sets the simulated latency of every response
+     * @param latency the base latency
+     * @param jitter the maximum random latency added on top
+     */
+    public void setLatency(Duration latency, Duration jitter) {
+        this.latencyMillis = latency.toMillis();
+        this.latencyJitterMillis = jitter.toMillis();
+    }
+
+    /**
+     * @param generationTime how long after creation a report reports COMPLETED
+     */
+    public void setGenerationTime(Duration generationTime) {
+        this.generationMillis = generationTime.toMillis();
+    }
+
+    /**
+     * @param failureRate the fraction of requests answered with 500, between 0 and 1
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Limits the requests per second and subscription key. Requests over the quota are
+     * answered with 429 and a Retry-After header.
+     * @param requestsPerSecond the quota, or 0 for no limit
+     * @param retryAfterSeconds the Retry-After value sent with 429 responses
+     */
+    public void setRateLimit(int requestsPerSecond, int retryAfterSeconds) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @param reportRows the number of ledger rows in every report
+     */
+    public void setReportRows(long reportRows) {
+        this.reportRows = reportRows;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        handlerExecutor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Applies quota, failure injection and latency before running the endpoint handler
+     */
+    private void handle(HttpExchange exchange, Handler handler) {
+        requestCount.incrementAndGet();
+        try {
+            if (isOverQuota(exchange)) {
+                throttledCount.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                exchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+                respondLater(exchange, 429, "{\"error\":\"Too many requests\"}");
+                return;
+            }
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failedCount.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                respondLater(exchange, 500, "{\"error\":\"Injected failure\"}");
+                return;
+            }
+
+            long delay = latency();
+            if (delay > 0) {
+                scheduler.schedule(() -> handlerExecutor.execute(() -> run(exchange, handler)), delay, TimeUnit.MILLISECONDS);
+            } else {
+                run(exchange, handler);
+            }
+        } catch (IOException | RuntimeException e) {
+            exchange.close();
+        }
+    }
+
+    private void run(HttpExchange exchange, Handler handler) {
+        try {
+            handler.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            // The client went away or the request was malformed
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleToken(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        JSONObject token = new JSONObject();
+        token.put("token_type", "Bearer");
+        token.put("expires_in", 3600);
+        token.put("access_token", "mock-" + UUID.randomUUID());
+        respond(exchange, 200, token.toString());
+    }
+
+    private void handleReport(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+
+        if (exchange.getRequestMethod().equals("POST") && path.equals(REPORT_PATH)) {
+            JSONObject body = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            VippsDateRange range = new VippsDateRange(
+                    LocalDate.parse(body.getString("startDate")), LocalDate.parse(body.getString("endDate")));
+            String reportId = UUID.randomUUID().toString();
+            reports.put(reportId, new Report(range, System.currentTimeMillis() + generationMillis));
+            respond(exchange, 200, new JSONObject().put("reportId", reportId).toString());
+            return;
+        }
+
+        String reportId = path.substring(path.lastIndexOf('/') + 1);
+        Report report = reports.get(reportId);
+        if (report == null) {
+            respond(exchange, 404, "{\"error\":\"Unknown report\"}");
+            return;
+        }
+
+        JSONObject status = new JSONObject().put("reportId", reportId);
+        long remaining = report.readyAt - System.currentTimeMillis();
+        if (remaining > 0) {
+            status.put("status", "PROCESSING");
+            status.put("retryAfter", (remaining + 999) / 1000);
+        } else {
+            status.put("status", "COMPLETED");
+            status.put("reportUrl", getBaseUrl() + FILES_PATH + reportId + ".csv");
+        }
+        respond(exchange, 200, status.toString());
+    }
+
+    private void handleDownload(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String reportId = path.substring(FILES_PATH.length()).replace(".csv", "");
+        Report report = reports.get(reportId);
+        if (report == null || report.readyAt > System.currentTimeMillis()) {
+            respond(exchange, 404, "{\"error\":\"Unknown report\"}");
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] content = reportContent(report.range, gzip);
+        String etag = "\"" + reportId + (gzip ? "-gz" : "") + "\"";
+
+        exchange.getResponseHeaders().add("Content-Type", "text/csv");
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+
+        int offset = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-") && (ifRange == null || ifRange.equals(etag))) {
+            offset = Integer.parseInt(range.substring(6, range.length() - 1));
+            if (offset >= content.length) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - offset);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(content, offset, content.length - offset);
+        }
+    }
+
+    /**
+     * Generates the report content, reusing the last report if the range, size and encoding match
+     */
+    private byte[] reportContent(VippsDateRange range, boolean gzip) throws IOException {
+        long rows = reportRows;
+        CachedReport cached = cachedReport;
+        if (cached != null && cached.range.equals(range) && cached.rows == rows && cached.gzip == gzip) {
+            return cached.content;
+        }
+
+        byte[] content = VippsSyntheticLedger.generate(range, rows);
+        if (gzip) {
+            java.io.ByteArrayOutputStream compressed = new java.io.ByteArrayOutputStream(content.length / 4);
+            try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(content);
+            }
+            content = compressed.toByteArray();
+        }
+        cachedReport = new CachedReport(range, rows, gzip, content);
+        return content;
+    }
+
+    private boolean isOverQuota(HttpExchange exchange) {
+        int quota = requestsPerSecond;
+        if (quota <= 0 || exchange.getRequestURI().getPath().startsWith(FILES_PATH)) {
+            return false;
+        }
+        String key = exchange.getRequestHeaders().getFirst("Ocp-Apim-Subscription-Key");
+        long second = System.currentTimeMillis() / 1000;
+        long[] window = quotaWindows.computeIfAbsent(key != null ? key : "", k -> new long[2]);
+
+        synchronized (window) {
+            if (window[0] != second) {
+                window[0] = second;
+                window[1] = 0;
+            }
+            return ++window[1] > quota;
+        }
+    }
+
+    private long latency() {
+        long jitter = latencyJitterMillis;
+        return latencyMillis + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+    }
+
+    private void respondLater(HttpExchange exchange, int status, String body) {
+        long delay = latency();
+        Runnable send = () -> {
+            try {
+                respond(exchange, status, body);
+            } catch (IOException ignored) {
+                // The client went away
+            } finally {
+                exchange.close();
+            }
+        };
+        if (delay > 0) {
+            scheduler.schedule(send, delay, TimeUnit.MILLISECONDS);
+        } else {
+            send.run();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static final class Report {
+        final VippsDateRange range;
+        final long readyAt;
+
+        Report(VippsDateRange range, long readyAt) {
+            this.range = range;
+            this.readyAt = readyAt;
+        }
+    }
+
+    private static final class CachedReport {
+        final VippsDateRange range;
+        final long rows;
+        final boolean gzip;
+        final byte[] content;
+
+        CachedReport(VippsDateRange range, long rows, boolean gzip, byte[] content) {
+            this.range = range;
+            this.rows = rows;
+            this.gzip = gzip;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics registry that keeps counters and fixed-bucket histograms in memory and renders
+ * them in the Prometheus text exposition format. The metrics can be written to a file,
+ * e.g. for the node exporter's textfile collector, or served over HTTP at {@code /metrics}.
+ */
+public class VippsPrometheusRegistry implements VippsMetricsRegistry {
+    private static final double[] DEFAULT_BUCKETS = {
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600
+    };
+
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms = new ConcurrentHashMap<>();
+    private final Map<String, double[]> buckets = new ConcurrentHashMap<>();
+
+    public VippsPrometheusRegistry() {
+        setBuckets("vipps_report_poll_attempts", 1, 2, 3, 5, 10, 20, 50, 100);
+    }
+
+    /**
+     * Sets the bucket upper bounds of a histogram. Series that already exist keep their buckets.
+     * @param name the metric name
+     * @param upperBounds the bucket upper bounds in ascending order
+     */
+    public void setBuckets(String name, double... upperBounds) {
+        double[] bounds = upperBounds.clone();
+        Arrays.sort(bounds);
+        buckets.put(name, bounds);
+    }
+
+    @Override
+    public void increment(String name, long amount, String... tags) {
+        counters.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels(tags), key -> new LongAdder())
+                .add(amount);
+    }
+
+    @Override
+    public void record(String name, double value, String... tags) {
+        histograms.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels(tags), key -> new Histogram(buckets.getOrDefault(name, DEFAULT_BUCKETS)))
+                .observe(value);
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format
+     * @param writer the writer to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Map.Entry<String, ConcurrentMap<String, LongAdder>> metric : new TreeMap<>(counters).entrySet()) {
+            String name = metric.getKey();
+            writer.write("# TYPE " + name + " counter\n");
+            for (Map.Entry<String, LongAdder> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                writer.write(name + braces(series.getKey()) + " " + series.getValue().sum() + "\n");
+            }
+        }
+
+        for (Map.Entry<String, ConcurrentMap<String, Histogram>> metric : new TreeMap<>(histograms).entrySet()) {
+            String name = metric.getKey();
+            writer.write("# TYPE " + name + " histogram\n");
+            for (Map.Entry<String, Histogram> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                series.getValue().writeTo(writer, name, series.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format
+     */
+    public String scrape() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes all metrics to a file atomically, so a collector never reads a partial file
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+        try {
+            Files.writeString(tempFile, scrape());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Serves the metrics over HTTP at {@code /metrics}
+     * @param address the address to listen on
+     * @return the running server; stop it to close the endpoint
+     * @throws IOException if the server cannot be started
+     */
+    public HttpServer startServer(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Renders tags as a Prometheus label set without braces, e.g. {@code endpoint="AUTH",status="200"}
+     */
+    private static String labels(String... tags) {
+        if (tags.length == 0) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(tags[i]).append("=\"");
+            String value = tags[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static final class Histogram {
+        private final double[] upperBounds;
+        private final LongAdder[] bucketCounts;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.bucketCounts = new LongAdder[upperBounds.length];
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        void observe(double value) {
+            for (int i = 0; i < upperBounds.length; i++) {
+                if (value <= upperBounds[i]) {
+                    bucketCounts[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        void writeTo(Writer writer, String name, String labels) throws IOException {
+            String separator = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                cumulative += bucketCounts[i].sum();
+                writer.write(name + "_bucket{" + separator + "le=\"" + upperBounds[i] + "\"} " + cumulative + "\n");
+            }
+            // Observations racing with the scrape may show up in the count before their bucket
+            long total = Math.max(count.sum(), cumulative);
+            writer.write(name + "_bucket{" + separator + "le=\"+Inf\"} " + total + "\n");
+            writer.write(name + "_sum" + braces(labels) + " " + sum.sum() + "\n");
+            writer.write(name + "_count" + braces(labels) + " " + total + "\n");
+        }
+    }
+}
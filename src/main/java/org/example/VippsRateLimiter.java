@@ -0,0 +1,151 @@
+package org.example;
+
+import java.net.http.HttpRequest;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side token bucket rate limiter with a separate bucket per endpoint class and
+ * subscription key. Callers reserve a permit and are told how long to wait for it, so
+ * asynchronous callers wait on a timer instead of holding a thread, and requests are
+ * spaced evenly at the configured rate rather than sent in bursts that trigger 429s.
+ *
+ * <p>Each bucket allows at most {@code burst} requests at once after an idle period and
+ * otherwise one request every {@code 1 / permitsPerSecond} seconds. A 429 response pauses
+ * the bucket for the time the server asked for.</p>
+ */
+public class VippsRateLimiter {
+    private final Map<VippsEndpoint, double[]> rates = new EnumMap<>(VippsEndpoint.class);
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a limiter with default rates for the API endpoints. Downloads are not limited,
+     * since report files are served outside the API quota.
+     */
+    public VippsRateLimiter() {
+        setRate(VippsEndpoint.AUTH, 2, 2);
+        setRate(VippsEndpoint.REPORT, 5, 5);
+        setRate(VippsEndpoint.STATUS, 10, 10);
+        setRate(VippsEndpoint.DOWNLOAD, 0, 0);
+    }
+
+    /**
+     * @return a limiter that never delays a request
+     */
+    public static VippsRateLimiter unlimited() {
+        VippsRateLimiter limiter = new VippsRateLimiter();
+        for (VippsEndpoint endpoint : VippsEndpoint.values()) {
+            limiter.setRate(endpoint, 0, 0);
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets the rate for an endpoint class. Buckets that already exist keep their old rate.
+     * @param endpoint the endpoint class
+     * @param permitsPerSecond the sustained request rate per subscription key, or 0 for no limit
+     * @param burst the number of requests that may be sent at once after an idle period
+     */
+    public synchronized void setRate(VippsEndpoint endpoint, double permitsPerSecond, int burst) {
+        rates.put(endpoint, new double[]{permitsPerSecond, Math.max(1, burst)});
+    }
+
+    /**
+     * Reserves a permit for a request
+     * @param request the request to send
+     * @return the number of nanoseconds to wait before sending it
+     */
+    public long reserve(HttpRequest request) {
+        Bucket bucket = bucketFor(request);
+        if (bucket == null) {
+            return 0;
+        }
+        long waitNanos = bucket.reserve(System.nanoTime());
+        VippsMetrics.record("vipps_rate_limiter_wait_seconds", waitNanos / 1_000_000_000.0,
+                "endpoint", VippsEndpoint.of(request).name());
+        return waitNanos;
+    }
+
+    /**
+     * Waits for a permit for a request
+     * @param request the request to send
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(HttpRequest request) throws InterruptedException {
+        long waitNanos = reserve(request);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Reserves a permit for a request without blocking
+     * @param request the request to send
+     * @param executor the executor to complete the future on after a wait, or null for the default
+     * @return a future completed when the request may be sent
+     */
+    public CompletableFuture<Void> acquireAsync(HttpRequest request, Executor executor) {
+        long waitNanos = reserve(request);
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Executor delayed = executor != null
+                ? CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS, executor)
+                : CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS);
+        return CompletableFuture.runAsync(() -> { }, delayed);
+    }
+
+    /**
+     * Pauses the bucket of a request after the server rejected it with 429
+     * @param request the rejected request
+     * @param pauseMillis how long the server asked to wait
+     */
+    public void onThrottled(HttpRequest request, long pauseMillis) {
+        Bucket bucket = bucketFor(request);
+        if (bucket != null && pauseMillis > 0) {
+            bucket.pause(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+        }
+    }
+
+    private Bucket bucketFor(HttpRequest request) {
+        VippsEndpoint endpoint = VippsEndpoint.of(request);
+        String subscriptionKey = request.headers().firstValue("Ocp-Apim-Subscription-Key").orElse("");
+        return buckets.computeIfAbsent(endpoint + "|" + subscriptionKey, key -> {
+            double[] rate;
+            synchronized (this) {
+                rate = rates.get(endpoint);
+            }
+            return rate[0] > 0 ? new Bucket(rate[0], (int) rate[1]) : null;
+        });
+    }
+
+    /**
+     * Token bucket kept as the time the next permit becomes free. Unused capacity
+     * accumulates up to the burst size while the bucket is idle.
+     */
+    private static final class Bucket {
+        private final long intervalNanos;
+        private final long burstNanos;
+        private long nextFreeNanos;
+
+        Bucket(double permitsPerSecond, int burst) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.burstNanos = intervalNanos * (burst - 1);
+            this.nextFreeNanos = System.nanoTime() - burstNanos;
+        }
+
+        synchronized long reserve(long now) {
+            long start = Math.max(nextFreeNanos, now - burstNanos);
+            nextFreeNanos = start + intervalNanos;
+            return Math.max(0, start - now);
+        }
+
+        synchronized void pause(long now, long pauseNanos) {
+            nextFreeNanos = Math.max(nextFreeNanos, now + pauseNanos);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Disk-backed cache of downloaded reports keyed by merchant, format, date range and storage
+ * encoding, so a service storing plain CSV never gets a gzip-compressed entry or the reverse.
+ *
+ * <p>Reports for closed periods never change and are kept until evicted. Reports whose
+ * range includes today, in the cache's time zone, expire after a short TTL. The cache is bounded in size and evicts
+ * the least recently used entries first. Every entry has a SHA-256 checksum which is
+ * verified while the entry is copied out; corrupt entries are dropped.</p>
+ */
+public class VippsReportCache {
+    private static final String DEFAULT_DIRECTORY = "vipps_report_cache";
+    private static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final Duration DEFAULT_OPEN_PERIOD_TTL = Duration.ofMinutes(15);
+    private static final String INDEX_FILE = "index.properties";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Duration openPeriodTtl;
+    private final ZoneId zone;
+    private final Properties index = new Properties();
+
+    public VippsReportCache() throws IOException {
+        this(Path.of(DEFAULT_DIRECTORY), DEFAULT_MAX_BYTES, DEFAULT_OPEN_PERIOD_TTL);
+    }
+
+    public VippsReportCache(Path directory, long maxBytes, Duration openPeriodTtl) throws IOException {
+        this(directory, maxBytes, openPeriodTtl, ZoneId.systemDefault());
+    }
+
+    /**
+     * @param directory the cache directory, created if it does not exist
+     * @param maxBytes the maximum total size of the cached reports
+     * @param openPeriodTtl how long a report whose range includes today is kept
+     * @param zone the time zone that decides which day is today
+     * @throws IOException if the cache index cannot be read
+     */
+    public VippsReportCache(Path directory, long maxBytes, Duration openPeriodTtl, ZoneId zone) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.openPeriodTtl = openPeriodTtl;
+        this.zone = zone;
+
+        Files.createDirectories(directory);
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try (InputStream input = Files.newInputStream(indexFile)) {
+                index.load(input);
+            }
+        }
+    }
+
+    /**
+     * Copies a cached report to a directory if a valid entry exists. The report is written
+     * to a temporary file and renamed once its checksum has been verified, so an existing
+     * file with the same name is replaced atomically.
+     * @param merchant the merchant key, see {@link #merchantKey(VippsCredentialManager)}
+     * @param format the report format
+     * @param range the report date range
+     * @param compressed true if the report is stored gzip-compressed
+     * @param targetDirectory the directory to copy the report to
+     * @return the path of the copied report, or null on a cache miss
+     * @throws IOException if an I/O error occurs
+     */
+    public Path get(String merchant, String format, VippsDateRange range, boolean compressed, Path targetDirectory)
+            throws IOException {
+        String id = entryId(merchant, format, range, compressed);
+        String reportId;
+        String fileName;
+        String checksum;
+
+        synchronized (this) {
+            if (index.getProperty(id + ".file") == null) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(index.getProperty(id + ".expiresAt"));
+            if (expiresAt > 0 && expiresAt < System.currentTimeMillis()) {
+                remove(id);
+                saveIndex();
+                return null;
+            }
+            reportId = index.getProperty(id + ".reportId");
+            fileName = index.getProperty(id + ".name", "vipps_ledger_report_" + reportId +
+                    (compressed ? ".csv" + VippsCompression.GZIP_EXTENSION : ".csv"));
+            checksum = index.getProperty(id + ".sha256");
+        }
+
+        // Copy next to the target and move it into place once verified, so the target never
+        // holds a partial or corrupt report
+        Path target = targetDirectory.resolve(fileName);
+        Path tempFile = Files.createTempFile(targetDirectory, fileName, ".part");
+        String actual;
+        try (OutputStream output = Files.newOutputStream(tempFile)) {
+            actual = copyEntry(id, output);
+        } catch (IOException e) {
+            // Writing the copy failed, which says nothing about the entry itself
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        if (actual == null) {
+            // The entry file was evicted or is unreadable
+            Files.deleteIfExists(tempFile);
+            synchronized (this) {
+                remove(id);
+                saveIndex();
+            }
+            return null;
+        }
+        if (!actual.equals(checksum)) {
+            Files.deleteIfExists(tempFile);
+            synchronized (this) {
+                System.err.println("Cached report " + reportId + " failed its integrity check, discarding it");
+                remove(id);
+                saveIndex();
+            }
+            return null;
+        }
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        synchronized (this) {
+            if (index.getProperty(id + ".file") != null) {
+                index.setProperty(id + ".lastAccess", Long.toString(System.currentTimeMillis()));
+                saveIndex();
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Adds a downloaded report to the cache, evicting least recently used entries if needed
+     * @param merchant the merchant key, see {@link #merchantKey(VippsCredentialManager)}
+     * @param format the report format
+     * @param range the report date range
+     * @param compressed true if the report is stored gzip-compressed
+     * @param reportId the ID of the report
+     * @param report the downloaded report file
+     * @throws IOException if an I/O error occurs
+     */
+    public void put(String merchant, String format, VippsDateRange range, boolean compressed, String reportId,
+                    Path report) throws IOException {
+        String id = entryId(merchant, format, range, compressed);
+        Path tempFile = Files.createTempFile(directory, id, ".part");
+        String checksum;
+
+        try {
+            checksum = copy(report, tempFile);
+            Files.move(tempFile, entryFile(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiresAt = range.getEndDate().isBefore(LocalDate.now(zone)) ? 0 : now + openPeriodTtl.toMillis();
+
+        synchronized (this) {
+            index.setProperty(id + ".file", entryFile(id).getFileName().toString());
+            index.setProperty(id + ".key", entryKey(merchant, format, range, compressed));
+            index.setProperty(id + ".reportId", reportId);
+            index.setProperty(id + ".name", report.getFileName().toString());
+            index.setProperty(id + ".size", Long.toString(Files.size(entryFile(id))));
+            index.setProperty(id + ".sha256", checksum);
+            index.setProperty(id + ".expiresAt", Long.toString(expiresAt));
+            index.setProperty(id + ".lastAccess", Long.toString(now));
+            evict();
+            saveIndex();
+        }
+    }
+
+    /**
+     * Derives a stable merchant key from credentials without storing the secrets themselves
+     * @param credentials the merchant's credentials
+     * @return a hex key identifying the merchant
+     */
+    public static String merchantKey(VippsCredentialManager credentials) {
+        return sha256(credentials.getClientId() + ":" + credentials.getSubscriptionKey()).substring(0, 16);
+    }
+
+    private void evict() throws IOException {
+        List<String> ids = entryIds();
+        long totalBytes = 0;
+        for (String id : ids) {
+            totalBytes += Long.parseLong(index.getProperty(id + ".size"));
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        ids.sort(Comparator.comparingLong(id -> Long.parseLong(index.getProperty(id + ".lastAccess"))));
+        for (String id : ids) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            totalBytes -= Long.parseLong(index.getProperty(id + ".size"));
+            remove(id);
+        }
+    }
+
+    private List<String> entryIds() {
+        List<String> ids = new ArrayList<>();
+        for (String name : index.stringPropertyNames()) {
+            if (name.endsWith(".file")) {
+                ids.add(name.substring(0, name.length() - ".file".length()));
+            }
+        }
+        return ids;
+    }
+
+    private void remove(String id) throws IOException {
+        for (String name : index.stringPropertyNames()) {
+            if (name.startsWith(id + ".")) {
+                index.remove(name);
+            }
+        }
+        Files.deleteIfExists(entryFile(id));
+    }
+
+    private void saveIndex() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        Path tempFile = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+
+        try {
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                index.store(output, "Vipps report cache");
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    private Path entryFile(String id) {
+        return directory.resolve(id + ".csv");
+    }
+
+    private static String entryId(String merchant, String format, VippsDateRange range, boolean compressed) {
+        return sha256(entryKey(merchant, format, range, compressed)).substring(0, 32);
+    }
+
+    private static String entryKey(String merchant, String format, VippsDateRange range, boolean compressed) {
+        return merchant + "|" + format + "|" + range.getStartDate() + "|" + range.getEndDate() + "|" +
+                (compressed ? "gzip" : "identity");
+    }
+
+    /**
+     * Copies a file while computing its SHA-256 checksum in the same pass
+     * @return the hex checksum of the copied bytes
+     */
+    private static String copy(Path source, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(source), digest);
+             OutputStream output = Files.newOutputStream(target)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copies a cache entry while computing its SHA-256 checksum. Failures to read the entry are
+     * reported by returning null, failures to write the copy are thrown.
+     * @return the hex checksum of the entry, or null if the entry cannot be read
+     */
+    private String copyEntry(String id, OutputStream output) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream input;
+        try {
+            input = new DigestInputStream(Files.newInputStream(entryFile(id)), digest);
+        } catch (IOException e) {
+            return null;
+        }
+
+        try (input) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (true) {
+                int read;
+                try {
+                    read = input.read(buffer);
+                } catch (IOException e) {
+                    return null;
+                }
+                if (read == -1) {
+                    break;
+                }
+                output.write(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sha256(String value) {
+        return HexFormat.of().formatHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
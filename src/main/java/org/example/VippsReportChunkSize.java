@@ -0,0 +1,47 @@
+package org.example;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Granularity used when splitting a large date range into separate report requests.
+ * Chunks are aligned to calendar boundaries so the same period always produces the same chunks.
+ */
+public enum VippsReportChunkSize {
+    DAY,
+    WEEK,
+    MONTH;
+
+    /**
+     * Gets the last date of the chunk that contains the given date
+     * @param date a date inside the chunk
+     * @return the inclusive end date of the chunk
+     */
+    public LocalDate chunkEnd(LocalDate date) {
+        switch (this) {
+            case DAY:
+                return date;
+            case WEEK:
+                return date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            case MONTH:
+                return date.with(TemporalAdjusters.lastDayOfMonth());
+            default:
+                throw new IllegalStateException("Unknown chunk size: " + this);
+        }
+    }
+
+    /**
+     * Parses a chunk size from user input, ignoring case
+     * @param value the value to parse, e.g. "week"
+     * @return the chunk size, or null if the value does not name one
+     */
+    public static VippsReportChunkSize fromString(String value) {
+        for (VippsReportChunkSize chunkSize : values()) {
+            if (chunkSize.name().equalsIgnoreCase(value.trim())) {
+                return chunkSize;
+            }
+        }
+        return null;
+    }
+}
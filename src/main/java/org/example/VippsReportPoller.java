@@ -0,0 +1,189 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls report status on a shared scheduler using exponential backoff with jitter.
+ * Status requests are sent asynchronously and no thread is held between attempts,
+ * so many reports can be polled at the same time.
+ */
+public class VippsReportPoller {
+    private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(15);
+    private static final ScheduledExecutorService SHARED_SCHEDULER = createScheduler();
+
+    private final ScheduledExecutorService scheduler;
+    private final VippsAuthService authService;
+    private final VippsHttpClient httpClient;
+    private final VippsCredentialManager credentialManager;
+    private final String baseUrl;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long timeoutMillis;
+
+    public VippsReportPoller(VippsAuthService authService, VippsHttpClient httpClient,
+                             VippsCredentialManager credentialManager, String baseUrl) {
+        this(authService, httpClient, credentialManager, baseUrl, SHARED_SCHEDULER,
+                DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_TIMEOUT);
+    }
+
+    public VippsReportPoller(VippsAuthService authService, VippsHttpClient httpClient,
+                             VippsCredentialManager credentialManager, String baseUrl,
+                             ScheduledExecutorService scheduler, Duration initialDelay,
+                             Duration maxDelay, Duration timeout) {
+        this.authService = authService;
+        this.httpClient = httpClient;
+        this.credentialManager = credentialManager;
+        this.baseUrl = baseUrl;
+        this.scheduler = scheduler;
+        this.initialDelayMillis = initialDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * Starts polling a report until it is completed, has failed or the timeout is reached
+     * @param reportId the ID of the report to poll
+     * @return a future completed with the report URL, or with null if the report did not complete
+     */
+    public CompletableFuture<String> poll(String reportId) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        AtomicInteger attempts = new AtomicInteger();
+
+        scheduler.execute(() -> attempt(reportId, result, attempts, deadline));
+        return result;
+    }
+
+    private void attempt(String reportId, CompletableFuture<String> result, AtomicInteger attempts, long deadline) {
+        if (result.isDone()) {
+            return;
+        }
+
+        int attempt = attempts.incrementAndGet();
+        VippsMetrics.increment("vipps_report_poll_attempts_total");
+
+        // Get access token (will refresh if needed) and check the status without holding a thread
+        authService.getAccessTokenAsync()
+                .thenCompose(accessToken -> httpClient.sendBinaryRequestAsync(httpClient.createStatusRequest(
+                        accessToken,
+                        credentialManager.getSubscriptionKey(),
+                        baseUrl,
+                        reportId
+                )))
+                .whenComplete((statusResponse, error) -> {
+                    try {
+                        handleResponse(reportId, result, attempts, deadline, attempt, statusResponse, error);
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+    }
+
+    private void handleResponse(String reportId, CompletableFuture<String> result, AtomicInteger attempts,
+                                long deadline, int attempt, HttpResponse<byte[]> statusResponse, Throwable error) {
+        long hintMillis = -1;
+
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (!(cause instanceof IOException)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            System.out.println("Failed to check status of report " + reportId + ", attempt " + attempt +
+                    ": " + cause.getMessage());
+        } else if (statusResponse.statusCode() == 200) {
+            hintMillis = VippsRetryPolicy.retryAfterMillis(statusResponse);
+            String[] fields = VippsJson.readFields(statusResponse.body(), "status", "reportUrl", "retryAfter");
+            String status = fields[0];
+            if (status == null) {
+                throw new IllegalArgumentException("Status response for report " + reportId + " has no status");
+            }
+
+            if ("COMPLETED".equals(status)) {
+                if (fields[1] == null) {
+                    throw new IllegalArgumentException("Report " + reportId + " is completed without a reportUrl");
+                }
+                System.out.println("Report " + reportId + " is ready after " + attempt + " checks");
+                recordCompletion(deadline, "completed", attempt);
+                result.complete(fields[1]);
+                return;
+            }
+            if ("FAILED".equals(status)) {
+                System.err.println("Report " + reportId + " failed to generate");
+                recordCompletion(deadline, "failed", attempt);
+                result.complete(null);
+                return;
+            }
+            // A retryAfter that is not a number is no hint
+            long retryAfterSeconds = fields[2] != null ? VippsJson.parseLong(fields[2], -1) : -1;
+            if (retryAfterSeconds >= 0) {
+                hintMillis = retryAfterSeconds * 1000;
+            }
+        } else {
+            hintMillis = VippsRetryPolicy.retryAfterMillis(statusResponse);
+            System.out.println("Failed to check status of report " + reportId + ", attempt " + attempt +
+                    ". Status code: " + statusResponse.statusCode());
+        }
+
+        long delay = nextDelay(attempt, hintMillis);
+        if (System.currentTimeMillis() + delay > deadline) {
+            System.err.println("Report " + reportId + " not ready after " + attempt + " attempts");
+            recordCompletion(deadline, "timeout", attempt);
+            result.complete(null);
+            return;
+        }
+
+        scheduler.schedule(() -> attempt(reportId, result, attempts, deadline), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records how long a report took to complete, measured from the start of polling
+     */
+    private void recordCompletion(long deadline, String status, int attempt) {
+        long startedAt = deadline - timeoutMillis;
+        VippsMetrics.record("vipps_report_completion_seconds",
+                (System.currentTimeMillis() - startedAt) / 1000.0, "status", status);
+        VippsMetrics.record("vipps_report_poll_attempts", attempt, "status", status);
+    }
+
+    /**
+     * Calculates the delay before the next attempt. A server hint is used when present,
+     * but never below the initial delay, so a hint of 0 or a date in the past does not
+     * poll in a tight loop; otherwise the delay doubles per attempt up to the maximum.
+     * Jitter keeps many reports from being polled in lockstep.
+     */
+    private long nextDelay(int attempt, long hintMillis) {
+        long base;
+        if (hintMillis >= 0) {
+            base = Math.max(initialDelayMillis, Math.min(hintMillis, maxDelayMillis));
+        } else {
+            int exponent = Math.min(attempt - 1, 20);
+            base = Math.min(initialDelayMillis << exponent, maxDelayMillis);
+        }
+        long jitter = base / 4;
+        return base - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, runnable -> {
+            Thread thread = new Thread(runnable, "vipps-report-poller-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
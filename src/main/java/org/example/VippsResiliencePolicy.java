@@ -0,0 +1,64 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Retry policies and circuit breakers per endpoint class, together with the retry budget
+ * they share. One policy is used by all requests of a {@link VippsHttpClient}, so jobs that
+ * share a client also share the budget and the breakers.
+ */
+public class VippsResiliencePolicy {
+    private final Map<VippsEndpoint, VippsRetryPolicy> retryPolicies = new EnumMap<>(VippsEndpoint.class);
+    private final Map<VippsEndpoint, VippsCircuitBreaker> circuitBreakers = new EnumMap<>(VippsEndpoint.class);
+    private final VippsRetryBudget retryBudget;
+
+    /**
+     * Creates a policy with the default retry policy and circuit breaker for every endpoint class
+     */
+    public VippsResiliencePolicy() {
+        this(new VippsRetryBudget());
+    }
+
+    public VippsResiliencePolicy(VippsRetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        for (VippsEndpoint endpoint : VippsEndpoint.values()) {
+            retryPolicies.put(endpoint, VippsRetryPolicy.defaultFor(endpoint));
+            circuitBreakers.put(endpoint, new VippsCircuitBreaker(endpoint));
+        }
+    }
+
+    /**
+     * @return a policy that sends every request once and never opens a circuit
+     */
+    public static VippsResiliencePolicy disabled() {
+        VippsResiliencePolicy policy = new VippsResiliencePolicy(new VippsRetryBudget(0, 0));
+        for (VippsEndpoint endpoint : VippsEndpoint.values()) {
+            policy.setRetryPolicy(endpoint, VippsRetryPolicy.noRetry());
+            policy.setCircuitBreaker(endpoint, new VippsCircuitBreaker(endpoint, Integer.MAX_VALUE,
+                    Duration.ZERO));
+        }
+        return policy;
+    }
+
+    public synchronized void setRetryPolicy(VippsEndpoint endpoint, VippsRetryPolicy retryPolicy) {
+        retryPolicies.put(endpoint, retryPolicy);
+    }
+
+    public synchronized void setCircuitBreaker(VippsEndpoint endpoint, VippsCircuitBreaker circuitBreaker) {
+        circuitBreakers.put(endpoint, circuitBreaker);
+    }
+
+    public synchronized VippsRetryPolicy getRetryPolicy(VippsEndpoint endpoint) {
+        return retryPolicies.get(endpoint);
+    }
+
+    public synchronized VippsCircuitBreaker getCircuitBreaker(VippsEndpoint endpoint) {
+        return circuitBreakers.get(endpoint);
+    }
+
+    public VippsRetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+}
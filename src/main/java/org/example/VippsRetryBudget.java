@@ -0,0 +1,53 @@
+package org.example;
+
+/**
+ * Retry budget shared by every request of a client. Each first attempt deposits
+ * {@code retryRatio} tokens, up to {@code maxTokens}, and each retry withdraws one, so
+ * retries stay a bounded fraction of the traffic. When many jobs see the same outage
+ * they drain the budget together and stop retrying instead of multiplying the load.
+ */
+public class VippsRetryBudget {
+    private static final double DEFAULT_RETRY_RATIO = 0.2;
+    private static final double DEFAULT_MAX_TOKENS = 50;
+
+    private final double retryRatio;
+    private final double maxTokens;
+    private double tokens;
+
+    public VippsRetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * @param retryRatio the number of retries allowed per first attempt
+     * @param maxTokens the largest number of retries that can be saved up; the budget starts full
+     */
+    public VippsRetryBudget(double retryRatio, double maxTokens) {
+        this.retryRatio = retryRatio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Records a first attempt of a request
+     */
+    public synchronized void recordRequest() {
+        tokens = Math.min(maxTokens, tokens + retryRatio);
+    }
+
+    /**
+     * Withdraws a retry from the budget
+     * @return true if the retry may be sent
+     */
+    public synchronized boolean tryRetry() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    public synchronized double getAvailable() {
+        return tokens;
+    }
+}
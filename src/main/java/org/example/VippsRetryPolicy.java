@@ -0,0 +1,149 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded exponential backoff for one endpoint class. The delay before retry {@code n} is
+ * {@code baseDelay * 2^(n-1)} capped at {@code maxDelay}, with jitter of up to 25%, unless
+ * the response carries a Retry-After header, which is honoured up to {@code maxRetryAfter}.
+ */
+public class VippsRetryPolicy {
+    private static final Duration DEFAULT_MAX_RETRY_AFTER = Duration.ofMinutes(2);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    public VippsRetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        this(maxAttempts, baseDelay, maxDelay, DEFAULT_MAX_RETRY_AFTER);
+    }
+
+    /**
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @param baseDelay the delay before the first retry
+     * @param maxDelay the maximum computed delay
+     * @param maxRetryAfter the longest Retry-After delay that is waited for; longer hints end the retries
+     */
+    public VippsRetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, Duration maxRetryAfter) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.maxRetryAfterMillis = maxRetryAfter.toMillis();
+    }
+
+    /**
+     * @return a policy that never retries
+     */
+    public static VippsRetryPolicy noRetry() {
+        return new VippsRetryPolicy(1, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @param endpoint the endpoint class
+     * @return the default policy for the endpoint class
+     */
+    public static VippsRetryPolicy defaultFor(VippsEndpoint endpoint) {
+        switch (endpoint) {
+            case AUTH:
+                return new VippsRetryPolicy(4, Duration.ofMillis(500), Duration.ofSeconds(8));
+            case REPORT:
+                return new VippsRetryPolicy(3, Duration.ofSeconds(1), Duration.ofSeconds(15));
+            case STATUS:
+                // The report poller already retries on its own schedule
+                return new VippsRetryPolicy(2, Duration.ofSeconds(1), Duration.ofSeconds(5));
+            default:
+                return new VippsRetryPolicy(3, Duration.ofSeconds(1), Duration.ofSeconds(30));
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param statusCode an HTTP status code
+     * @return true if a request that received the status may succeed when sent again
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode == 500
+                || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Decides whether a failed response may be retried. A request that is not idempotent
+     * is only sent again when the server has not acted on it: when it was throttled with
+     * 429, or rejected with 503 and a Retry-After header. A 500, 502 or 504 may arrive after
+     * the request was processed, so retrying it could create a duplicate.
+     * @param response the failed response
+     * @param idempotent true if sending the request twice has the same effect as sending it once
+     * @return true if the request may succeed when sent again
+     */
+    public boolean isRetryable(HttpResponse<?> response, boolean idempotent) {
+        int statusCode = response.statusCode();
+        if (idempotent) {
+            return isRetryable(statusCode);
+        }
+        return statusCode == 429 || (statusCode == 503 && retryAfterMillis(response) >= 0);
+    }
+
+    /**
+     * Decides whether a request that failed with an I/O error may be retried. A request that
+     * is not idempotent is only sent again if the connection could not be established, since
+     * after a timeout or a broken connection the server may already have processed it.
+     * @param error the error
+     * @param idempotent true if sending the request twice has the same effect as sending it once
+     * @return true if the request may succeed when sent again
+     */
+    public static boolean isRetryable(IOException error, boolean idempotent) {
+        return idempotent || error instanceof ConnectException || error instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * Computes the delay before the next attempt
+     * @param attempt the number of the attempt that just failed, starting at 1
+     * @param response the failed response, or null if no response was received
+     * @return the delay in milliseconds, or -1 if the server asked for a longer wait than allowed
+     */
+    public long delayMillis(int attempt, HttpResponse<?> response) {
+        long retryAfter = response != null ? retryAfterMillis(response) : -1;
+        if (retryAfter >= 0) {
+            return retryAfter <= maxRetryAfterMillis ? retryAfter : -1;
+        }
+
+        int exponent = Math.min(attempt - 1, 20);
+        long base = Math.min(baseDelayMillis << exponent, maxDelayMillis);
+        long jitter = base / 4;
+        return base - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+    }
+
+    /**
+     * Reads the Retry-After header, given either in seconds or as an HTTP date
+     * @param response the response
+     * @return the requested delay in milliseconds, or -1 if there is none
+     */
+    static long retryAfterMillis(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After")
+                .map(value -> {
+                    try {
+                        return Math.max(0, Long.parseLong(value.trim()) * 1000);
+                    } catch (NumberFormatException e) {
+                        try {
+                            ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+                        } catch (DateTimeParseException ignored) {
+                            return -1L;
+                        }
+                    }
+                })
+                .orElse(-1L);
+    }
+}
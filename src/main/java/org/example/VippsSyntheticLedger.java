@@ -0,0 +1,96 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Generates ledger CSV data with realistic row shapes for the mock API server and the
+ * benchmarks. The output is deterministic, so repeated runs and different releases see
+ * exactly the same input.
+ */
+public final class VippsSyntheticLedger {
+    private static final String HEADER =
+            "ledgerDate;time;entryType;amount;currency;reference;pspReference;payoutId\n";
+    private static final String[] ENTRY_TYPES = {"CAPTURE", "CAPTURE", "CAPTURE", "REFUND", "FEE", "PAYOUT"};
+    private static final VippsDateRange DEFAULT_RANGE =
+            new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31));
+    private static final int ROWS_PER_DAY = 5000;
+
+    private VippsSyntheticLedger() {
+    }
+
+    /**
+     * @param bytes the approximate size of the ledger
+     * @return a ledger of at least the given size, ending at a row boundary
+     */
+    public static byte[] generate(long bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(bytes + 256, Integer.MAX_VALUE - 8));
+        write(output, DEFAULT_RANGE, Long.MAX_VALUE, bytes);
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes a ledger of at least the given size to a file
+     * @param file the file to write
+     * @param bytes the approximate size of the ledger
+     */
+    public static void generate(Path file, long bytes) throws IOException {
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            write(output, DEFAULT_RANGE, Long.MAX_VALUE, bytes);
+        }
+    }
+
+    /**
+     * Generates a ledger with a fixed number of rows spread evenly over a date range
+     * @param range the ledger dates
+     * @param rows the number of data rows
+     * @return the ledger
+     */
+    public static byte[] generate(VippsDateRange range, long rows) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(rows * 100 + 256, Integer.MAX_VALUE - 8));
+        write(output, range, rows, Long.MAX_VALUE);
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes rows until either the row limit or the byte limit is reached
+     */
+    private static void write(OutputStream output, VippsDateRange range, long rows, long bytes) throws IOException {
+        byte[] header = HEADER.getBytes(StandardCharsets.US_ASCII);
+        output.write(header);
+        long written = header.length;
+        long days = range.getEndDate().toEpochDay() - range.getStartDate().toEpochDay() + 1;
+        long rowsPerDay = rows == Long.MAX_VALUE ? ROWS_PER_DAY : Math.max(1, (rows + days - 1) / days);
+        StringBuilder row = new StringBuilder(128);
+
+        for (long i = 0; i < rows && written < bytes; i++) {
+            LocalDate day = range.getStartDate().plusDays(i / rowsPerDay % days);
+            String entryType = ENTRY_TYPES[(int) (i % ENTRY_TYPES.length)];
+            long amount = (i * 7919 % 500_000) + 100;
+            if (entryType.equals("REFUND") || entryType.equals("FEE")) {
+                amount = -amount;
+            }
+
+            row.setLength(0);
+            row.append(day).append(';')
+                    .append(day).append('T').append(String.format("%02d:%02d:%02d", i % 24, i % 60, i % 59)).append("Z;")
+                    .append(entryType).append(';')
+                    .append(amount < 0 ? "-" : "").append(Math.abs(amount) / 100).append('.')
+                    .append(String.format("%02d", Math.abs(amount) % 100)).append(';')
+                    .append("NOK;")
+                    .append("order-").append(i).append(';')
+                    .append("psp-").append(Long.toHexString(i * 2654435761L)).append(';')
+                    .append("payout-").append(day.toEpochDay()).append('\n');
+
+            byte[] bytesOfRow = row.toString().getBytes(StandardCharsets.US_ASCII);
+            output.write(bytesOfRow);
+            written += bytesOfRow.length;
+        }
+    }
+}
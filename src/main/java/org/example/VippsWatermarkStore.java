@@ -0,0 +1,104 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Properties;
+
+/**
+ * Small file-backed store that remembers, per merchant, the latest date that has been
+ * fully retrieved into the local ledger and the size of the ledger file at that point.
+ * It also records whether a sync started exporting rows it has not stored a watermark for.
+ */
+public class VippsWatermarkStore {
+    private static final String DEFAULT_FILE = "vipps_watermarks.properties";
+
+    private final Path storeFile;
+    private final Properties properties = new Properties();
+
+    public VippsWatermarkStore() throws IOException {
+        this(Path.of(DEFAULT_FILE));
+    }
+
+    public VippsWatermarkStore(Path storeFile) throws IOException {
+        this.storeFile = storeFile;
+        if (Files.exists(storeFile)) {
+            try (InputStream input = Files.newInputStream(storeFile)) {
+                properties.load(input);
+            }
+        }
+    }
+
+    /**
+     * Gets the latest fully retrieved date for a merchant
+     * @param merchant the merchant name
+     * @return the watermark date, or null if the merchant has never been synced
+     */
+    public synchronized LocalDate getWatermark(String merchant) {
+        String value = properties.getProperty(merchant + ".watermark");
+        return value != null ? LocalDate.parse(value) : null;
+    }
+
+    /**
+     * Gets the size the merchant's ledger file had when the watermark was last stored
+     * @param merchant the merchant name
+     * @return the ledger size in bytes, or -1 if unknown
+     */
+    public synchronized long getLedgerSize(String merchant) {
+        String value = properties.getProperty(merchant + ".ledgerSize");
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    /**
+     * Stores a new watermark for a merchant and saves the store to disk
+     * @param merchant the merchant name
+     * @param watermark the latest fully retrieved date
+     * @param ledgerSize the size of the ledger file after the data up to the watermark was appended
+     * @throws IOException if the store cannot be saved
+     */
+    public synchronized void setWatermark(String merchant, LocalDate watermark, long ledgerSize) throws IOException {
+        properties.setProperty(merchant + ".watermark", watermark.toString());
+        properties.setProperty(merchant + ".ledgerSize", Long.toString(ledgerSize));
+        properties.remove(merchant + ".exportPending");
+        save();
+    }
+
+    /**
+     * Tells whether a sync may have exported rows beyond the watermark, because it started
+     * committing its export and did not store its watermark
+     * @param merchant the merchant name
+     * @return true if the export sinks may hold rows the ledger no longer has
+     */
+    public synchronized boolean isExportPending(String merchant) {
+        return Boolean.parseBoolean(properties.getProperty(merchant + ".exportPending"));
+    }
+
+    /**
+     * Records that a sync is about to commit its export, until the next watermark is stored
+     * @param merchant the merchant name
+     * @throws IOException if the store cannot be saved
+     */
+    public synchronized void setExportPending(String merchant) throws IOException {
+        properties.setProperty(merchant + ".exportPending", "true");
+        save();
+    }
+
+    private void save() throws IOException {
+        Path directory = storeFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, storeFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                properties.store(output, "Vipps ledger sync watermarks");
+            }
+            Files.move(tempFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsColumnarLedgerTest {
+    private static final String REPORT =
+            "ledgerDate,time,entryType,amount,reference\n" +
+            "2024-01-31,2024-01-31T10:15:30Z,capture,123.45,order-1\n" +
+            "2024-02-01,,refund,-20.00,order-2\n" +
+            ",,fee,-1.50,order-1\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackEveryColumn() throws IOException {
+        Path columnar = VippsColumnarLedgerWriter.convert(Files.writeString(directory.resolve("report.csv"), REPORT));
+
+        try (VippsColumnarLedgerReader reader = new VippsColumnarLedgerReader(columnar)) {
+            assertEquals(3, reader.getRowCount());
+            assertEquals(12345, reader.getAmountMinor(0));
+            assertEquals(Instant.parse("2024-01-31T10:15:30Z").toEpochMilli(), reader.getTimestampMillis(0));
+            assertEquals(LocalDate.of(2024, 1, 31).toEpochDay(), reader.getLedgerEpochDay(0));
+            assertEquals(LocalDate.of(2024, 2, 1).toEpochDay(), reader.getLedgerEpochDay(1));
+            assertEquals(VippsLedgerEntryType.CAPTURE, reader.getEntryType(0));
+            assertEquals(VippsLedgerEntryType.REFUND, reader.getEntryType(1));
+            assertEquals("order-1", reader.getReference(0));
+            assertEquals("order-2", reader.getReference(1));
+            assertEquals(reader.getReferenceId(0), reader.getReferenceId(2));
+            assertEquals(12345 - 2000 - 150, reader.sumAmounts());
+            assertEquals(-2000, reader.sumAmounts(VippsLedgerEntryType.REFUND));
+        }
+    }
+
+    @Test
+    void keepsRowsWithoutADateApartFromTheEpoch() throws IOException {
+        Path columnar = VippsColumnarLedgerWriter.convert(Files.writeString(directory.resolve("report.csv"), REPORT));
+
+        try (VippsColumnarLedgerReader reader = new VippsColumnarLedgerReader(columnar)) {
+            assertTrue(reader.hasLedgerDate(0));
+            assertTrue(reader.hasLedgerDate(1));
+            assertFalse(reader.hasLedgerDate(2));
+        }
+    }
+
+    @Test
+    void convertsCompressedReports() throws IOException {
+        Path report = directory.resolve("report.csv.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(report))) {
+            output.write(REPORT.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path columnar = VippsColumnarLedgerWriter.convert(report);
+
+        assertEquals(directory.resolve("report.vlc"), columnar);
+        try (VippsColumnarLedgerReader reader = new VippsColumnarLedgerReader(columnar)) {
+            assertEquals(3, reader.getRowCount());
+        }
+    }
+
+    @Test
+    void replacesOnlyTheReportExtension() {
+        assertEquals(directory.resolve("ledger.shop-a.vlc"),
+                VippsColumnarLedgerWriter.columnarFileFor(directory.resolve("ledger.shop-a.csv")));
+        assertEquals(directory.resolve("ledger.shop-a.vlc"),
+                VippsColumnarLedgerWriter.columnarFileFor(directory.resolve("ledger.shop-a.CSV.gz")));
+        assertEquals(directory.resolve("ledger.vlc"),
+                VippsColumnarLedgerWriter.columnarFileFor(directory.resolve("ledger")));
+    }
+
+    @Test
+    void discardsTheFileIfNotFinished() throws IOException {
+        Path target = directory.resolve("unfinished.vlc");
+        VippsColumnarLedgerWriter.create(target).close();
+
+        assertFalse(Files.exists(target));
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = Files.writeString(directory.resolve("report.vlc"), REPORT);
+
+        assertThrows(IOException.class, () -> new VippsColumnarLedgerReader(file));
+    }
+}
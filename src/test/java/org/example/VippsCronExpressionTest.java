@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsCronExpressionTest {
+    private static final ZoneId OSLO = ZoneId.of("Europe/Oslo");
+
+    @Test
+    void findsTheNextMatchingMinuteExclusively() {
+        VippsCronExpression cron = VippsCronExpression.parse("30 2 * * *");
+
+        assertEquals(utc(2024, 6, 14, 2, 30), cron.next(utc(2024, 6, 14, 1, 0)));
+        assertEquals(utc(2024, 6, 15, 2, 30), cron.next(utc(2024, 6, 14, 2, 30)));
+        assertEquals(utc(2024, 6, 15, 2, 30), cron.next(utc(2024, 6, 14, 2, 30).plusSeconds(59)));
+    }
+
+    @Test
+    void supportsRangesStepsListsAndNames() {
+        VippsCronExpression workingHours = VippsCronExpression.parse("*/15 9-17 * * MON-FRI");
+        // Friday evening to Monday morning
+        assertEquals(utc(2024, 6, 17, 9, 0), workingHours.next(utc(2024, 6, 14, 17, 45)));
+        assertEquals(utc(2024, 6, 17, 9, 15), workingHours.next(utc(2024, 6, 17, 9, 0)));
+
+        VippsCronExpression months = VippsCronExpression.parse("0 6 1 JAN,jul *");
+        assertEquals(utc(2024, 7, 1, 6, 0), months.next(utc(2024, 2, 1, 0, 0)));
+
+        VippsCronExpression stepInRange = VippsCronExpression.parse("0-30/10 0 * * *");
+        assertEquals(utc(2024, 6, 14, 0, 30), stepInRange.next(utc(2024, 6, 14, 0, 20)));
+        assertEquals(utc(2024, 6, 15, 0, 0), stepInRange.next(utc(2024, 6, 14, 0, 30)));
+    }
+
+    @Test
+    void acceptsBothZeroAndSevenForSunday() {
+        // 2024-06-16 is a Sunday
+        for (String expression : new String[] {"0 12 * * 0", "0 12 * * 7", "0 12 * * SUN", "0 12 * * 5-7"}) {
+            ZonedDateTime next = VippsCronExpression.parse(expression).next(utc(2024, 6, 15, 12, 0));
+            assertEquals(utc(2024, 6, 16, 12, 0), next, expression);
+        }
+    }
+
+    @Test
+    void matchesEitherDayFieldWhenBothAreRestricted() {
+        VippsCronExpression cron = VippsCronExpression.parse("0 0 13 * FRI");
+
+        // Friday 2024-06-07, then Thursday the 13th, then Friday 2024-06-14
+        assertEquals(utc(2024, 6, 7, 0, 0), cron.next(utc(2024, 6, 1, 0, 0)));
+        assertEquals(utc(2024, 6, 13, 0, 0), cron.next(utc(2024, 6, 7, 0, 0)));
+        assertEquals(utc(2024, 6, 14, 0, 0), cron.next(utc(2024, 6, 13, 0, 0)));
+    }
+
+    @Test
+    void matchesBothDayFieldsWhenOnlyOneIsRestricted() {
+        assertEquals(utc(2024, 5, 31, 0, 0), VippsCronExpression.parse("0 0 31 * *").next(utc(2024, 4, 1, 0, 0)));
+        assertEquals(utc(2028, 2, 29, 0, 0), VippsCronExpression.parse("0 0 29 2 *").next(utc(2025, 1, 1, 0, 0)));
+    }
+
+    @Test
+    void rejectsExpressionsThatNeverMatch() {
+        VippsCronExpression cron = VippsCronExpression.parse("0 0 31 2 *");
+
+        assertThrows(IllegalArgumentException.class, () -> cron.next(utc(2024, 1, 1, 0, 0)));
+    }
+
+    @Test
+    void runsATimeSkippedByDaylightSavingAfterTheGap() {
+        VippsCronExpression cron = VippsCronExpression.parse("30 2 * * *");
+
+        // Clocks go from 02:00 to 03:00 in Oslo on 2024-03-31
+        ZonedDateTime skipped = cron.next(ZonedDateTime.of(2024, 3, 30, 3, 0, 0, 0, OSLO));
+        assertEquals(ZonedDateTime.of(2024, 3, 31, 3, 30, 0, 0, OSLO), skipped);
+        assertEquals(ZoneOffset.ofHours(2), skipped.getOffset());
+        assertEquals(ZonedDateTime.of(2024, 4, 1, 2, 30, 0, 0, OSLO), cron.next(skipped));
+    }
+
+    @Test
+    void runsATimeRepeatedByDaylightSavingOnce() {
+        VippsCronExpression cron = VippsCronExpression.parse("30 2 * * *");
+        ZoneOffset summer = ZoneOffset.ofHours(2);
+        ZoneOffset winter = ZoneOffset.ofHours(1);
+
+        // Clocks go from 03:00 back to 02:00 in Oslo on 2024-10-27
+        ZonedDateTime first = cron.next(ZonedDateTime.of(2024, 10, 27, 1, 0, 0, 0, OSLO));
+        assertEquals(LocalDateTime.of(2024, 10, 27, 2, 30), first.toLocalDateTime());
+        assertEquals(summer, first.getOffset());
+
+        ZonedDateTime next = cron.next(first);
+        assertEquals(ZonedDateTime.of(2024, 10, 28, 2, 30, 0, 0, OSLO), next);
+        assertEquals(winter, next.getOffset());
+
+        // Searching from within the repeated hour never goes back in time
+        ZonedDateTime secondPass = ZonedDateTime.ofLocal(first.toLocalDateTime().minusMinutes(10), OSLO, winter);
+        ZonedDateTime fromSecondPass = cron.next(secondPass);
+        assertTrue(fromSecondPass.isAfter(secondPass), fromSecondPass.toString());
+        assertEquals(winter, fromSecondPass.getOffset());
+    }
+
+    @Test
+    void expandsShorthands() {
+        ZonedDateTime friday = utc(2024, 6, 14, 10, 20);
+
+        assertEquals(utc(2024, 6, 14, 11, 0), VippsCronExpression.parse("@hourly").next(friday));
+        assertEquals(utc(2024, 6, 15, 0, 0), VippsCronExpression.parse("@daily").next(friday));
+        assertEquals(utc(2024, 6, 15, 0, 0), VippsCronExpression.parse("@midnight").next(friday));
+        assertEquals(utc(2024, 6, 16, 0, 0), VippsCronExpression.parse("@weekly").next(friday));
+        assertEquals(utc(2024, 7, 1, 0, 0), VippsCronExpression.parse("@monthly").next(friday));
+        assertEquals(utc(2025, 1, 1, 0, 0), VippsCronExpression.parse(" @Yearly ").next(friday));
+        assertEquals(utc(2025, 1, 1, 0, 0), VippsCronExpression.parse("@annually").next(friday));
+        assertEquals("@hourly", VippsCronExpression.parse(" @hourly").toString());
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        for (String expression : new String[] {
+                "", "* * * *", "* * * * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *",
+                "* * * * 8", "5-1 * * * *", "*/0 * * * *", "a * * * *", "* * * FOO *", "@every 5m"}) {
+            assertThrows(IllegalArgumentException.class, () -> VippsCronExpression.parse(expression), expression);
+        }
+    }
+
+    private static ZonedDateTime utc(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, ZoneOffset.UTC);
+    }
+}
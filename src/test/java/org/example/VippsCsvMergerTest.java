@@ -0,0 +1,116 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class VippsCsvMergerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergesRowsUnderASingleHeader() throws IOException {
+        Path first = plain("first.csv", "amount,reference\n1.00,a\n");
+        Path second = plain("second.csv", "amount,reference\n2.00,b");
+        Path third = plain("third.csv", "amount,reference\n3.00,c\n");
+        Path target = directory.resolve("merged.csv");
+
+        VippsCsvMerger.merge(List.of(first, second, third), target);
+
+        assertEquals("amount,reference\n1.00,a\n2.00,b\n3.00,c\n", Files.readString(target));
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void takesTheHeaderFromTheFirstNonEmptyFile() throws IOException {
+        Path empty = plain("empty.csv", "");
+        Path headerOnly = plain("header.csv", "amount,reference");
+        Path rows = plain("rows.csv", "amount,reference\n1.00,a\n");
+        Path target = directory.resolve("merged.csv");
+
+        VippsCsvMerger.merge(List.of(empty, headerOnly, rows, headerOnly, empty), target);
+
+        assertEquals("amount,reference\n1.00,a\n", Files.readString(target));
+    }
+
+    @Test
+    void mergesCompressedSourcesAndTargets() throws IOException {
+        Path first = compressed("first.csv.gz", "amount,reference\n1.00,a\n");
+        Path second = plain("second.csv", "amount,reference\n2.00,b\n");
+        Path plainTarget = directory.resolve("merged.csv");
+        Path compressedTarget = directory.resolve("merged.csv.gz");
+
+        VippsCsvMerger.merge(List.of(first, second), plainTarget);
+        VippsCsvMerger.merge(List.of(first, second), compressedTarget);
+
+        assertEquals("amount,reference\n1.00,a\n2.00,b\n", Files.readString(plainTarget));
+        assertEquals("amount,reference\n1.00,a\n2.00,b\n", read(compressedTarget));
+    }
+
+    @Test
+    void appendCreatesTheTargetWithTheSourceHeader() throws IOException {
+        Path target = directory.resolve("ledger.csv");
+
+        VippsCsvMerger.append(plain("rows.csv", "amount,reference\n1.00,a\n"), target);
+
+        assertEquals("amount,reference\n1.00,a\n", Files.readString(target));
+    }
+
+    @Test
+    void appendAddsOnlyRowsAndRepairsAMissingLineBreak() throws IOException {
+        Path target = plain("ledger.csv", "amount,reference\n1.00,a");
+
+        VippsCsvMerger.append(plain("rows.csv", "amount,reference\n2.00,b"), target);
+        VippsCsvMerger.append(plain("header.csv", "amount,reference\n"), target);
+
+        assertEquals("amount,reference\n1.00,a\n2.00,b\n", Files.readString(target));
+    }
+
+    @Test
+    void appendAddsAGzipMemberToACompressedLedger() throws IOException {
+        Path target = compressed("ledger.csv.gz", "amount,reference\n1.00,a\n");
+
+        VippsCsvMerger.append(plain("rows.csv", "amount,reference\n2.00,b\n"), target);
+        VippsCsvMerger.append(compressed("more.csv.gz", "amount,reference\n3.00,c\n"), target);
+
+        assertEquals("amount,reference\n1.00,a\n2.00,b\n3.00,c\n", read(target));
+        try (VippsLedgerParser parser = VippsLedgerParser.open(target)) {
+            assertEquals(3, parser.forEach(record -> { }));
+        }
+    }
+
+    private Path plain(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content);
+    }
+
+    private Path compressed(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static String read(Path file) throws IOException {
+        try (InputStream input = VippsCompression.openInput(file)) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void assertNoTemporaryFiles() throws IOException {
+        try (var files = Files.list(directory)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".part")));
+        }
+    }
+}
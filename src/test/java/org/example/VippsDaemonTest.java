@@ -0,0 +1,60 @@
+package org.example;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VippsDaemonTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rejectsRequestsFromBrowserPages() throws Exception {
+        VippsDaemon daemon = new VippsDaemon(new VippsHttpClient(), "http://localhost:1",
+                new VippsWatermarkStore(directory.resolve("watermarks.json")), ZoneOffset.UTC, 1);
+        try {
+            daemon.start(0);
+            String controlUrl = "http://localhost:" + daemon.getControlPort();
+            HttpClient client = HttpClient.newHttpClient();
+
+            HttpResponse<String> crossOrigin = client.send(HttpRequest.newBuilder(URI.create(controlUrl + "/shutdown"))
+                    .header("Origin", "https://example.com")
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(403, crossOrigin.statusCode());
+
+            HttpResponse<String> simpleForm = client.send(HttpRequest.newBuilder(URI.create(controlUrl + "/shutdown"))
+                    .header("Content-Type", "text/plain")
+                    .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(415, simpleForm.statusCode());
+
+            HttpResponse<String> crossOriginRead = client.send(HttpRequest.newBuilder(URI.create(controlUrl + "/jobs"))
+                    .header("Origin", "https://example.com")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(403, crossOriginRead.statusCode());
+
+            HttpResponse<String> jobs = client.send(HttpRequest.newBuilder(URI.create(controlUrl + "/jobs"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, jobs.statusCode());
+            assertEquals(0, new JSONObject(jobs.body()).getJSONArray("jobs").length());
+
+            HttpResponse<String> json = client.send(HttpRequest.newBuilder(URI.create(controlUrl + "/jobs/unknown/run"))
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(404, json.statusCode());
+        } finally {
+            daemon.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VippsDownloadResumeTest {
+    private static final VippsDateRange RANGE =
+            new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+    private static final long ROWS = 2000;
+
+    @TempDir
+    Path directory;
+
+    private VippsMockApiServer server;
+    private VippsAuthService authService;
+    private VippsLedgerReportService service;
+    private VippsMetricsRegistry previousRegistry;
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new VippsMockApiServer(0);
+        server.setGenerationTime(Duration.ZERO);
+        server.setReportRows(ROWS);
+        server.start();
+
+        VippsHttpClient httpClient = new VippsHttpClient();
+        VippsCredentialManager credentials = new VippsCredentialManager("client", "secret", "key");
+        authService = new VippsAuthService(credentials, httpClient, server.getBaseUrl());
+        service = new VippsLedgerReportService(authService, httpClient, credentials, server.getBaseUrl());
+        service.setOutputDirectory(directory);
+
+        previousRegistry = VippsMetrics.getRegistry();
+        VippsMetrics.setRegistry(new VippsMetricsRegistry() {
+            @Override
+            public void increment(String name, long amount, String... tags) {
+                if (name.equals("vipps_download_bytes_total")) {
+                    bytesDownloaded.addAndGet(amount);
+                }
+            }
+
+            @Override
+            public void record(String name, double value, String... tags) {
+            }
+        });
+    }
+
+    @AfterEach
+    void stopServer() {
+        VippsMetrics.setRegistry(previousRegistry);
+        authService.close();
+        server.close();
+    }
+
+    @Test
+    void resumesAPartialDownloadWithARangeRequest() throws Exception {
+        String reportId = service.requestLedgerReport(RANGE.getStartDate(), RANGE.getEndDate());
+        byte[] body = gzip(VippsSyntheticLedger.generate(RANGE, ROWS));
+        int offset = body.length / 2;
+        writePartialDownload(reportId, Arrays.copyOf(body, offset), "\"" + reportId + "-gz\"");
+
+        String report = service.downloadReport(reportUrl(reportId), reportId);
+
+        assertArrayEquals(VippsSyntheticLedger.generate(RANGE, ROWS), Files.readAllBytes(Paths.get(report)));
+        assertEquals(body.length - offset, bytesDownloaded.get());
+        assertNoPartialDownloads();
+    }
+
+    @Test
+    void startsOverWhenTheValidatorNoLongerMatches() throws Exception {
+        String reportId = service.requestLedgerReport(RANGE.getStartDate(), RANGE.getEndDate());
+        byte[] body = gzip(VippsSyntheticLedger.generate(RANGE, ROWS));
+        // Bytes of an earlier version of the report, which must not end up in the result
+        byte[] stale = new byte[body.length / 2];
+        Arrays.fill(stale, (byte) 'x');
+        writePartialDownload(reportId, stale, "\"earlier-version\"");
+
+        String report = service.downloadReport(reportUrl(reportId), reportId);
+
+        assertArrayEquals(VippsSyntheticLedger.generate(RANGE, ROWS), Files.readAllBytes(Paths.get(report)));
+        assertEquals(body.length, bytesDownloaded.get());
+        assertNoPartialDownloads();
+    }
+
+    @Test
+    void continuesOnlyCheckpointsOfTheSameRequest() throws IOException {
+        VippsDownloadCheckpoint checkpoint =
+                VippsDownloadCheckpoint.create(directory.resolve("vipps_ledger_report_r1.csv.part"), "r1");
+        checkpoint.setRequest("merchant-a", "CSV", RANGE);
+        checkpoint.save();
+        VippsDateRange february = new VippsDateRange(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29));
+
+        assertEquals("r1", VippsDownloadCheckpoint.find(directory, "merchant-a", "CSV", RANGE).getReportId());
+        assertNull(VippsDownloadCheckpoint.find(directory, "merchant-b", "CSV", RANGE));
+        assertNull(VippsDownloadCheckpoint.find(directory, "merchant-a", "JSON", RANGE));
+        assertNull(VippsDownloadCheckpoint.find(directory, "merchant-a", "CSV", february));
+    }
+
+    private void writePartialDownload(String reportId, byte[] received, String etag) throws IOException {
+        Path partFile = Files.write(directory.resolve("vipps_ledger_report_" + reportId + ".csv.part"), received);
+        VippsDownloadCheckpoint checkpoint = VippsDownloadCheckpoint.create(partFile, reportId);
+        checkpoint.restart(etag, null, "gzip");
+        checkpoint.setOffset(received.length);
+        checkpoint.save();
+    }
+
+    private String reportUrl(String reportId) {
+        return server.getBaseUrl() + "/files/" + reportId + ".csv";
+    }
+
+    private void assertNoPartialDownloads() throws IOException {
+        try (var files = Files.list(directory)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().contains(".part")));
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(content);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,222 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsJdbcSinkTest {
+    private static final VippsDateRange RANGE = new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+
+    @Test
+    void insertsRowsInBatchesAndCommits() throws IOException {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "report-1");
+        Report report = Report.generate(1200);
+
+        sink.open(report.columns);
+        sink.accept(report.records.subList(0, 700));
+        sink.accept(report.records.subList(700, 1200));
+        sink.finish();
+        sink.commit();
+
+        assertEquals(List.of(500, 500, 200), stub.batches);
+        assertEquals(1200, stub.rows);
+        assertTrue(stub.calls.contains("setAutoCommit(false)"));
+        assertTrue(stub.calls.contains("commit"));
+        assertFalse(stub.calls.contains("rollback"));
+        assertTrue(stub.closed);
+    }
+
+    @Test
+    void replacesRowsOfEarlierExportInTheSameTransaction() throws IOException {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "ledger_shop-a");
+        Report report = Report.generate(10);
+
+        sink.open(report.columns);
+        sink.accept(report.records);
+        sink.finish();
+        sink.commit();
+
+        assertEquals("DELETE FROM ledger_rows WHERE report_id = ?", stub.statements.get(0));
+        assertTrue(stub.statements.get(1).startsWith("INSERT INTO ledger_rows "));
+        assertEquals(1, stub.updates);
+        assertTrue(stub.calls.indexOf("setAutoCommit(false)") < stub.calls.indexOf("prepareStatement"));
+        assertEquals(10, stub.rows);
+    }
+
+    @Test
+    void appendsWithoutDeletingEarlierRows() throws IOException {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "ledger_shop-a", true);
+        Report report = Report.generate(10);
+
+        sink.open(report.columns);
+        sink.accept(report.records);
+        sink.finish();
+        sink.commit();
+
+        assertEquals(1, stub.statements.size());
+        assertTrue(stub.statements.get(0).startsWith("INSERT INTO ledger_rows "));
+        assertEquals(0, stub.updates);
+        assertEquals(10, stub.rows);
+    }
+
+    @Test
+    void writesNullForAMissingDateOrTime() throws IOException {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "report-1");
+        Report report = Report.parse("ledgerDate;time;entryType;amount;currency;reference\n" +
+                ";;CAPTURE;1.00;NOK;a\n" +
+                "2024-01-02;;CAPTURE;2.00;NOK;b\n" +
+                "2024-01-03;2024-01-03T10:00:00Z;CAPTURE;3.00;NOK;c\n");
+
+        sink.open(report.columns);
+        sink.accept(report.records);
+        sink.finish();
+        sink.commit();
+
+        assertEquals(List.of("setNull(2)", "setNull(3)", "setNull(3)"), stub.nulls);
+        assertEquals(3, stub.rows);
+    }
+
+    @Test
+    void abortRollsBackStartedTransaction() throws IOException {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "report-1");
+        Report report = Report.generate(10);
+
+        sink.open(report.columns);
+        sink.accept(report.records);
+        sink.abort();
+        sink.abort();
+
+        assertEquals(1, stub.count("rollback"));
+        assertFalse(stub.calls.contains("commit"));
+        assertTrue(stub.closed);
+    }
+
+    @Test
+    void abortBeforeOpenDoesNotRollBack() {
+        StubConnection stub = new StubConnection();
+        VippsJdbcSink sink = new VippsJdbcSink(stub.connection(), "ledger_rows", "report-1");
+
+        sink.abort();
+
+        assertFalse(stub.calls.contains("rollback"));
+        assertTrue(stub.closed);
+    }
+
+    @Test
+    void rejectsTableNamesThatAreNotIdentifiers() {
+        StubConnection stub = new StubConnection();
+        assertThrows(IllegalArgumentException.class,
+                () -> new VippsJdbcSink(stub.connection(), "rows; DROP TABLE rows", "report-1"));
+    }
+
+    /**
+     * Records the calls made to a connection and its prepared statement
+     */
+    private static final class StubConnection {
+        final List<String> calls = new ArrayList<>();
+        final List<Integer> batches = new ArrayList<>();
+        final List<String> statements = new ArrayList<>();
+        final List<String> nulls = new ArrayList<>();
+        int rows;
+        int updates;
+        boolean closed;
+        private int pending;
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setAutoCommit":
+                                calls.add("setAutoCommit(" + args[0] + ")");
+                                return null;
+                            case "prepareStatement":
+                                calls.add("prepareStatement");
+                                statements.add((String) args[0]);
+                                return statement();
+                            case "close":
+                                closed = true;
+                                return null;
+                            default:
+                                calls.add(method.getName());
+                                return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement statement() {
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "addBatch":
+                                pending++;
+                                return null;
+                            case "setNull":
+                                nulls.add("setNull(" + args[0] + ")");
+                                return null;
+                            case "executeUpdate":
+                                updates++;
+                                return 0;
+                            case "executeBatch":
+                                batches.add(pending);
+                                rows += pending;
+                                int[] counts = new int[pending];
+                                pending = 0;
+                                return counts;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        long count(String call) {
+            return calls.stream().filter(call::equals).count();
+        }
+    }
+
+    private static final class Report {
+        final VippsLedgerColumns columns;
+        final List<VippsLedgerRecord> records;
+
+        private Report(VippsLedgerColumns columns, List<VippsLedgerRecord> records) {
+            this.columns = columns;
+            this.records = records;
+        }
+
+        static Report generate(long rows) throws IOException {
+            return parse(VippsSyntheticLedger.generate(RANGE, rows));
+        }
+
+        static Report parse(String csv) throws IOException {
+            return parse(csv.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static Report parse(byte[] content) throws IOException {
+            List<VippsLedgerRecord> records = new ArrayList<>();
+            try (VippsLedgerParser parser = new VippsLedgerParser(new ByteArrayInputStream(content))) {
+                while (parser.next()) {
+                    records.add(parser.getRecord().copy());
+                }
+                return new Report(parser.getColumns(), records);
+            }
+        }
+    }
+}
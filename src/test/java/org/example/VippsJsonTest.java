@@ -0,0 +1,89 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VippsJsonTest {
+    @Test
+    void readsRequestedFieldsInNameOrder() {
+        String[] values = read("{\"status\":\"COMPLETED\",\"retryAfter\":5,\"ready\":true,\"reportId\":\"r1\"}",
+                "reportId", "retryAfter", "ready", "missing", "status");
+
+        assertArrayEquals(new String[] {"r1", "5", "true", null, "COMPLETED"}, values);
+    }
+
+    @Test
+    void unescapesStringValuesAndKeys() {
+        String[] values = read("{\"a\":\"quote \\\" backslash \\\\ slash \\/ line\\nbreak\"," +
+                "\"b\":\"\\u00e9t\\u00E9 \\t tab\",\"\\u0063\":\"escaped key\",\"d\":\"æøå\"}", "a", "b", "c", "d");
+
+        assertEquals("quote \" backslash \\ slash / line\nbreak", values[0]);
+        assertEquals("été \t tab", values[1]);
+        assertEquals("escaped key", values[2]);
+        assertEquals("æøå", values[3]);
+    }
+
+    @Test
+    void skipsNestedValuesUnlessRequested() {
+        String json = "{\"nested\":{\"reportId\":\"inner\",\"text\":\"} ] {\",\"list\":[1,{\"a\":[]}]}," +
+                "\"list\":[\"]\",{}],\"reportId\":\"outer\"}";
+
+        String[] values = read(json, "reportId", "list");
+
+        assertEquals("outer", values[0]);
+        assertEquals("[\"]\",{}]", values[1]);
+        assertEquals("{\"reportId\":\"inner\",\"text\":\"} ] {\",\"list\":[1,{\"a\":[]}]}", read(json, "nested")[0]);
+    }
+
+    @Test
+    void treatsJsonNullAsMissing() {
+        assertNull(read("{\"reportUrl\":null}", "reportUrl")[0]);
+        assertEquals("null", read("{\"reportUrl\":\"null\"}", "reportUrl")[0]);
+        assertNull(read("{}", "reportUrl")[0]);
+    }
+
+    @Test
+    void allowsWhitespaceBetweenTokens() {
+        String[] values = read(" \r\n{ \"a\" :\t1 ,\n \"b\" : \"two\" }", "a", "b");
+
+        assertArrayEquals(new String[] {"1", "two"}, values);
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        for (String json : new String[] {
+                "", "[]", "{", "{\"a\"}", "{\"a\":}", "{\"a\":1,}", "{\"a\":1 \"b\":2}",
+                "{\"a\":\"unterminated}", "{\"a\":{\"b\":1}", "{\"a\":\"\\u12\"}", "{a:1}"}) {
+            assertThrows(IllegalArgumentException.class, () -> read(json, "a"), json);
+        }
+    }
+
+    @Test
+    void parsesNumericFieldsWithADefault() {
+        assertEquals(42, VippsJson.parseLong("42", -1));
+        assertEquals(-1, VippsJson.parseLong(null, -1));
+        assertEquals(-1, VippsJson.parseLong("4.5", -1));
+        assertEquals(-1, VippsJson.parseLong("\"soon\"", -1));
+    }
+
+    @Test
+    void writesTheReportRequestBody() {
+        byte[] body = VippsJson.reportRequestBody(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 12, 31));
+
+        assertEquals("{\"format\":\"CSV\",\"startDate\":\"2024-02-01\",\"endDate\":\"2024-12-31\"}",
+                new String(body, StandardCharsets.UTF_8));
+        assertArrayEquals(new String[] {"CSV", "2024-02-01", "2024-12-31"},
+                VippsJson.readFields(body, "format", "startDate", "endDate"));
+    }
+
+    private static String[] read(String json, String... names) {
+        return VippsJson.readFields(json.getBytes(StandardCharsets.UTF_8), names);
+    }
+}
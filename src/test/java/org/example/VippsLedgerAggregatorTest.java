@@ -0,0 +1,111 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VippsLedgerAggregatorTest {
+    private static final VippsDateRange RANGE =
+            new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+
+    @TempDir
+    Path directory;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void slicesGiveTheSameTotalsAsASequentialPass() throws IOException {
+        byte[] report = VippsSyntheticLedger.generate(RANGE, 2000);
+        Path file = Files.write(directory.resolve("report.csv"), report);
+        VippsLedgerTotals expected = sequentialTotals(file);
+
+        for (long sliceSize : new long[] {1, 37, 100, 4096, report.length}) {
+            assertSameTotals(expected, new VippsLedgerAggregator(pool, sliceSize).aggregate(file));
+        }
+    }
+
+    @Test
+    void cutsSlicesOnlyAtLineBreaks() throws IOException {
+        Path file = Files.writeString(directory.resolve("report.csv"),
+                "ledgerDate,amount\r\n2024-01-01,1.00\r\n2024-01-02,20.00\r\n2024-01-03,300.00");
+
+        for (long sliceSize = 1; sliceSize < 40; sliceSize++) {
+            VippsLedgerTotals totals = new VippsLedgerAggregator(pool, sliceSize).aggregate(file);
+            assertEquals(3, totals.getTotalCount(), "slice size " + sliceSize);
+            assertEquals(32100, totals.getTotalAmount(), "slice size " + sliceSize);
+        }
+    }
+
+    @Test
+    void aggregatesCompressedFilesWhateverTheirName() throws IOException {
+        byte[] report = VippsSyntheticLedger.generate(RANGE, 500);
+        Path plain = Files.write(directory.resolve("plain.csv"), report);
+        Path unnamed = directory.resolve("compressed.csv");
+        Path named = directory.resolve("compressed.csv.gz");
+        for (Path file : List.of(unnamed, named)) {
+            try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))) {
+                output.write(report);
+            }
+        }
+        VippsLedgerTotals expected = sequentialTotals(plain);
+
+        VippsLedgerAggregator aggregator = new VippsLedgerAggregator(pool, 64);
+        assertSameTotals(expected, aggregator.aggregate(unnamed));
+        assertSameTotals(expected, aggregator.aggregate(named));
+    }
+
+    @Test
+    void combinesSeveralFiles() throws IOException {
+        Path first = Files.writeString(directory.resolve("first.csv"), "ledgerDate,amount\n2024-01-01,1.00\n");
+        Path second = Files.writeString(directory.resolve("second.csv"), "amount;ledgerDate\n2,00;2024-01-01\n");
+
+        VippsLedgerTotals totals = new VippsLedgerAggregator(pool, 8).aggregate(List.of(first, second));
+
+        assertEquals(2, totals.getTotalCount());
+        assertEquals(300, totals.getDayAmounts().get(LocalDate.of(2024, 1, 1)));
+    }
+
+    @Test
+    void reportsMalformedRowsInAnySlice() throws IOException {
+        Path file = Files.writeString(directory.resolve("report.csv"),
+                "ledgerDate,amount\n2024-01-01,1.00\n2024-01-02,oops\n2024-01-03,3.00\n");
+
+        assertThrows(IOException.class, () -> new VippsLedgerAggregator(pool, 4).aggregate(file));
+    }
+
+    private static VippsLedgerTotals sequentialTotals(Path file) throws IOException {
+        VippsLedgerTotals totals = new VippsLedgerTotals();
+        try (VippsLedgerParser parser = VippsLedgerParser.open(file)) {
+            parser.forEach(totals::add);
+        }
+        return totals;
+    }
+
+    private static void assertSameTotals(VippsLedgerTotals expected, VippsLedgerTotals actual) {
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        assertEquals(expected.getTotalAmount(), actual.getTotalAmount());
+        for (VippsLedgerEntryType entryType : VippsLedgerEntryType.values()) {
+            assertEquals(expected.getAmount(entryType), actual.getAmount(entryType), entryType.name());
+            assertEquals(expected.getCount(entryType), actual.getCount(entryType), entryType.name());
+        }
+        assertEquals(expected.getDayAmounts(), actual.getDayAmounts());
+        assertEquals(expected.getPayoutAmounts(), actual.getPayoutAmounts());
+    }
+}
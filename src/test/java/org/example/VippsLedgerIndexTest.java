@@ -0,0 +1,157 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsLedgerIndexTest {
+    private static final String HEADER = "ledgerDate,amount,reference,payoutId\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsRowsByPayoutAndReference() throws IOException {
+        Path ledger = ledger("ledger.csv", HEADER +
+                "2024-01-01,1.00,order-1,payout-1\n" +
+                "2024-01-02,2.00,order-2,payout-1\n" +
+                "2024-01-03,3.00,order-3,\n");
+
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            assertEquals(3, index.update(List.of(ledger)));
+
+            assertEquals(List.of("2024-01-01,1.00,order-1,payout-1", "2024-01-02,2.00,order-2,payout-1"),
+                    rows(index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-1")));
+            List<VippsLedgerIndex.Match> matches = index.lookup(VippsLedgerIndex.KeyType.REFERENCE, "order-3");
+            assertEquals(1, matches.size());
+            assertEquals(ledger.toAbsolutePath().normalize(), matches.get(0).getFile());
+            assertEquals(Files.readString(ledger).indexOf("2024-01-03"), matches.get(0).getRowOffset());
+            assertTrue(index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "order-1").isEmpty());
+            assertTrue(index.lookup(VippsLedgerIndex.KeyType.REFERENCE, "order-4").isEmpty());
+        }
+    }
+
+    @Test
+    void indexesOnlyTheRowsAppendedSinceTheLastUpdate() throws IOException {
+        Path ledger = ledger("ledger.csv", HEADER + "2024-01-01,1.00,order-1,payout-1\n");
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            index.update(List.of(ledger));
+            Files.writeString(ledger, "2024-01-02,2.00,order-2,payout-1\n", StandardOpenOption.APPEND);
+
+            assertEquals(1, index.update(List.of(ledger)));
+            assertEquals(0, index.update(List.of(ledger)));
+            assertEquals(2, index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-1").size());
+        }
+    }
+
+    @Test
+    void reindexesAFileThatShrank() throws IOException {
+        Path ledger = ledger("ledger.csv", HEADER +
+                "2024-01-01,1.00,order-1,payout-1\n" +
+                "2024-01-02,2.00,order-2,payout-1\n");
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            index.update(List.of(ledger));
+            ledger("ledger.csv", HEADER + "2024-01-05,5.00,order-5,payout-1\n");
+
+            assertEquals(1, index.update(List.of(ledger)));
+            assertEquals(List.of("2024-01-05,5.00,order-5,payout-1"),
+                    rows(index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-1")));
+            assertTrue(index.lookup(VippsLedgerIndex.KeyType.REFERENCE, "order-1").isEmpty());
+        }
+    }
+
+    @Test
+    void forgetsDeletedFiles() throws IOException {
+        Path first = ledger("first.csv", HEADER + "2024-01-01,1.00,order-1,payout-1\n");
+        Path second = ledger("second.csv", HEADER + "2024-01-02,2.00,order-2,payout-1\n");
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            index.update(List.of(first, second));
+            Files.delete(first);
+
+            assertEquals(List.of("2024-01-02,2.00,order-2,payout-1"),
+                    rows(index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-1")));
+            assertEquals(List.of(second.toAbsolutePath().normalize().toString()), indexedPaths());
+        }
+    }
+
+    @Test
+    void keepsEveryEntryWhenSegmentsAreCompacted() throws IOException {
+        Path ledger = ledger("ledger.csv", HEADER);
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            for (int i = 0; i < 12; i++) {
+                Files.writeString(ledger, "2024-01-01,1.00,order-" + i + ",payout-x\n", StandardOpenOption.APPEND);
+                index.update(List.of(ledger));
+            }
+
+            assertTrue(segmentCount() <= 8);
+            assertEquals(12, index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-x").size());
+        }
+        try (VippsLedgerIndex reopened = new VippsLedgerIndex(directory.resolve("index"))) {
+            assertEquals(1, reopened.lookup(VippsLedgerIndex.KeyType.REFERENCE, "order-11").size());
+        }
+    }
+
+    @Test
+    void committedWriterReplacesEarlierEntriesOfTheFile() throws IOException {
+        Path ledger = ledger("ledger.csv", HEADER + "2024-01-01,1.00,order-1,payout-1\n");
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            index.update(List.of(ledger));
+            ledger("ledger.csv", HEADER + "2024-01-02,2.00,order-2,payout-2\n");
+
+            VippsLedgerIndex.Writer writer = index.writer(ledger);
+            try (VippsLedgerParser parser = VippsLedgerParser.open(ledger)) {
+                parser.forEach(writer::add);
+            }
+            assertEquals(1, writer.commit());
+
+            assertTrue(index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-1").isEmpty());
+            assertEquals(1, index.lookup(VippsLedgerIndex.KeyType.PAYOUT, "payout-2").size());
+            assertEquals(0, index.update(List.of(ledger)));
+        }
+    }
+
+    @Test
+    void skipsCompressedFiles() throws IOException {
+        Path ledger = ledger("ledger.csv.gz", HEADER + "2024-01-01,1.00,order-1,payout-1\n");
+        try (VippsLedgerIndex index = new VippsLedgerIndex(directory.resolve("index"))) {
+            assertEquals(0, index.update(List.of(ledger)));
+            assertTrue(indexedPaths().isEmpty());
+        }
+    }
+
+    private Path ledger(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content);
+    }
+
+    private static List<String> rows(List<VippsLedgerIndex.Match> matches) {
+        return matches.stream().map(VippsLedgerIndex.Match::getRow).map(String::strip).sorted()
+                .collect(Collectors.toList());
+    }
+
+    private List<String> indexedPaths() throws IOException {
+        Properties files = new Properties();
+        try (InputStream input = Files.newInputStream(directory.resolve("index").resolve("files.properties"))) {
+            files.load(input);
+        }
+        return files.stringPropertyNames().stream().filter(name -> name.endsWith(".path"))
+                .map(files::getProperty).collect(Collectors.toList());
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("index"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".idx")).count();
+        }
+    }
+}
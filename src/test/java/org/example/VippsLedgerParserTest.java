@@ -0,0 +1,170 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsLedgerParserTest {
+    @Test
+    void parsesTypedValues() throws IOException {
+        List<VippsLedgerRecord> records = parse(
+                "ledgerDate,time,entryType,amount,currency,reference,pspReference,payoutId\n" +
+                "2024-01-31,2024-01-31T10:15:30Z,capture,123.45,NOK,order-1,psp-1,payout-1\n" +
+                "2024-02-01,2024-02-01 23:30:00.250+01:00,REFUND,-7,NOK,order-2,psp-2,\n");
+
+        assertEquals(2, records.size());
+        VippsLedgerRecord first = records.get(0);
+        assertEquals(12345, first.getAmountMinor());
+        assertEquals(Instant.parse("2024-01-31T10:15:30Z").toEpochMilli(), first.getTimestampMillis());
+        assertEquals(LocalDate.of(2024, 1, 31).toEpochDay(), first.getLedgerEpochDay());
+        assertEquals(VippsLedgerEntryType.CAPTURE, first.getEntryType());
+        assertEquals("NOK", first.getCurrency().toString());
+        assertEquals("order-1", first.getReference().toString());
+        assertEquals("psp-1", first.getPspReference().toString());
+        assertEquals("payout-1", first.getPayoutId().toString());
+        assertTrue(first.hasLedgerDate());
+
+        VippsLedgerRecord second = records.get(1);
+        assertEquals(-700, second.getAmountMinor());
+        assertEquals(Instant.parse("2024-02-01T22:30:00.250Z").toEpochMilli(), second.getTimestampMillis());
+        assertEquals(VippsLedgerEntryType.REFUND, second.getEntryType());
+        assertEquals("", second.getPayoutId().toString());
+    }
+
+    @Test
+    void detectsSemicolonDelimiterAndDecimalComma() throws IOException {
+        List<VippsLedgerRecord> records = parse("date;amount;reference\n2024-01-01;10,5;a\n");
+
+        assertEquals(';', records.get(0).getRow().toString().charAt(10));
+        assertEquals(1050, records.get(0).getAmountMinor());
+        assertEquals("a", records.get(0).getReference().toString());
+    }
+
+    @Test
+    void unquotesValuesWithDelimitersQuotesAndLineBreaks() throws IOException {
+        List<VippsLedgerRecord> records = parse(
+                "amount,reference,pspReference\r\n" +
+                "1.00,\"a,b\",\"say \"\"hi\"\"\"\r\n" +
+                "2.00,\"two\nlines\",x\r\n");
+
+        assertEquals(2, records.size());
+        assertEquals("a,b", records.get(0).getReference().toString());
+        assertEquals("say \"hi\"", records.get(0).getPspReference().toString());
+        assertEquals("two\nlines", records.get(1).getReference().toString());
+        assertEquals(3, records.get(1).getLineNumber());
+    }
+
+    @Test
+    void skipsByteOrderMarkAndBlankLines() throws IOException {
+        byte[] header = "amount,reference\n".getBytes(StandardCharsets.UTF_8);
+        byte[] body = "\n1.00,a\n\n2.00,b".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[3 + header.length + body.length];
+        content[0] = (byte) 0xEF;
+        content[1] = (byte) 0xBB;
+        content[2] = (byte) 0xBF;
+        System.arraycopy(header, 0, content, 3, header.length);
+        System.arraycopy(body, 0, content, 3 + header.length, body.length);
+
+        try (VippsLedgerParser parser = new VippsLedgerParser(new ByteArrayInputStream(content))) {
+            assertEquals("amount", parser.getColumns().getNames()[0]);
+            List<VippsLedgerRecord> records = collect(parser);
+            assertEquals(2, records.size());
+            assertEquals("b", records.get(1).getReference().toString());
+        }
+    }
+
+    @Test
+    void reportsRowOffsetsInTheInput() throws IOException {
+        String content = "amount,reference\n1.00,a\n22.00,b\n";
+        List<VippsLedgerRecord> records = parse(content);
+
+        assertEquals(content.indexOf("1.00"), records.get(0).getRowOffset());
+        assertEquals(content.indexOf("22.00"), records.get(1).getRowOffset());
+        assertEquals("22.00,b", records.get(1).getRow().toString());
+    }
+
+    @Test
+    void parsesRowsSpanningBufferRefills() throws IOException {
+        byte[] content = VippsSyntheticLedger.generate(
+                new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 10)), 5000);
+        long rows;
+        try (VippsLedgerParser parser = new VippsLedgerParser(new OneByteAtATime(content))) {
+            rows = parser.forEach(record -> { });
+        }
+        assertEquals(5000, rows);
+    }
+
+    @Test
+    void marksRowsWithoutDateOrTimeAsUndated() throws IOException {
+        List<VippsLedgerRecord> records = parse("ledgerDate,time,amount\n,,1.00\n2024-01-02,,2.00\n");
+
+        assertFalse(records.get(0).hasLedgerDate());
+        assertEquals(0, records.get(0).getLedgerEpochDay());
+        assertTrue(records.get(1).hasLedgerDate());
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        assertThrows(IOException.class, () -> parse(""));
+        assertThrows(IOException.class, () -> parse("amount\nabc\n"));
+        assertThrows(IOException.class, () -> parse("amount,time\n1.00,yesterday\n"));
+        assertThrows(IOException.class, () -> parse("amount,reference\n1.00,\"unterminated\n"));
+    }
+
+    private static List<VippsLedgerRecord> parse(String content) throws IOException {
+        try (VippsLedgerParser parser = new VippsLedgerParser(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))) {
+            return collect(parser);
+        }
+    }
+
+    private static List<VippsLedgerRecord> collect(VippsLedgerParser parser) throws IOException {
+        List<VippsLedgerRecord> records = new ArrayList<>();
+        while (parser.next()) {
+            records.add(parser.getRecord().copy());
+        }
+        return records;
+    }
+
+    /**
+     * Returns at most one byte per read, so every row crosses a refill of the parser buffer
+     */
+    private static final class OneByteAtATime extends InputStream {
+        private final byte[] content;
+        private int position;
+
+        OneByteAtATime(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read() {
+            return position < content.length ? content[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int b = read();
+            if (b < 0) {
+                return -1;
+            }
+            bytes[offset] = (byte) b;
+            return 1;
+        }
+    }
+}
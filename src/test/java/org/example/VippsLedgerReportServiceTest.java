@@ -0,0 +1,268 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsLedgerReportServiceTest {
+    @TempDir
+    Path directory;
+
+    private VippsMockApiServer server;
+    private VippsAuthService authService;
+    private VippsLedgerReportService service;
+    private VippsLedgerIndex index;
+    private RecordingSinks exportSinks;
+    private Path outputDirectory;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new VippsMockApiServer(0);
+        server.setGenerationTime(Duration.ZERO);
+        server.setReportRows(50);
+        server.start();
+
+        VippsHttpClient httpClient = new VippsHttpClient();
+        VippsCredentialManager credentials = new VippsCredentialManager("client", "secret", "key");
+        authService = new VippsAuthService(credentials, httpClient, server.getBaseUrl());
+        service = new VippsLedgerReportService(authService, httpClient, credentials, server.getBaseUrl());
+
+        outputDirectory = Files.createDirectories(directory.resolve("reports"));
+        index = new VippsLedgerIndex(directory.resolve("index"));
+        VippsExportSinks standardSinks = new VippsExportSinks();
+        standardSinks.setColumnar(true);
+        standardSinks.setTotals(true);
+        standardSinks.setLedgerIndex(index);
+        exportSinks = new RecordingSinks(standardSinks);
+        service.setOutputDirectory(outputDirectory);
+        service.setExportSinks(exportSinks);
+    }
+
+    @AfterEach
+    void stopServer() {
+        authService.close();
+        server.close();
+    }
+
+    @Test
+    void shardedRetrievalExportsOnlyTheMergedReport() throws Exception {
+        String merged = service.retrieveLedgerReportSharded(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 3, 31),
+                VippsReportChunkSize.MONTH, 3);
+
+        assertNotNull(merged);
+        Path mergedFile = Paths.get(merged);
+        assertEquals(List.of(mergedFile.getFileName().toString()), reportFiles());
+        assertSidecarsBelongToExistingFiles();
+        assertIndexReferencesOnlyExistingFiles();
+        assertTrue(Files.exists(VippsColumnarLedgerWriter.columnarFileFor(mergedFile)));
+        assertTrue(Files.exists(VippsExportSinks.totalsFileFor(mergedFile)));
+        assertTrue(indexedFiles().contains(mergedFile.toAbsolutePath().normalize()));
+    }
+
+    @Test
+    void syncExportsTheLedgerInsteadOfTheFetchedReport() throws Exception {
+        Path ledgerFile = outputDirectory.resolve("ledger-shop-a.csv");
+        VippsWatermarkStore watermarks = new VippsWatermarkStore(directory.resolve("watermarks.properties"));
+
+        String synced = service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC);
+
+        assertNotNull(synced);
+        assertEquals(List.of(ledgerFile.getFileName().toString()), reportFiles());
+        assertSidecarsBelongToExistingFiles();
+        assertIndexReferencesOnlyExistingFiles();
+        assertTrue(Files.exists(VippsColumnarLedgerWriter.columnarFileFor(ledgerFile)));
+        assertTrue(Files.exists(VippsExportSinks.totalsFileFor(ledgerFile)));
+        assertTrue(indexedFiles().contains(ledgerFile.toAbsolutePath().normalize()));
+        assertEquals(List.of("replace ledger_shop-a 50"), exportSinks.commits);
+    }
+
+    @Test
+    void laterSyncsExportOnlyTheAppendedRowsAtTheirLedgerOffsets() throws Exception {
+        Path ledgerFile = outputDirectory.resolve("ledger.shop-a.v2.csv");
+        VippsWatermarkStore watermarks = new VippsWatermarkStore(directory.resolve("watermarks.properties"));
+        service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC);
+        long sizeBefore = Files.size(ledgerFile);
+        rewindWatermark(watermarks, ledgerFile);
+        exportSinks.reset();
+
+        service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC);
+
+        assertEquals(List.of("append ledger_shop-a 50"), exportSinks.commits);
+        byte[] ledger = Files.readAllBytes(ledgerFile);
+        assertEquals(sizeBefore, exportSinks.records.get(0).getRowOffset());
+        for (VippsLedgerRecord record : exportSinks.records) {
+            String row = new String(ledger, (int) record.getRowOffset(), record.getRow().length(), StandardCharsets.UTF_8);
+            assertEquals(record.getRow().toString(), row);
+        }
+
+        assertEquals(100, VippsLedgerTotals.readJson(VippsExportSinks.totalsFileFor(ledgerFile)).getTotalCount());
+        try (VippsColumnarLedgerReader reader =
+                     new VippsColumnarLedgerReader(VippsColumnarLedgerWriter.columnarFileFor(ledgerFile))) {
+            assertEquals(100, reader.getRowCount());
+        }
+        VippsLedgerRecord last = exportSinks.records.get(exportSinks.records.size() - 1);
+        List<VippsLedgerIndex.Match> matches =
+                index.lookup(VippsLedgerIndex.KeyType.REFERENCE, last.getReference().toString());
+        assertTrue(matches.stream().anyMatch(match -> match.getRowOffset() == last.getRowOffset()), matches.toString());
+        assertSidecarsBelongToExistingFiles();
+        assertTrue(Files.exists(outputDirectory.resolve("ledger.shop-a.v2.vlc")));
+        assertTrue(Files.exists(outputDirectory.resolve("ledger.shop-a.v2.totals.json")));
+    }
+
+    @Test
+    void syncAfterAFailedExportExportsTheWholeLedger() throws Exception {
+        Path ledgerFile = outputDirectory.resolve("ledger-shop-a.csv");
+        VippsWatermarkStore watermarks = new VippsWatermarkStore(directory.resolve("watermarks.properties"));
+        service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC);
+        rewindWatermark(watermarks, ledgerFile);
+        exportSinks.reset();
+        exportSinks.failNextCommit = true;
+
+        // The sinks before the failing one have committed the appended rows
+        assertThrows(VippsExportException.class,
+                () -> service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC));
+        assertTrue(watermarks.isExportPending("shop-a"));
+
+        service.syncLedger("shop-a", ledgerFile, watermarks, ZoneOffset.UTC);
+
+        assertEquals(List.of("replace ledger_shop-a 100"), exportSinks.commits);
+        assertFalse(watermarks.isExportPending("shop-a"));
+        assertEquals(100, VippsLedgerTotals.readJson(VippsExportSinks.totalsFileFor(ledgerFile)).getTotalCount());
+    }
+
+    /**
+     * Moves the watermark back a few days so that the next sync appends rows
+     */
+    private static void rewindWatermark(VippsWatermarkStore watermarks, Path ledgerFile) throws IOException {
+        watermarks.setWatermark("shop-a", LocalDate.now(ZoneOffset.UTC).minusDays(4), Files.size(ledgerFile));
+    }
+
+    /**
+     * @return the names of the CSV files in the output directory
+     */
+    private List<String> reportFiles() throws IOException {
+        try (Stream<Path> files = Files.list(outputDirectory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".csv") || name.endsWith(".csv.gz"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void assertSidecarsBelongToExistingFiles() throws IOException {
+        List<String> sidecars = new ArrayList<>();
+        for (String report : reportFiles()) {
+            Path reportFile = outputDirectory.resolve(report);
+            sidecars.add(VippsColumnarLedgerWriter.columnarFileFor(reportFile).getFileName().toString());
+            sidecars.add(VippsExportSinks.totalsFileFor(reportFile).getFileName().toString());
+        }
+        try (Stream<Path> files = Files.list(outputDirectory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".vlc") || name.endsWith(".totals.json")) {
+                    assertTrue(sidecars.contains(name), "Orphan sidecar " + name);
+                }
+            }
+        }
+    }
+
+    private void assertIndexReferencesOnlyExistingFiles() throws IOException {
+        for (Path file : indexedFiles()) {
+            assertTrue(Files.exists(file), "Index references deleted file " + file);
+        }
+    }
+
+    private List<Path> indexedFiles() throws IOException {
+        Properties files = new Properties();
+        try (InputStream input = Files.newInputStream(directory.resolve("index").resolve("files.properties"))) {
+            files.load(input);
+        }
+        List<Path> paths = new ArrayList<>();
+        for (String name : files.stringPropertyNames()) {
+            if (name.endsWith(".path")) {
+                paths.add(Paths.get(files.getProperty(name)));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Adds a sink after the standard ones that records the exported rows and each commit,
+     * and can fail its commit after the standard sinks have committed
+     */
+    private static final class RecordingSinks implements VippsLedgerPipeline.SinkFactory {
+        final List<VippsLedgerRecord> records = Collections.synchronizedList(new ArrayList<>());
+        final List<String> commits = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean failNextCommit;
+        private final VippsExportSinks delegate;
+
+        RecordingSinks(VippsExportSinks delegate) {
+            this.delegate = delegate;
+        }
+
+        void reset() {
+            records.clear();
+            commits.clear();
+        }
+
+        @Override
+        public List<VippsLedgerSink> createSinks(String reportId, Path reportFile) throws IOException {
+            return withRecorder(delegate.createSinks(reportId, reportFile), "replace " + reportId);
+        }
+
+        @Override
+        public List<VippsLedgerSink> createAppendSinks(String reportId, Path ledgerFile) throws IOException {
+            List<VippsLedgerSink> sinks = delegate.createAppendSinks(reportId, ledgerFile);
+            return sinks == null ? null : withRecorder(sinks, "append " + reportId);
+        }
+
+        private List<VippsLedgerSink> withRecorder(List<VippsLedgerSink> sinks, String export) {
+            List<VippsLedgerSink> all = new ArrayList<>(sinks);
+            List<VippsLedgerRecord> received = new ArrayList<>();
+            all.add(new VippsLedgerSink() {
+                @Override
+                public void accept(List<VippsLedgerRecord> batch) {
+                    received.addAll(batch);
+                }
+
+                @Override
+                public void commit() throws IOException {
+                    if (failNextCommit) {
+                        failNextCommit = false;
+                        throw new IOException("Injected commit failure");
+                    }
+                    records.addAll(received);
+                    commits.add(export + " " + received.size());
+                }
+
+                @Override
+                public void abort() {
+                }
+            });
+            return all;
+        }
+    }
+}
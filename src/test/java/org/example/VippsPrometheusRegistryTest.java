@@ -0,0 +1,108 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsPrometheusRegistryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rendersCountersPerLabelSet() {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.increment("vipps_requests_total", 1, "endpoint", "REPORT", "status", "200");
+        registry.increment("vipps_requests_total", 2, "endpoint", "AUTH", "status", "200");
+        registry.increment("vipps_requests_total", 3, "endpoint", "REPORT", "status", "200");
+        registry.increment("vipps_download_bytes_total", 1024);
+
+        assertEquals("# TYPE vipps_download_bytes_total counter\n" +
+                "vipps_download_bytes_total 1024\n" +
+                "# TYPE vipps_requests_total counter\n" +
+                "vipps_requests_total{endpoint=\"AUTH\",status=\"200\"} 2\n" +
+                "vipps_requests_total{endpoint=\"REPORT\",status=\"200\"} 4\n", registry.scrape());
+    }
+
+    @Test
+    void escapesLabelValues() {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.increment("vipps_errors_total", 1, "message", "say \"hi\"\\\nbye");
+
+        assertTrue(registry.scrape().contains("vipps_errors_total{message=\"say \\\"hi\\\"\\\\\\nbye\"} 1\n"),
+                registry.scrape());
+    }
+
+    @Test
+    void rendersHistogramsWithCumulativeBuckets() {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.setBuckets("vipps_poll_seconds", 5, 1);
+        registry.record("vipps_poll_seconds", 0.5, "endpoint", "STATUS");
+        registry.record("vipps_poll_seconds", 1, "endpoint", "STATUS");
+        registry.record("vipps_poll_seconds", 3, "endpoint", "STATUS");
+        registry.record("vipps_poll_seconds", 10, "endpoint", "STATUS");
+
+        assertEquals("# TYPE vipps_poll_seconds histogram\n" +
+                "vipps_poll_seconds_bucket{endpoint=\"STATUS\",le=\"1.0\"} 2\n" +
+                "vipps_poll_seconds_bucket{endpoint=\"STATUS\",le=\"5.0\"} 3\n" +
+                "vipps_poll_seconds_bucket{endpoint=\"STATUS\",le=\"+Inf\"} 4\n" +
+                "vipps_poll_seconds_sum{endpoint=\"STATUS\"} 14.5\n" +
+                "vipps_poll_seconds_count{endpoint=\"STATUS\"} 4\n", registry.scrape());
+    }
+
+    @Test
+    void rendersHistogramsWithoutLabels() {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.record("vipps_report_poll_attempts", 4);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("vipps_report_poll_attempts_bucket{le=\"3.0\"} 0\n"), scrape);
+        assertTrue(scrape.contains("vipps_report_poll_attempts_bucket{le=\"5.0\"} 1\n"), scrape);
+        assertTrue(scrape.contains("vipps_report_poll_attempts_count 1\n"), scrape);
+    }
+
+    @Test
+    void writesTheMetricsFile() throws IOException {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.increment("vipps_requests_total", 1);
+        Path file = directory.resolve("vipps.prom");
+
+        registry.writeFile(file);
+
+        assertEquals(registry.scrape(), Files.readString(file));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void servesTheMetricsOverHttp() throws Exception {
+        VippsPrometheusRegistry registry = new VippsPrometheusRegistry();
+        registry.increment("vipps_requests_total", 7);
+        HttpServer server = registry.startServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getAddress().getPort() + "/metrics"))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+            assertEquals(registry.scrape(), response.body());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
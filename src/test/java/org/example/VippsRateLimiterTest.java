@@ -0,0 +1,112 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsRateLimiterTest {
+    private static final long INTERVAL_MILLIS = 100;
+    private static final long TOLERANCE_MILLIS = 30;
+
+    @Test
+    void spacesRequestsEvenlyAtTheConfiguredRate() {
+        VippsRateLimiter limiter = limiter(10, 1);
+        HttpRequest request = reportRequest("key-a");
+
+        for (int i = 0; i < 5; i++) {
+            assertWait(i * INTERVAL_MILLIS, limiter.reserve(request));
+        }
+    }
+
+    @Test
+    void allowsABurstAfterAnIdlePeriod() {
+        VippsRateLimiter limiter = limiter(10, 3);
+        HttpRequest request = reportRequest("key-a");
+
+        assertWait(0, limiter.reserve(request));
+        assertWait(0, limiter.reserve(request));
+        assertWait(0, limiter.reserve(request));
+        assertWait(INTERVAL_MILLIS, limiter.reserve(request));
+    }
+
+    @Test
+    void keepsSeparateBucketsPerSubscriptionKeyAndEndpoint() {
+        VippsRateLimiter limiter = limiter(10, 1);
+        limiter.setRate(VippsEndpoint.STATUS, 10, 1);
+
+        assertWait(0, limiter.reserve(reportRequest("key-a")));
+        assertWait(0, limiter.reserve(reportRequest("key-b")));
+        assertWait(0, limiter.reserve(statusRequest("key-a")));
+        assertWait(INTERVAL_MILLIS, limiter.reserve(reportRequest("key-a")));
+    }
+
+    @Test
+    void pausesTheBucketWhenThrottled() {
+        VippsRateLimiter limiter = limiter(10, 5);
+        HttpRequest request = reportRequest("key-a");
+
+        limiter.onThrottled(request, 500);
+
+        assertWait(500, limiter.reserve(request));
+        assertWait(0, limiter.reserve(reportRequest("key-b")));
+    }
+
+    @Test
+    void neverDelaysUnlimitedEndpoints() {
+        VippsRateLimiter limiter = VippsRateLimiter.unlimited();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve(reportRequest("key-a")));
+        }
+        assertEquals(0, new VippsRateLimiter().reserve(downloadRequest()));
+    }
+
+    @Test
+    void completesAsyncReservationsAfterTheWait() throws Exception {
+        VippsRateLimiter limiter = limiter(10, 1);
+        HttpRequest request = reportRequest("key-a");
+
+        assertTrue(limiter.acquireAsync(request, null).isDone());
+        long start = System.nanoTime();
+        CompletableFuture<Void> delayed = limiter.acquireAsync(request, null);
+        assertFalse(delayed.isDone());
+        delayed.get(1, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= INTERVAL_MILLIS - TOLERANCE_MILLIS);
+    }
+
+    private static VippsRateLimiter limiter(double permitsPerSecond, int burst) {
+        VippsRateLimiter limiter = VippsRateLimiter.unlimited();
+        limiter.setRate(VippsEndpoint.REPORT, permitsPerSecond, burst);
+        return limiter;
+    }
+
+    private static void assertWait(long expectedMillis, long waitNanos) {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        assertTrue(waitMillis <= expectedMillis && waitMillis >= expectedMillis - TOLERANCE_MILLIS,
+                "expected about " + expectedMillis + " ms, waited " + waitMillis + " ms");
+    }
+
+    private static HttpRequest reportRequest(String subscriptionKey) {
+        return HttpRequest.newBuilder(URI.create("http://localhost/vipps-report/v1/report"))
+                .header("Ocp-Apim-Subscription-Key", subscriptionKey)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private static HttpRequest statusRequest(String subscriptionKey) {
+        return HttpRequest.newBuilder(URI.create("http://localhost/vipps-report/v1/report/r1"))
+                .header("Ocp-Apim-Subscription-Key", subscriptionKey)
+                .GET()
+                .build();
+    }
+
+    private static HttpRequest downloadRequest() {
+        return HttpRequest.newBuilder(URI.create("http://localhost/files/r1.csv")).GET().build();
+    }
+}
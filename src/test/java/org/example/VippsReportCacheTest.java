@@ -0,0 +1,125 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VippsReportCacheTest {
+    private static final VippsDateRange JANUARY =
+            new VippsDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+    private static final VippsDateRange FEBRUARY =
+            new VippsDateRange(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29));
+    private static final VippsDateRange MARCH =
+            new VippsDateRange(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void returnsACopyOfTheCachedReport() throws IOException {
+        VippsReportCache cache = newCache(1024 * 1024, Duration.ofMinutes(15));
+        cache.put("shop", "csv", JANUARY, false, "r1", report("report.csv", "amount\n1.00\n"));
+
+        Path copy = cache.get("shop", "csv", JANUARY, false, target());
+
+        assertNotNull(copy);
+        assertEquals("report.csv", copy.getFileName().toString());
+        assertEquals("amount\n1.00\n", Files.readString(copy));
+        assertNull(cache.get("shop", "csv", JANUARY, true, target()));
+        assertNull(cache.get("other", "csv", JANUARY, false, target()));
+    }
+
+    @Test
+    void survivesARestart() throws IOException {
+        newCache(1024 * 1024, Duration.ofMinutes(15))
+                .put("shop", "csv", JANUARY, false, "r1", report("report.csv", "amount\n1.00\n"));
+
+        assertNotNull(newCache(1024 * 1024, Duration.ofMinutes(15)).get("shop", "csv", JANUARY, false, target()));
+    }
+
+    @Test
+    void discardsEntriesThatFailTheIntegrityCheck() throws IOException {
+        VippsReportCache cache = newCache(1024 * 1024, Duration.ofMinutes(15));
+        cache.put("shop", "csv", JANUARY, false, "r1", report("report.csv", "amount\n1.00\n"));
+        for (Path entry : entries()) {
+            Files.writeString(entry, "amount\n9.99\n");
+        }
+
+        assertNull(cache.get("shop", "csv", JANUARY, false, target()));
+        assertEquals(0, entries().length);
+        try (var copies = Files.list(target())) {
+            assertEquals(0, copies.count());
+        }
+    }
+
+    @Test
+    void keepsTheEntryWhenTheCopyCannotBeWritten() throws IOException {
+        VippsReportCache cache = newCache(1024 * 1024, Duration.ofMinutes(15));
+        cache.put("shop", "csv", JANUARY, false, "r1", report("report.csv", "amount\n1.00\n"));
+
+        assertThrows(IOException.class,
+                () -> cache.get("shop", "csv", JANUARY, false, directory.resolve("missing")));
+        assertNotNull(cache.get("shop", "csv", JANUARY, false, target()));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() throws IOException, InterruptedException {
+        String content = "amount\n1.00\n";
+        VippsReportCache cache = newCache(2L * content.length(), Duration.ofMinutes(15));
+        cache.put("shop", "csv", JANUARY, false, "r1", report("january.csv", content));
+        Thread.sleep(5);
+        cache.put("shop", "csv", FEBRUARY, false, "r2", report("february.csv", content));
+        Thread.sleep(5);
+        assertNotNull(cache.get("shop", "csv", JANUARY, false, target()));
+        Thread.sleep(5);
+        cache.put("shop", "csv", MARCH, false, "r3", report("march.csv", content));
+
+        assertNotNull(cache.get("shop", "csv", JANUARY, false, target()));
+        assertNull(cache.get("shop", "csv", FEBRUARY, false, target()));
+        assertNotNull(cache.get("shop", "csv", MARCH, false, target()));
+    }
+
+    @Test
+    void expiresReportsOfTheOpenPeriodOnly() throws IOException, InterruptedException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        VippsDateRange open = new VippsDateRange(today.withDayOfMonth(1), today);
+        VippsReportCache cache = newCache(1024 * 1024, Duration.ofMillis(1));
+        cache.put("shop", "csv", open, false, "r1", report("open.csv", "amount\n1.00\n"));
+        cache.put("shop", "csv", JANUARY, false, "r2", report("closed.csv", "amount\n2.00\n"));
+        Thread.sleep(10);
+
+        assertNull(cache.get("shop", "csv", open, false, target()));
+        assertNotNull(cache.get("shop", "csv", JANUARY, false, target()));
+    }
+
+    private VippsReportCache newCache(long maxBytes, Duration openPeriodTtl) throws IOException {
+        return new VippsReportCache(directory.resolve("cache"), maxBytes, openPeriodTtl, ZoneOffset.UTC);
+    }
+
+    private Path report(String name, String content) throws IOException {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        return Files.writeString(source.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+    private Path target() throws IOException {
+        return Files.createDirectories(directory.resolve("target"));
+    }
+
+    private Path[] entries() throws IOException {
+        try (var files = Files.list(directory.resolve("cache"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".csv")).toArray(Path[]::new);
+        }
+    }
+}
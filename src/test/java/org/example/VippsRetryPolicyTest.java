@@ -0,0 +1,195 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.net.ssl.SSLSession;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VippsRetryPolicyTest {
+    private final VippsRetryPolicy policy =
+            new VippsRetryPolicy(4, Duration.ofMillis(100), Duration.ofMillis(1000), Duration.ofSeconds(10));
+
+    @Test
+    void retriesTransientStatusCodesOnly() {
+        for (int statusCode : new int[] {408, 429, 500, 502, 503, 504}) {
+            assertTrue(policy.isRetryable(statusCode), Integer.toString(statusCode));
+        }
+        for (int statusCode : new int[] {200, 400, 401, 403, 404, 409, 501}) {
+            assertFalse(policy.isRetryable(statusCode), Integer.toString(statusCode));
+        }
+    }
+
+    @Test
+    void retriesNonIdempotentRequestsOnlyIfTheServerDidNotActOnThem() {
+        assertTrue(policy.isRetryable(response(429), false));
+        assertTrue(policy.isRetryable(response(503, "Retry-After", "2"), false));
+        assertFalse(policy.isRetryable(response(503), false));
+        assertFalse(policy.isRetryable(response(500), false));
+        assertFalse(policy.isRetryable(response(504), false));
+
+        assertTrue(policy.isRetryable(response(500), true));
+        assertTrue(policy.isRetryable(response(503), true));
+    }
+
+    @Test
+    void retriesNonIdempotentRequestsAfterConnectFailuresOnly() {
+        assertTrue(VippsRetryPolicy.isRetryable(new ConnectException("refused"), false));
+        assertTrue(VippsRetryPolicy.isRetryable(new HttpConnectTimeoutException("timeout"), false));
+        assertFalse(VippsRetryPolicy.isRetryable(new HttpTimeoutException("timeout"), false));
+        assertFalse(VippsRetryPolicy.isRetryable(new IOException("reset"), false));
+        assertTrue(VippsRetryPolicy.isRetryable(new IOException("reset"), true));
+    }
+
+    @Test
+    void backsOffExponentiallyWithinTheJitterAndCap() {
+        long[] bases = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 1; attempt <= bases.length; attempt++) {
+            long base = bases[attempt - 1];
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.delayMillis(attempt, null);
+                assertTrue(delay >= base - base / 4 && delay <= base + base / 4, attempt + ": " + delay);
+            }
+        }
+    }
+
+    @Test
+    void honoursRetryAfterUpToTheLimit() {
+        assertEquals(3000, policy.delayMillis(1, response(429, "Retry-After", "3")));
+        assertEquals(0, policy.delayMillis(1, response(429, "Retry-After", "-5")));
+        assertEquals(-1, policy.delayMillis(1, response(429, "Retry-After", "60")));
+
+        String date = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        long delay = policy.delayMillis(1, response(503, "Retry-After", date));
+        assertTrue(delay > 3000 && delay <= 5000, Long.toString(delay));
+
+        long fallback = policy.delayMillis(1, response(503, "Retry-After", "soon"));
+        assertTrue(fallback >= 75 && fallback <= 125, Long.toString(fallback));
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailuresAndClosesAfterASuccessfulTrial() throws Exception {
+        VippsCircuitBreaker breaker = new VippsCircuitBreaker(VippsEndpoint.REPORT, 3, Duration.ofMillis(50));
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        VippsCircuitOpenException open = assertThrows(VippsCircuitOpenException.class, breaker::acquire);
+        assertEquals(VippsEndpoint.REPORT, open.getEndpoint());
+
+        Thread.sleep(60);
+        breaker.acquire();
+        // Only one trial request is let through while half open
+        assertThrows(VippsCircuitOpenException.class, breaker::acquire);
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    @Test
+    void failedTrialOpensTheCircuitAgain() throws Exception {
+        VippsCircuitBreaker breaker = new VippsCircuitBreaker(VippsEndpoint.AUTH, 2, Duration.ofMillis(50));
+        breaker.recordFailure();
+        breaker.recordFailure();
+        Thread.sleep(60);
+        breaker.acquire();
+
+        breaker.recordFailure();
+
+        assertTrue(breaker.isOpen());
+        assertThrows(VippsCircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void retryBudgetIsRefilledByFirstAttempts() {
+        VippsRetryBudget budget = new VippsRetryBudget(0.5, 2);
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+
+        budget.recordRequest();
+        assertFalse(budget.tryRetry());
+        budget.recordRequest();
+        assertTrue(budget.tryRetry());
+
+        for (int i = 0; i < 10; i++) {
+            budget.recordRequest();
+        }
+        assertEquals(2, budget.getAvailable());
+    }
+
+    private static HttpResponse<Void> response(int statusCode, String... headers) {
+        Map<String, List<String>> headerMap = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerMap.put(headers[i], List.of(headers[i + 1]));
+        }
+        HttpHeaders httpHeaders = HttpHeaders.of(headerMap, (name, value) -> true);
+
+        return new HttpResponse<>() {
+            @Override
+            public int statusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public HttpRequest request() {
+                return HttpRequest.newBuilder(URI.create("http://localhost/")).build();
+            }
+
+            @Override
+            public Optional<HttpResponse<Void>> previousResponse() {
+                return Optional.empty();
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return httpHeaders;
+            }
+
+            @Override
+            public Void body() {
+                return null;
+            }
+
+            @Override
+            public Optional<SSLSession> sslSession() {
+                return Optional.empty();
+            }
+
+            @Override
+            public URI uri() {
+                return URI.create("http://localhost/");
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return HttpClient.Version.HTTP_1_1;
+            }
+        };
+    }
+}